@@ -1,10 +1,16 @@
 package ule.edi.tree;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 
 /**
@@ -33,39 +39,244 @@ public abstract class AbstractTreeADT<T> implements TreeADT<T> {
 
 	protected T content;//	Información en el nodo raíz
 	
-	protected Map<String, Object> tags = new HashMap<>();
+	protected Map<String, Object> tags; // null mientras el nodo no tenga etiquetas
 	
+	// Etiquetas de IntTagKey y LongTagKey: slots[0] indica con un bit por
+	// clave cuales hay, y slots[1 + i] guarda la de la posicion i. null si no hay.
+	long[] slots;
+	
+	/**
+	 * El mapa se crea al pedirlo si el nodo aun no tenia etiquetas. Las
+	 * etiquetas de claves con valor primitivo pasan al mapa para que se vean
+	 * (y se puedan modificar) en el.
+	 */
 	@Override
 	public Map<String, Object> getTags() {
+		beforeTagRead();
+		if (tags == null) {
+			tags = new HashMap<>();
+		}
+		if (slots != null) {
+			long mask = slots[0];
+			while (mask != 0) {
+				int i = Long.numberOfTrailingZeros(mask);
+				mask &= mask - 1;
+				TagKey<?> key = TagKey.bySlot(i);
+				tags.put(key.getName(), key.fromBits(slots[1 + i]));
+			}
+			slots = null;
+		}
 		return tags;
 	}
 	
 	@Override
 	public void setTag(String k, Object v) {
+		TagKey<?> key = TagKey.lookup(k);
+		if (key != null && key.slot >= 0) {
+			if (key.getType().isInstance(v)) {
+				setSlot(key, key.toBits(v));
+				return;
+			}
+			clearSlot(key.slot);
+		}
+		if (tags == null) {
+			tags = new HashMap<>();
+		}
 		tags.put(k, v);
 	}
 	
 	@Override
 	public Object getTag(String k) {
-		return tags.get(k);
+		beforeTagRead();
+		if (slots != null) {
+			TagKey<?> key = TagKey.lookup(k);
+			if (key != null && key.slot >= 0 && hasSlot(key.slot)) {
+				return key.fromBits(slots[1 + key.slot]);
+			}
+		}
+		return tags == null ? null : tags.get(k);
+	}
+	
+	/**
+	 * Etiqueta este nodo con un valor int, sin crear objetos.
+	 */
+	public void setTag(IntTagKey key, int value) {
+		setSlot(key, value);
+	}
+	
+	/**
+	 * Etiqueta este nodo con un valor long, sin crear objetos.
+	 */
+	public void setTag(LongTagKey key, long value) {
+		setSlot(key, value);
+	}
+	
+	/**
+	 * Etiqueta este nodo con el valor dado para la clave.
+	 */
+	public <V> void setTag(TagKey<V> key, V value) {
+		if (key.slot >= 0 && value != null) {
+			setSlot(key, key.toBits(value));
+		} else {
+			setTag(key.getName(), value);
+		}
+	}
+	
+	/**
+	 * Devuelve la etiqueta int de este nodo, o missing si no la tiene.
+	 */
+	public int getTag(IntTagKey key, int missing) {
+		beforeTagRead();
+		if (hasSlot(key.slot)) {
+			return (int) slots[1 + key.slot];
+		}
+		Object rx = tags == null ? null : tags.get(key.getName());
+		return rx instanceof Integer ? (Integer) rx : missing;
+	}
+	
+	/**
+	 * Devuelve la etiqueta long de este nodo, o missing si no la tiene.
+	 */
+	public long getTag(LongTagKey key, long missing) {
+		beforeTagRead();
+		if (hasSlot(key.slot)) {
+			return slots[1 + key.slot];
+		}
+		Object rx = tags == null ? null : tags.get(key.getName());
+		return rx instanceof Long ? (Long) rx : missing;
+	}
+	
+	/**
+	 * Devuelve la etiqueta de este nodo para la clave, o null si no la tiene
+	 * o no es del tipo de la clave.
+	 */
+	public <V> V getTag(TagKey<V> key) {
+		beforeTagRead();
+		if (key.slot >= 0 && hasSlot(key.slot)) {
+			return key.fromBits(slots[1 + key.slot]);
+		}
+		Object rx = tags == null ? null : tags.get(key.getName());
+		return key.getType().isInstance(rx) ? key.getType().cast(rx) : null;
+	}
+	
+	/**
+	 * Quita la etiqueta de la clave, si este nodo la tiene.
+	 */
+	public void removeTag(TagKey<?> key) {
+		if (key.slot >= 0) {
+			clearSlot(key.slot);
+		}
+		if (tags != null) {
+			tags.remove(key.getName());
+		}
+	}
+	
+	/**
+	 * Se llama antes de leer las etiquetas del nodo o de mostrarlas, para
+	 * que las subclases que las calculan de forma diferida las pongan al dia.
+	 */
+	void beforeTagRead() {
+	}
+	
+	/**
+	 * Se llama antes de mostrar el arbol de este nodo, que ya recorre todos
+	 * sus nodos, asi que puede hacer mas trabajo que {@link #beforeTagRead()}.
+	 */
+	void beforeTagDisplay() {
+		beforeTagRead();
+	}
+	
+	private boolean hasSlot(int slot) {
+		return slots != null && (slots[0] & (1L << slot)) != 0;
+	}
+	
+	private void setSlot(TagKey<?> key, long bits) {
+		int slot = key.slot;
+		if (slots == null) {
+			slots = new long[2 + slot];
+		} else if (slots.length < 2 + slot) {
+			slots = Arrays.copyOf(slots, 2 + slot);
+		}
+		slots[0] |= 1L << slot;
+		slots[1 + slot] = bits;
+		if (tags != null && !tags.isEmpty()) {
+			// el valor queda solo en su posicion
+			tags.remove(key.getName());
+		}
 	}
 	
+	private void clearSlot(int slot) {
+		if (slots != null) {
+			slots[0] &= ~(1L << slot);
+			if (slots[0] == 0) {
+				slots = null;
+			}
+		}
+	}
+	
+	/**
+	 * Etiquetas del nodo para mostrarlas, sin pasar las de valor primitivo
+	 * al mapa del nodo. null si no tiene.
+	 */
+	Map<String, Object> displayTags() {
+		if (slots == null) {
+			return tags;
+		}
+		Map<String, Object> rx = tags == null ? new HashMap<String, Object>() : new HashMap<String, Object>(tags);
+		long mask = slots[0];
+		while (mask != 0) {
+			int i = Long.numberOfTrailingZeros(mask);
+			mask &= mask - 1;
+			TagKey<?> key = TagKey.bySlot(i);
+			rx.put(key.getName(), key.fromBits(slots[1 + i]));
+		}
+		return rx;
+	}
+	
+	/**
+	 * Recorre el árbol de forma iterativa con una pila de nodos pendientes y
+	 * en cada nodo con etiquetas quita, en el propio mapa, las que no están
+	 * en keep (convertido una sola vez en un conjunto). Si no queda ninguna
+	 * se descarta el mapa. Las de valor primitivo se filtran con una máscara
+	 * de bits. No baja por los sub-árboles vacíos.
+	 */
 	@Override
 	public void filterTags(String ... keep) {
-		
-		if (! tags.isEmpty()) {
-			HashMap<String, Object> rx = new HashMap<>();
-			for (int i = 0; i < keep.length; i++) {
-				if (tags.containsKey(keep[i])) {
-					rx.put(keep[i], tags.get(keep[i]));
-				}
+		Set<String> conservar = new HashSet<String>(Arrays.asList(keep));
+		long mascara = 0;
+		for (String k : keep) {
+			TagKey<?> key = TagKey.lookup(k);
+			if (key != null && key.slot >= 0) {
+				mascara |= 1L << key.slot;
 			}
-			this.tags = rx;
 		}
 		
-		if (! isEmpty()) {
-			for (int i = 0; i < getMaxDegree(); i++) {
-				getSubtree(i).filterTags(keep);
+		LinkedList<TreeADT<T>> pendientes = new LinkedList<TreeADT<T>>();
+		pendientes.push(this);
+		while (!pendientes.isEmpty()) {
+			TreeADT<T> t = pendientes.pop();
+			if (!(t instanceof AbstractTreeADT)) {
+				t.filterTags(keep);
+				continue;
+			}
+			
+			AbstractTreeADT<T> nodo = (AbstractTreeADT<T>) t;
+			if (nodo.tags != null) {
+				nodo.tags.keySet().retainAll(conservar);
+				if (nodo.tags.isEmpty()) {
+					nodo.tags = null;
+				}
+			}
+			if (nodo.slots != null) {
+				nodo.slots[0] &= mascara;
+				if (nodo.slots[0] == 0) {
+					nodo.slots = null;
+				}
+			}
+			if (! nodo.isEmpty()) {
+				for (int i = 0; i < nodo.getMaxDegree(); i++) {
+					pendientes.push(nodo.getSubtree(i));
+				}
 			}
 		}
 	}
@@ -151,7 +362,8 @@ public abstract class AbstractTreeADT<T> implements TreeADT<T> {
 			//	Raíz
 			result.append("{" + content.toString());
 			
-			if (! tags.isEmpty()) {
+			Map<String, Object> tags = displayTags();
+			if (tags != null && ! tags.isEmpty()) {
 				result.append(" [");
 				
 				List<String> sk = new LinkedList<String>(tags.keySet());
@@ -178,61 +390,71 @@ public abstract class AbstractTreeADT<T> implements TreeADT<T> {
 	}
 	
 	/**
-	 * Implementación para mostrar un árbol con niveles.
+	 * Devuelve una representación en niveles del árbol.
+	 * 
+	 * Se genera de forma iterativa, así que sirve también para árboles
+	 * degenerados.
 	 * 
-	 * @param t (sub-)árbol a mostrar.
-	 * @param bx buffer donde acumular el resultado.
-	 * @param depth profundidad de t en el árbol total.
+	 * @return cada nodo se muestra según su profundidad.
 	 */
-	private void render(TreeADT<T> t, StringBuffer bx, int depth) {
-		
-		//	Muestra el nodo raíz; tantos espacios como profundo sea
-		for (int i = 0; i < depth; i++) { bx.append("|  "); }
+	public String render() {
+		//	Acumula el resultado
+		StringBuilder rx = new StringBuilder();
+		TreeLines<T> lines = new TreeLines<T>(this, Integer.MAX_VALUE, Integer.MAX_VALUE);
+		while (lines.hasNext()) {
+			lines.appendNext(rx);
+			rx.append("\n");
+		}
+		return rx.toString();
+	}
+	
+	/**
+	 * Escribe la representación en niveles del árbol línea a línea, sin
+	 * construirla entera en memoria.
+	 * 
+	 * Los nodos a más de maxDepth niveles de la raíz no se muestran: en lugar
+	 * de los sub-árboles de un nodo del nivel maxDepth que no sea hoja se
+	 * escribe una línea "...". Tras escribir maxNodes nodos no vacíos, si
+	 * quedan más se escribe otra línea "..." y se termina.
+	 * 
+	 * @param out destino de las líneas, cada una terminada en "\n".
+	 * @param maxDepth nivel máximo a mostrar (la raíz está en el 0).
+	 * @param maxNodes número máximo de nodos no vacíos a mostrar.
+	 * @throws IOException si falla la escritura.
+	 * @throws IllegalArgumentException si out es null o algún límite es negativo.
+	 */
+	public void render(Writer out, int maxDepth, int maxNodes) throws IOException {
+		if (out == null)
+			throw new IllegalArgumentException();
 		
-		//	Y después de los espacios, la información
-		if (! t.isEmpty()) {
-			bx.append(t.getContent());
-			
-			Map<String, Object> tags = t.getTags();
-			
-			if (! tags.isEmpty()) {
-				bx.append(" [");
-				
-				List<String> sk = new LinkedList<String>(tags.keySet());
-				
-				Collections.sort(sk);
-				for (String k : sk) {
-					bx.append("(" + k + ", " + tags.get(k) + "), ");
-				}
-				bx.delete(bx.length() - 2, bx.length());
-				bx.append("]");
-			}
-			
-			bx.append("\n");
-			
-			//	Muestra sus sub-árboles (recursividad)
-			for (int i = 0; i < t.getMaxDegree(); i++) {
-				//	Que están a mayor profundidad que éste
-				render(t.getSubtree(i), bx, depth + 1);
-			}			
-		} else {
-			bx.append(AbstractTreeADT.EMPTY_TREE_MARK);
-			bx.append("\n");
+		TreeLines<T> lines = new TreeLines<T>(this, maxDepth, maxNodes);
+		StringBuilder line = new StringBuilder();
+		while (lines.hasNext()) {
+			line.setLength(0);
+			lines.appendNext(line);
+			line.append('\n');
+			out.append(line);
 		}
 	}
 	
 	/**
-	 * Devuelve una representación en niveles del árbol.
+	 * Devuelve las líneas de {@link #render()}, sin salto de línea, generadas
+	 * a medida que se recorre el iterador. Sirve para paginar árboles grandes.
 	 * 
-	 * @return cada nodo se muestra según su profundidad.
+	 * El árbol no debe modificarse mientras se recorre.
 	 */
-	public String render() {
-		//	Acumula el resultado
-		StringBuffer rx = new StringBuffer();
-		//	Genera usando recursividad
-		render(this, rx, 0);
-		//	
-		return rx.toString();
+	public Iterator<String> renderLines() {
+		return new TreeLines<T>(this, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Como {@link #renderLines()}, con los límites de
+	 * {@link #render(Writer, int, int)}.
+	 * 
+	 * @throws IllegalArgumentException si algún límite es negativo.
+	 */
+	public Iterator<String> renderLines(int maxDepth, int maxNodes) {
+		return new TreeLines<T>(this, maxDepth, maxNodes);
 	}
 	
 }
@@ -0,0 +1,375 @@
+package ule.edi.tree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Acceso asincrono a un {@link BinarySearchTreeImpl} desde muchos hilos, sin
+ * cerrojos alrededor del arbol.
+ *
+ * Las peticiones se encolan y un unico hilo propietario, el unico que toca el
+ * arbol, las atiende por lotes en orden de llegada ("flat combining"): los
+ * hilos que piden no compiten por el arbol ni se bloquean en un monitor, y
+ * el arbol se recorre siempre desde la misma cache. Dentro de un lote, las
+ * consultas de un elemento ya consultado o modificado en el mismo lote se
+ * resuelven sin bajar por el arbol; para eso los elementos deben tener
+ * equals y hashCode coherentes con compareTo.
+ *
+ * Los resultados se devuelven como CompletableFuture que completa el hilo
+ * propietario; las acciones encadenadas con metodos que no son *Async se
+ * ejecutan en el, asi que deben ser breves. Desde hilos virtuales se puede
+ * esperar con join() sin ocupar un hilo de plataforma.
+ *
+ * Se anotan las latencias (desde que se pide hasta que se completa) en un
+ * histograma con casillas de potencias de 2 divididas en
+ * {@link #SUB_BUCKETS} partes, de modo que los percentiles tienen un error
+ * relativo de hasta 1 / SUB_BUCKETS.
+ *
+ * @param <T> tipo de la informacion en cada nodo, comparable.
+ */
+public final class AsyncSearchTree<T extends Comparable<? super T>> implements AutoCloseable {
+
+	/**
+	 * Divisiones de cada potencia de 2 en el histograma de latencias.
+	 */
+	public static final int SUB_BUCKETS = 8;
+
+	private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+	private enum Op {
+		INSERT, CONTAINS, REMOVE
+	}
+
+	private static final class Request<T> {
+		final Op op;
+		final T element;
+		final CompletableFuture<Object> result = new CompletableFuture<Object>();
+		final long start = System.nanoTime();
+
+		Request(Op op, T element) {
+			this.op = op;
+			this.element = element;
+		}
+	}
+
+	private final BinarySearchTreeImpl<T> tree;
+	private final int maxBatch;
+	private final ConcurrentLinkedQueue<Request<T>> queue = new ConcurrentLinkedQueue<Request<T>>();
+	private final AtomicBoolean waiting = new AtomicBoolean();
+	private final Thread owner;
+	private volatile boolean closed;
+
+	// solo las escribe el hilo propietario
+	private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+	private volatile long completed;
+	private volatile long batches;
+
+	/**
+	 * Crea la fachada sobre un arbol vacio, con lotes de hasta 1024
+	 * peticiones.
+	 */
+	public AsyncSearchTree() {
+		this(new BinarySearchTreeImpl<T>(), 1024);
+	}
+
+	/**
+	 * Crea la fachada sobre tree, que desde ese momento solo debe usarse a
+	 * traves de ella, y arranca el hilo propietario.
+	 *
+	 * @param maxBatch peticiones como mucho en cada lote.
+	 * @throws IllegalArgumentException si tree es null o maxBatch es menor que 1
+	 */
+	public AsyncSearchTree(BinarySearchTreeImpl<T> tree, int maxBatch) {
+		if (tree == null || maxBatch < 1)
+			throw new IllegalArgumentException();
+
+		this.tree = tree;
+		this.maxBatch = maxBatch;
+		this.owner = new Thread(this::run, "async-search-tree");
+		owner.setDaemon(true);
+		owner.start();
+	}
+
+	/**
+	 * Pide insertar el elemento; el resultado es el de
+	 * {@link BinarySearchTreeImpl#insert(Comparable)}.
+	 *
+	 * @throws IllegalArgumentException si element es null
+	 * @throws IllegalStateException si la fachada esta cerrada
+	 */
+	public CompletableFuture<Boolean> insert(T element) {
+		return submit(Op.INSERT, element);
+	}
+
+	/**
+	 * Pide consultar si el elemento esta en el arbol.
+	 *
+	 * @throws IllegalArgumentException si element es null
+	 * @throws IllegalStateException si la fachada esta cerrada
+	 */
+	public CompletableFuture<Boolean> contains(T element) {
+		return submit(Op.CONTAINS, element);
+	}
+
+	/**
+	 * Pide quitar una instancia del elemento, como
+	 * {@link BinarySearchTreeImpl#remove(Comparable)}. Si no esta, el
+	 * resultado termina con NoSuchElementException.
+	 *
+	 * @throws IllegalArgumentException si element es null
+	 * @throws IllegalStateException si la fachada esta cerrada
+	 */
+	public CompletableFuture<Void> remove(T element) {
+		return submit(Op.REMOVE, element);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <R> CompletableFuture<R> submit(Op op, T element) {
+		if (element == null)
+			throw new IllegalArgumentException();
+		if (closed)
+			throw new IllegalStateException("closed");
+
+		Request<T> peticion = new Request<T>(op, element);
+		queue.offer(peticion);
+		if (closed && queue.remove(peticion)) {
+			// se cerro mientras se encolaba y nadie la ha recogido
+			throw new IllegalStateException("closed");
+		}
+		if (waiting.get() && waiting.compareAndSet(true, false)) {
+			LockSupport.unpark(owner);
+		}
+		return (CompletableFuture<R>) (CompletableFuture<?>) peticion.result;
+	}
+
+	/**
+	 * Bucle del hilo propietario. Si termina por un error fuera de las
+	 * peticiones, la fachada queda cerrada y las pendientes terminan con
+	 * IllegalStateException, en vez de esperar para siempre.
+	 */
+	private void run() {
+		List<Request<T>> lote = new ArrayList<Request<T>>(Math.min(maxBatch, 4096));
+		try {
+			serve(lote);
+		} finally {
+			closed = true;
+			IllegalStateException error = new IllegalStateException("closed");
+			for (Request<T> peticion : lote) {
+				// las ya completadas no cambian
+				peticion.result.completeExceptionally(error);
+			}
+			Request<T> peticion;
+			while ((peticion = queue.poll()) != null) {
+				peticion.result.completeExceptionally(error);
+			}
+		}
+	}
+
+	private void serve(List<Request<T>> lote) {
+		Map<T, Boolean> presentes = new HashMap<T, Boolean>();
+		while (true) {
+			Request<T> peticion = queue.poll();
+			if (peticion == null) {
+				if (closed) {
+					return;
+				}
+				waiting.set(true);
+				if (queue.isEmpty() && !closed) {
+					LockSupport.park(this);
+				}
+				waiting.set(false);
+				continue;
+			}
+
+			lote.clear();
+			do {
+				lote.add(peticion);
+			} while (lote.size() < maxBatch && (peticion = queue.poll()) != null);
+			execute(lote, presentes);
+		}
+	}
+
+	/**
+	 * Atiende un lote en orden. presentes guarda si cada elemento ya tocado en
+	 * el lote esta en el arbol. Cualquier excepcion o error de una peticion
+	 * termina solo su resultado.
+	 */
+	private void execute(List<Request<T>> lote, Map<T, Boolean> presentes) {
+		presentes.clear();
+		batches++;
+		for (Request<T> peticion : lote) {
+			T e = peticion.element;
+			Object rx = null;
+			Throwable error = null;
+			try {
+				switch (peticion.op) {
+				case INSERT:
+					rx = tree.insert(e);
+					presentes.put(e, Boolean.TRUE);
+					break;
+				case CONTAINS:
+					rx = presentes.get(e);
+					if (rx == null) {
+						rx = tree.contains(e);
+						presentes.put(e, (Boolean) rx);
+					}
+					break;
+				case REMOVE:
+					if (Boolean.FALSE.equals(presentes.get(e))) {
+						throw new NoSuchElementException();
+					}
+					presentes.remove(e);
+					tree.remove(e);
+					break;
+				}
+			} catch (Throwable ex) {
+				// tambien los Error: el fallo es solo de esta peticion
+				error = ex;
+			}
+			// las estadisticas ya incluyen la peticion cuando se completa
+			record(System.nanoTime() - peticion.start);
+			completed++;
+			if (error == null) {
+				peticion.result.complete(rx);
+			} else {
+				peticion.result.completeExceptionally(error);
+			}
+		}
+	}
+
+	private void record(long nanos) {
+		int i = bucket(Math.max(nanos, 0));
+		latencies.lazySet(i, latencies.get(i) + 1);
+	}
+
+	/**
+	 * Casilla de un valor: las 8 primeras son 0..7 y, a partir de ahi, cada
+	 * potencia de 2 se divide en SUB_BUCKETS partes iguales.
+	 */
+	private static int bucket(long v) {
+		if (v < SUB_BUCKETS) {
+			return (int) v;
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(v); // >= 3
+		int sub = (int) (v >>> (exp - 3)) & (SUB_BUCKETS - 1);
+		return (exp - 2) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Mayor valor de la casilla.
+	 */
+	private static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exp = bucket / SUB_BUCKETS + 2;
+		long sub = bucket % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << (exp - 3)) - 1;
+	}
+
+	/**
+	 * Devuelve, en nanosegundos, la latencia que no superan la fraccion p de
+	 * las peticiones atendidas (por ejemplo 0.99), o 0 si no hay ninguna.
+	 *
+	 * @throws IllegalArgumentException si p no esta en [0, 1]
+	 */
+	public long getLatencyPercentile(double p) {
+		if (!(p >= 0 && p <= 1))
+			throw new IllegalArgumentException();
+
+		long total = 0;
+		long[] h = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			h[i] = latencies.get(i);
+			total += h[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long objetivo = Math.max(1, (long) Math.ceil(p * total));
+		long acumulado = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			acumulado += h[i];
+			if (acumulado >= objetivo) {
+				return upperBound(i);
+			}
+		}
+		return upperBound(BUCKETS - 1);
+	}
+
+	/**
+	 * Numero de peticiones atendidas.
+	 */
+	public long getCompleted() {
+		return completed;
+	}
+
+	/**
+	 * Numero de lotes atendidos.
+	 */
+	public long getBatches() {
+		return batches;
+	}
+
+	/**
+	 * Peticiones por lote, de media.
+	 */
+	public double getAverageBatchSize() {
+		long b = batches;
+		return b == 0 ? 0 : (double) completed / b;
+	}
+
+	/**
+	 * Pone a cero las latencias y los contadores. Solo es exacto si no hay
+	 * peticiones en curso.
+	 */
+	public void resetStats() {
+		for (int i = 0; i < BUCKETS; i++) {
+			latencies.set(i, 0);
+		}
+		completed = 0;
+		batches = 0;
+	}
+
+	/**
+	 * Deja de aceptar peticiones, espera a que se atiendan las ya encoladas y
+	 * devuelve el arbol al hilo que llama. Las que lleguen a encolarse
+	 * mientras se cierra terminan con IllegalStateException.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(owner);
+		boolean interrumpido = false;
+		while (owner.isAlive()) {
+			try {
+				owner.join();
+			} catch (InterruptedException e) {
+				interrumpido = true;
+			}
+		}
+		Request<T> peticion;
+		while ((peticion = queue.poll()) != null) {
+			peticion.result.completeExceptionally(new IllegalStateException("closed"));
+		}
+		if (interrumpido) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Arbol de la fachada. Solo debe usarse directamente tras
+	 * {@link #close()}.
+	 */
+	public BinarySearchTreeImpl<T> getTree() {
+		return tree;
+	}
+}
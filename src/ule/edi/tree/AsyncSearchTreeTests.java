@@ -0,0 +1,151 @@
+package ule.edi.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncSearchTreeTests {
+
+	private AsyncSearchTree<Integer> arbol = null;
+
+	@Before
+	public void setupTree() {
+		arbol = new AsyncSearchTree<Integer>();
+	}
+
+	@After
+	public void closeTree() {
+		arbol.close();
+	}
+
+	@Test
+	public void testOperaciones() {
+		Assert.assertTrue(arbol.insert(10).join());
+		Assert.assertFalse(arbol.insert(10).join());
+		Assert.assertTrue(arbol.contains(10).join());
+		Assert.assertFalse(arbol.contains(20).join());
+		arbol.remove(10).join();
+		Assert.assertTrue(arbol.contains(10).join());
+		arbol.remove(10).join();
+		Assert.assertFalse(arbol.contains(10).join());
+		try {
+			arbol.remove(10).join();
+			Assert.fail("remove de un elemento que no esta");
+		} catch (CompletionException e) {
+			Assert.assertTrue(e.getCause() instanceof NoSuchElementException);
+		}
+		Assert.assertEquals(9, arbol.getCompleted());
+		Assert.assertTrue(arbol.getLatencyPercentile(0.5) > 0);
+		Assert.assertTrue(arbol.getLatencyPercentile(0.5) <= arbol.getLatencyPercentile(1.0));
+	}
+
+	@Test
+	public void testMismoLoteEnOrden() {
+		// sin esperar: las peticiones de un lote se atienden en orden
+		List<CompletableFuture<?>> r = new ArrayList<CompletableFuture<?>>();
+		r.add(arbol.contains(5));
+		r.add(arbol.insert(5));
+		r.add(arbol.contains(5));
+		r.add(arbol.remove(5));
+		r.add(arbol.contains(5));
+		r.add(arbol.remove(5));
+		Assert.assertEquals(false, r.get(0).join());
+		Assert.assertEquals(true, r.get(1).join());
+		Assert.assertEquals(true, r.get(2).join());
+		Assert.assertNull(r.get(3).join());
+		Assert.assertEquals(false, r.get(4).join());
+		Throwable error = r.get(5).handle((v, ex) -> ex).join();
+		Assert.assertTrue(error instanceof NoSuchElementException);
+	}
+
+	@Test
+	public void testVariosHilos() throws InterruptedException {
+		List<Thread> hilos = new ArrayList<Thread>();
+		for (int h = 0; h < 8; h++) {
+			final int base = h * 1000;
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					List<CompletableFuture<Boolean>> pendientes = new ArrayList<CompletableFuture<Boolean>>();
+					for (int i = 0; i < 1000; i++) {
+						pendientes.add(arbol.insert(base + i));
+					}
+					for (CompletableFuture<Boolean> f : pendientes) {
+						f.join();
+					}
+				}
+			};
+			hilos.add(t);
+			t.start();
+		}
+		for (Thread t : hilos) {
+			t.join();
+		}
+		arbol.close();
+		Assert.assertEquals(8000, arbol.getTree().size());
+		Assert.assertEquals(8000, arbol.getCompleted());
+		Assert.assertTrue(arbol.getBatches() <= 8000);
+	}
+
+	/**
+	 * Elemento cuya comparacion falla con un Error si es negativo.
+	 */
+	private static final class Fragil implements Comparable<Fragil> {
+		final int v;
+
+		Fragil(int v) {
+			this.v = v;
+		}
+
+		@Override
+		public int compareTo(Fragil o) {
+			if (v < 0 || o.v < 0)
+				throw new AssertionError("fragil");
+			return Integer.compare(v, o.v);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Fragil && ((Fragil) o).v == v;
+		}
+
+		@Override
+		public int hashCode() {
+			return v;
+		}
+	}
+
+	@Test
+	public void testErrorEnUnaPeticion() {
+		AsyncSearchTree<Fragil> fragil = new AsyncSearchTree<Fragil>();
+		try {
+			Assert.assertTrue(fragil.insert(new Fragil(1)).join());
+			Throwable error = fragil.insert(new Fragil(-1)).handle((v, ex) -> ex).join();
+			Assert.assertTrue(error instanceof AssertionError);
+			// el hilo propietario sigue atendiendo
+			Assert.assertTrue(fragil.contains(new Fragil(1)).join());
+			Assert.assertTrue(fragil.insert(new Fragil(2)).join());
+			Assert.assertEquals(4, fragil.getCompleted());
+		} finally {
+			fragil.close();
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCerrado() {
+		arbol.close();
+		arbol.contains(1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNull() {
+		arbol.insert(null);
+	}
+}
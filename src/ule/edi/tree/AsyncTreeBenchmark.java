@@ -0,0 +1,150 @@
+package ule.edi.tree;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compara un {@link BinarySearchTreeImpl} protegido con un cerrojo con la
+ * fachada {@link AsyncSearchTree}, con varios hilos clientes haciendo a la
+ * vez consultas (80%), inserciones y borrados de elementos al azar.
+ *
+ * Uso: java ule.edi.tree.AsyncTreeBenchmark [clientes] [peticiones] [ventana]
+ *
+ * Con el cerrojo cada cliente hace sus peticiones una tras otra; con la
+ * fachada mantiene hasta ventana peticiones pendientes. Se muestran las
+ * peticiones por segundo y los percentiles de latencia de cada peticion,
+ * desde que se pide hasta que se tiene el resultado.
+ */
+public class AsyncTreeBenchmark {
+
+	private static final int ELEMENTOS = 100000;
+
+	public static void main(String[] args) throws InterruptedException {
+		int clientes = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		int peticiones = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int ventana = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+
+		System.out.printf("%d clientes, %d peticiones por cliente, ventana %d%n", clientes, peticiones, ventana);
+		System.out.printf("%-9s %12s %10s %10s %10s%n", "acceso", "pet/s", "p50 us", "p99 us", "p99.9 us");
+		for (int i = 0; i < 2; i++) {
+			// la primera vuelta sirve de calentamiento
+			run(false, clientes, peticiones, ventana, i == 1);
+			run(true, clientes, peticiones, ventana, i == 1);
+		}
+	}
+
+	private static BinarySearchTreeImpl<Integer> build() {
+		BinarySearchTreeImpl<Integer> rx = new BinarySearchTreeImpl<Integer>();
+		Random random = new Random(42);
+		for (int i = 0; i < ELEMENTOS / 2; i++) {
+			rx.insert(random.nextInt(ELEMENTOS));
+		}
+		return rx;
+	}
+
+	private static void run(final boolean async, int clientes, final int peticiones, final int ventana, boolean mostrar)
+			throws InterruptedException {
+		final BinarySearchTreeImpl<Integer> arbol = build();
+		final ReentrantLock cerrojo = new ReentrantLock();
+		final AsyncSearchTree<Integer> fachada = async ? new AsyncSearchTree<Integer>(arbol, 1024) : null;
+		final long[][] latencias = new long[clientes][peticiones];
+
+		Thread[] hilos = new Thread[clientes];
+		for (int c = 0; c < clientes; c++) {
+			final long[] mias = latencias[c];
+			final Random random = new Random(c);
+			hilos[c] = new Thread() {
+				@Override
+				public void run() {
+					if (async) {
+						runAsync(fachada, random, mias, ventana);
+					} else {
+						runLocked(arbol, cerrojo, random, mias);
+					}
+				}
+			};
+		}
+
+		long inicio = System.nanoTime();
+		for (Thread t : hilos) {
+			t.start();
+		}
+		for (Thread t : hilos) {
+			t.join();
+		}
+		long ns = System.nanoTime() - inicio;
+		if (fachada != null) {
+			fachada.close();
+		}
+
+		if (mostrar) {
+			long[] todas = new long[clientes * peticiones];
+			for (int c = 0; c < clientes; c++) {
+				System.arraycopy(latencias[c], 0, todas, c * peticiones, peticiones);
+			}
+			Arrays.sort(todas);
+			System.out.printf("%-9s %12.0f %10.1f %10.1f %10.1f%n", async ? "fachada" : "cerrojo",
+					todas.length * 1e9 / ns, percentile(todas, 0.50) / 1e3, percentile(todas, 0.99) / 1e3,
+					percentile(todas, 0.999) / 1e3);
+		}
+	}
+
+	private static void runLocked(BinarySearchTreeImpl<Integer> arbol, ReentrantLock cerrojo, Random random,
+			long[] latencias) {
+		for (int i = 0; i < latencias.length; i++) {
+			int x = random.nextInt(ELEMENTOS);
+			int op = random.nextInt(10);
+			long inicio = System.nanoTime();
+			cerrojo.lock();
+			try {
+				if (op < 8) {
+					arbol.contains(x);
+				} else if (op == 8) {
+					arbol.insert(x);
+				} else if (arbol.contains(x)) {
+					arbol.remove(x);
+				}
+			} finally {
+				cerrojo.unlock();
+			}
+			latencias[i] = System.nanoTime() - inicio;
+		}
+	}
+
+	private static void runAsync(AsyncSearchTree<Integer> fachada, Random random, long[] latencias, int ventana) {
+		ArrayDeque<CompletableFuture<?>> pendientes = new ArrayDeque<CompletableFuture<?>>();
+		long[] inicios = new long[latencias.length];
+		int terminadas = 0;
+		for (int i = 0; i < latencias.length; i++) {
+			if (pendientes.size() == ventana) {
+				pendientes.poll().handle((v, ex) -> v).join();
+				latencias[terminadas] = System.nanoTime() - inicios[terminadas];
+				terminadas++;
+			}
+			int x = random.nextInt(ELEMENTOS);
+			int op = random.nextInt(10);
+			inicios[i] = System.nanoTime();
+			if (op < 8) {
+				pendientes.add(fachada.contains(x));
+			} else if (op == 8) {
+				pendientes.add(fachada.insert(x));
+			} else {
+				// puede no estar: el error se ignora
+				pendientes.add(fachada.remove(x));
+			}
+		}
+		while (!pendientes.isEmpty()) {
+			pendientes.poll().handle((v, ex) -> v).join();
+			latencias[terminadas] = System.nanoTime() - inicios[terminadas];
+			terminadas++;
+		}
+	}
+
+	private static long percentile(long[] ordenados, double p) {
+		int i = (int) Math.ceil(p * ordenados.length) - 1;
+		return ordenados[Math.max(0, Math.min(i, ordenados.length - 1))];
+	}
+}
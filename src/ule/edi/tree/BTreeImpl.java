@@ -0,0 +1,709 @@
+package ule.edi.tree;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+/**
+ * arbol B (B-tree) de busqueda con instancias, alternativa de nodos anchos a
+ * {@link BinarySearchTreeImpl} para conjuntos muy grandes de elementos.
+ *
+ * Cada nodo guarda hasta 2t-1 elementos ordenados en un array, cada uno con su
+ * contador de instancias, y hasta 2t hijos, donde t es el grado minimo. Todas
+ * las hojas estan a la misma profundidad, que es O(log_t n): una busqueda
+ * recorre muy pocos nodos y dentro de cada uno hace una busqueda binaria sobre
+ * un array contiguo.
+ *
+ * Las operaciones de insercion, busqueda y borrado tienen la misma semantica
+ * que las de {@link BinarySearchTreeImpl}: un elemento repetido incrementa su
+ * count, y al borrar se decrementa hasta que llega a cero y se elimina.
+ *
+ * Como {@link TreeADT}, cada nodo es un arbol: su grado maximo es 2t, sus
+ * sub-arboles son sus hijos (vacios en las hojas) y su contenido es el menor
+ * de sus elementos. El contenido no se puede cambiar con setContent porque
+ * romperia el orden.
+ *
+ * En toString() cada nodo se muestra con sus elementos entre corchetes
+ * seguidos de sus hijos, por ejemplo {[10, 20(2)], {[5]}, {[15]}, {[30, 40]}}.
+ *
+ * @param <T> tipo de la informacion en cada nodo, comparable.
+ */
+public class BTreeImpl<T extends Comparable<? super T>> extends AbstractTreeADT<T> {
+
+	/**
+	 * Numero maximo de hijos por defecto.
+	 */
+	public static final int DEFAULT_FANOUT = 64;
+
+	private final int t; // grado minimo
+	private Object[] keys; // elementos ordenados, keys[0..n)
+	private int[] counts; // instancias de cada elemento
+	private BTreeImpl<T>[] children; // hijos[0..n], null en las hojas
+	private int n; // numero de elementos en este nodo
+	private BTreeImpl<T> empty; // arbol vacio que devuelve getSubtree donde no hay hijo, null hasta pedirlo
+
+	/**
+	 * arbol B vacio con el numero maximo de hijos por defecto.
+	 */
+	public BTreeImpl() {
+		this(DEFAULT_FANOUT);
+	}
+
+	/**
+	 * arbol B vacio.
+	 *
+	 * @param fanout numero maximo de hijos de cada nodo; si es impar se
+	 *               redondea hacia abajo
+	 * @throws IllegalArgumentException si fanout es menor que 4
+	 */
+	public BTreeImpl(int fanout) {
+		if (fanout < 4)
+			throw new IllegalArgumentException();
+
+		this.t = fanout / 2;
+		this.keys = new Object[2 * t - 1];
+		this.counts = new int[2 * t - 1];
+		this.children = null;
+		this.n = 0;
+	}
+
+	/**
+	 * arbol vacio sin arrays para sus elementos, que se crean al insertar
+	 * el primero.
+	 */
+	private BTreeImpl(int fanout, boolean sinArrays) {
+		this.t = fanout / 2;
+		this.keys = null;
+		this.counts = null;
+		this.children = null;
+		this.n = 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T key(int i) {
+		return (T) keys[i];
+	}
+
+	@SuppressWarnings("unchecked")
+	private void makeInternal() {
+		this.children = (BTreeImpl<T>[]) new BTreeImpl<?>[2 * t];
+	}
+
+	private boolean isLeafNode() {
+		return children == null;
+	}
+
+	/**
+	 * Primera posicion de este nodo cuyo elemento no es menor que elem.
+	 */
+	private int lowerBound(T elem) {
+		int lo = 0;
+		int hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (key(mid).compareTo(elem) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return n == 0;
+	}
+
+	@Override
+	public boolean isLeaf() {
+		return n > 0 && isLeafNode();
+	}
+
+	@Override
+	public int getDegree() {
+		return isLeafNode() ? 0 : n + 1;
+	}
+
+	@Override
+	public int getMaxDegree() {
+		return 2 * t;
+	}
+
+	/**
+	 * Devuelve el hijo n-esimo; en las hojas, y a partir del hijo numero
+	 * de elementos + 1, devuelve un arbol vacio.
+	 *
+	 * El arbol vacio se crea la primera vez que se pide y despues este nodo
+	 * devuelve siempre el mismo mientras siga vacio. No forma parte del
+	 * arbol: insertar en el o etiquetarlo no cambia este nodo ni ningun
+	 * otro arbol, y sus arrays no se reservan hasta que se inserta.
+	 */
+	@Override
+	public TreeADT<T> getSubtree(int i) {
+		if (i < 0 || i >= getMaxDegree())
+			throw new IllegalStateException("getSubtree(n) on a B-tree needs n in [0, " + getMaxDegree() + ")");
+
+		if (isLeafNode() || i > n) {
+			if (empty == null || !empty.isEmpty()) {
+				empty = new BTreeImpl<T>(getMaxDegree(), true);
+			}
+			return empty;
+		}
+		return children[i];
+	}
+
+	/**
+	 * Devuelve el menor elemento de este nodo, o null si es vacio.
+	 */
+	@Override
+	public T getContent() {
+		return n == 0 ? null : key(0);
+	}
+
+	/**
+	 * No se permite: cambiar un elemento podria romper el orden del arbol.
+	 *
+	 * @throws UnsupportedOperationException siempre
+	 */
+	@Override
+	public void setContent(T content) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Inserta los elementos que no sean null, de una coleccion en el arbol.
+	 *
+	 * @return numero de elementos insertados en el arbol (elementos diferentes de null)
+	 */
+	public int insert(Collection<T> elements) {
+		int cont = 0;
+		for (T elemento : elements) {
+			if (elemento != null) {
+				cont++;
+				this.insert(elemento);
+			}
+		}
+		return cont;
+	}
+
+	/**
+	 * Inserta los elementos que no sean null, de un array en el arbol.
+	 *
+	 * @return numero de elementos insertados en el arbol (elementos diferentes de null)
+	 */
+	public int insert(@SuppressWarnings("unchecked") T... elements) {
+		int cont = 0;
+		for (T elemento : elements) {
+			if (elemento != null) {
+				cont++;
+				this.insert(elemento);
+			}
+		}
+		return cont;
+	}
+
+	/**
+	 * Inserta un elemento. Si ya existe, incrementa su count.
+	 *
+	 * Baja una sola vez desde la raiz partiendo por el camino los nodos
+	 * llenos, de modo que nunca hay que volver a subir.
+	 *
+	 * @return true si se inserto como elemento nuevo, false si ya existia
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public boolean insert(T element) {
+		if (element == null)
+			throw new IllegalArgumentException();
+		if (keys == null) {
+			keys = new Object[2 * t - 1];
+			counts = new int[2 * t - 1];
+		}
+
+		if (n == 2 * t - 1) {
+			// La raiz llena pasa a ser su propio hijo; este objeto sigue
+			// siendo la raiz
+			BTreeImpl<T> antigua = new BTreeImpl<T>(getMaxDegree());
+			antigua.moveFrom(this);
+			makeInternal();
+			children[0] = antigua;
+			splitChild(0);
+		}
+
+		BTreeImpl<T> nodo = this;
+		while (true) {
+			int i = nodo.lowerBound(element);
+			if (i < nodo.n && nodo.key(i).compareTo(element) == 0) {
+				nodo.counts[i]++;
+				return false;
+			}
+			if (nodo.isLeafNode()) {
+				System.arraycopy(nodo.keys, i, nodo.keys, i + 1, nodo.n - i);
+				System.arraycopy(nodo.counts, i, nodo.counts, i + 1, nodo.n - i);
+				nodo.keys[i] = element;
+				nodo.counts[i] = 1;
+				nodo.n++;
+				return true;
+			}
+			if (nodo.children[i].n == 2 * t - 1) {
+				nodo.splitChild(i);
+				int cmp = nodo.key(i).compareTo(element);
+				if (cmp == 0) {
+					nodo.counts[i]++;
+					return false;
+				} else if (cmp < 0) {
+					i++;
+				}
+			}
+			nodo = nodo.children[i];
+		}
+	}
+
+	/**
+	 * Pasa todo el contenido de otro nodo a este, dejando el otro vacio.
+	 */
+	private void moveFrom(BTreeImpl<T> otro) {
+		this.keys = otro.keys;
+		this.counts = otro.counts;
+		this.children = otro.children;
+		this.n = otro.n;
+		otro.keys = new Object[2 * t - 1];
+		otro.counts = new int[2 * t - 1];
+		otro.children = null;
+		otro.n = 0;
+	}
+
+	/**
+	 * Parte el hijo i, que esta lleno, en dos nodos de t-1 elementos y sube
+	 * su mediana a este nodo, que no puede estar lleno.
+	 */
+	private void splitChild(int i) {
+		BTreeImpl<T> y = children[i];
+		BTreeImpl<T> z = new BTreeImpl<T>(getMaxDegree());
+		System.arraycopy(y.keys, t, z.keys, 0, t - 1);
+		System.arraycopy(y.counts, t, z.counts, 0, t - 1);
+		if (!y.isLeafNode()) {
+			z.makeInternal();
+			System.arraycopy(y.children, t, z.children, 0, t);
+			for (int j = t; j < 2 * t; j++) {
+				y.children[j] = null;
+			}
+		}
+		z.n = t - 1;
+
+		System.arraycopy(children, i + 1, children, i + 2, n - i);
+		children[i + 1] = z;
+		System.arraycopy(keys, i, keys, i + 1, n - i);
+		System.arraycopy(counts, i, counts, i + 1, n - i);
+		keys[i] = y.keys[t - 1];
+		counts[i] = y.counts[t - 1];
+		n++;
+
+		for (int j = t - 1; j < 2 * t - 1; j++) {
+			y.keys[j] = null;
+		}
+		y.n = t - 1;
+	}
+
+	/**
+	 * Busca el elemento en el arbol.
+	 *
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public boolean contains(T element) {
+		return getCount(element) > 0;
+	}
+
+	/**
+	 * Devuelve el numero de instancias del elemento, 0 si no esta.
+	 *
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public int getCount(T element) {
+		if (element == null)
+			throw new IllegalArgumentException();
+
+		BTreeImpl<T> nodo = this;
+		while (nodo != null && nodo.n > 0) {
+			int i = nodo.lowerBound(element);
+			if (i < nodo.n && nodo.key(i).compareTo(element) == 0) {
+				return nodo.counts[i];
+			}
+			nodo = nodo.isLeafNode() ? null : nodo.children[i];
+		}
+		return 0;
+	}
+
+	/**
+	 * Elimina los valores en un array del arbol, una instancia por valor.
+	 *
+	 * @return numero de elementos eliminados del arbol
+	 */
+	public int remove(@SuppressWarnings("unchecked") T... elements) {
+		int cont = 0;
+		for (T elemento : elements) {
+			if (elemento != null && removeInstances(elemento, 1)) {
+				cont++;
+			}
+		}
+		return cont;
+	}
+
+	/**
+	 * Elimina una instancia del elemento. Si era la ultima, el elemento
+	 * desaparece del arbol.
+	 *
+	 * @throws NoSuchElementException si el elemento no esta en el arbol
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public void remove(T element) {
+		remove(element, 1);
+	}
+
+	/**
+	 * Decrementa el numero de instancias del elemento en num unidades. Si
+	 * count queda en cero o negativo, se elimina el elemento del arbol.
+	 *
+	 * @throws NoSuchElementException si el elemento no esta en el arbol
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public void remove(T element, int num) {
+		if (element == null)
+			throw new IllegalArgumentException();
+
+		if (!removeInstances(element, num))
+			throw new NoSuchElementException();
+	}
+
+	/**
+	 * Resta num instancias al elemento, que no es null, y lo borra si se
+	 * queda sin ninguna.
+	 *
+	 * @return false si el elemento no estaba en el arbol
+	 */
+	private boolean removeInstances(T element, int num) {
+		// Busqueda previa: si solo hay que decrementar, no se toca la forma
+		BTreeImpl<T> nodo = this;
+		while (nodo != null && nodo.n > 0) {
+			int i = nodo.lowerBound(element);
+			if (i < nodo.n && nodo.key(i).compareTo(element) == 0) {
+				if (nodo.counts[i] - num > 0) {
+					nodo.counts[i] -= num;
+				} else {
+					this.delete(element);
+					this.shrinkRoot();
+				}
+				return true;
+			}
+			nodo = nodo.isLeafNode() ? null : nodo.children[i];
+		}
+		return false;
+	}
+
+	/**
+	 * Elimina todas las instancias del elemento.
+	 *
+	 * @return numero de instancias que tenia
+	 * @throws NoSuchElementException si el elemento no esta en el arbol
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public int removeAll(T element) {
+		if (element == null)
+			throw new IllegalArgumentException();
+
+		int rx = this.delete(element);
+		this.shrinkRoot();
+		if (rx == 0)
+			throw new NoSuchElementException();
+		return rx;
+	}
+
+	/**
+	 * Si la raiz se ha quedado sin elementos pero tiene un hijo, ese hijo
+	 * pasa a ser la raiz (en este mismo objeto).
+	 */
+	private void shrinkRoot() {
+		if (n == 0 && !isLeafNode()) {
+			moveFrom(children[0]);
+		}
+	}
+
+	/**
+	 * Borra el elemento (con todas sus instancias) del sub-arbol de este
+	 * nodo, que tiene al menos t elementos salvo que sea la raiz. Antes de
+	 * bajar a un hijo se asegura de que tambien tenga al menos t, para no
+	 * tener que volver a subir. Si el elemento no esta, el recorrido puede
+	 * haber redistribuido elementos entre nodos, pero el arbol sigue siendo
+	 * valido y con los mismos elementos.
+	 *
+	 * @return instancias que tenia el elemento, 0 si no estaba
+	 */
+	private int delete(T element) {
+		if (n == 0) {
+			return 0;
+		}
+		int i = lowerBound(element);
+		boolean aqui = i < n && key(i).compareTo(element) == 0;
+
+		if (aqui && isLeafNode()) {
+			int rx = counts[i];
+			System.arraycopy(keys, i + 1, keys, i, n - i - 1);
+			System.arraycopy(counts, i + 1, counts, i, n - i - 1);
+			n--;
+			keys[n] = null;
+			return rx;
+		} else if (aqui) {
+			int rx = counts[i];
+			BTreeImpl<T> y = children[i];
+			BTreeImpl<T> z = children[i + 1];
+			if (y.n >= t) {
+				// Se sustituye por su predecesor, que se borra de y
+				BTreeImpl<T> pred = y;
+				while (!pred.isLeafNode()) {
+					pred = pred.children[pred.n];
+				}
+				T k = pred.key(pred.n - 1);
+				int c = pred.counts[pred.n - 1];
+				y.delete(k);
+				keys[i] = k;
+				counts[i] = c;
+			} else if (z.n >= t) {
+				// Se sustituye por su sucesor, que se borra de z
+				BTreeImpl<T> suc = z;
+				while (!suc.isLeafNode()) {
+					suc = suc.children[0];
+				}
+				T k = suc.key(0);
+				int c = suc.counts[0];
+				z.delete(k);
+				keys[i] = k;
+				counts[i] = c;
+			} else {
+				merge(i);
+				y.delete(element);
+			}
+			return rx;
+		} else if (!isLeafNode()) {
+			BTreeImpl<T> c = children[i];
+			if (c.n == t - 1) {
+				if (i > 0 && children[i - 1].n >= t) {
+					borrowFromLeft(i);
+				} else if (i < n && children[i + 1].n >= t) {
+					borrowFromRight(i);
+				} else if (i < n) {
+					merge(i);
+				} else {
+					merge(i - 1);
+					c = children[i - 1];
+				}
+			}
+			return c.delete(element);
+		}
+		return 0;
+	}
+
+	/**
+	 * Une el hijo i, el elemento i y el hijo i+1 en el hijo i. Ambos hijos
+	 * tienen t-1 elementos.
+	 */
+	private void merge(int i) {
+		BTreeImpl<T> y = children[i];
+		BTreeImpl<T> z = children[i + 1];
+		y.keys[t - 1] = keys[i];
+		y.counts[t - 1] = counts[i];
+		System.arraycopy(z.keys, 0, y.keys, t, z.n);
+		System.arraycopy(z.counts, 0, y.counts, t, z.n);
+		if (!y.isLeafNode()) {
+			System.arraycopy(z.children, 0, y.children, t, z.n + 1);
+		}
+		y.n += z.n + 1;
+
+		System.arraycopy(keys, i + 1, keys, i, n - i - 1);
+		System.arraycopy(counts, i + 1, counts, i, n - i - 1);
+		System.arraycopy(children, i + 2, children, i + 1, n - i - 1);
+		n--;
+		keys[n] = null;
+		children[n + 1] = null;
+	}
+
+	/**
+	 * El hijo i recibe el elemento i-1 de este nodo, y este el mayor del
+	 * hermano izquierdo.
+	 */
+	private void borrowFromLeft(int i) {
+		BTreeImpl<T> c = children[i];
+		BTreeImpl<T> s = children[i - 1];
+		System.arraycopy(c.keys, 0, c.keys, 1, c.n);
+		System.arraycopy(c.counts, 0, c.counts, 1, c.n);
+		c.keys[0] = keys[i - 1];
+		c.counts[0] = counts[i - 1];
+		if (!c.isLeafNode()) {
+			System.arraycopy(c.children, 0, c.children, 1, c.n + 1);
+			c.children[0] = s.children[s.n];
+			s.children[s.n] = null;
+		}
+		c.n++;
+
+		keys[i - 1] = s.keys[s.n - 1];
+		counts[i - 1] = s.counts[s.n - 1];
+		s.n--;
+		s.keys[s.n] = null;
+	}
+
+	/**
+	 * El hijo i recibe el elemento i de este nodo, y este el menor del
+	 * hermano derecho.
+	 */
+	private void borrowFromRight(int i) {
+		BTreeImpl<T> c = children[i];
+		BTreeImpl<T> s = children[i + 1];
+		c.keys[c.n] = keys[i];
+		c.counts[c.n] = counts[i];
+		if (!c.isLeafNode()) {
+			c.children[c.n + 1] = s.children[0];
+			System.arraycopy(s.children, 1, s.children, 0, s.n);
+			s.children[s.n] = null;
+		}
+		c.n++;
+
+		keys[i] = s.keys[0];
+		counts[i] = s.counts[0];
+		System.arraycopy(s.keys, 1, s.keys, 0, s.n - 1);
+		System.arraycopy(s.counts, 1, s.counts, 0, s.n - 1);
+		s.n--;
+		s.keys[s.n] = null;
+	}
+
+	/**
+	 * Cuenta el numero de elementos diferentes del arbol.
+	 */
+	public int size() {
+		int rx = 0;
+		LinkedList<BTreeImpl<T>> pendientes = new LinkedList<BTreeImpl<T>>();
+		pendientes.push(this);
+		while (!pendientes.isEmpty()) {
+			BTreeImpl<T> nodo = pendientes.pop();
+			rx += nodo.n;
+			if (!nodo.isLeafNode()) {
+				for (int i = 0; i <= nodo.n; i++) {
+					pendientes.push(nodo.children[i]);
+				}
+			}
+		}
+		return rx;
+	}
+
+	/**
+	 * Cuenta el numero de instancias de todos los elementos del arbol.
+	 */
+	public int instancesCount() {
+		int rx = 0;
+		LinkedList<BTreeImpl<T>> pendientes = new LinkedList<BTreeImpl<T>>();
+		pendientes.push(this);
+		while (!pendientes.isEmpty()) {
+			BTreeImpl<T> nodo = pendientes.pop();
+			for (int i = 0; i < nodo.n; i++) {
+				rx += nodo.counts[i];
+			}
+			if (!nodo.isLeafNode()) {
+				for (int i = 0; i <= nodo.n; i++) {
+					pendientes.push(nodo.children[i]);
+				}
+			}
+		}
+		return rx;
+	}
+
+	/**
+	 * Devuelve la altura del arbol: 0 si es vacio, 1 si solo tiene raiz...
+	 */
+	public int height() {
+		if (n == 0) {
+			return 0;
+		}
+		int rx = 1;
+		for (BTreeImpl<T> nodo = this; !nodo.isLeafNode(); nodo = nodo.children[0]) {
+			rx++;
+		}
+		return rx;
+	}
+
+	/**
+	 * Devuelve un iterador que recorre los elementos en orden ascendente,
+	 * sin tener en cuenta el numero de instancias.
+	 */
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			// Nodos pendientes y la posicion por la que va cada uno
+			private final LinkedList<BTreeImpl<T>> nodos = new LinkedList<BTreeImpl<T>>();
+			private final LinkedList<Integer> posiciones = new LinkedList<Integer>();
+
+			{
+				descend(BTreeImpl.this);
+			}
+
+			private void descend(BTreeImpl<T> nodo) {
+				while (nodo.n > 0) {
+					nodos.push(nodo);
+					posiciones.push(0);
+					if (nodo.isLeafNode()) {
+						break;
+					}
+					nodo = nodo.children[0];
+				}
+			}
+
+			@Override
+			public boolean hasNext() {
+				return !nodos.isEmpty();
+			}
+
+			@Override
+			public T next() {
+				if (nodos.isEmpty())
+					throw new NoSuchElementException();
+
+				BTreeImpl<T> nodo = nodos.peek();
+				int i = posiciones.pop();
+				T rx = nodo.key(i);
+				if (i + 1 < nodo.n) {
+					posiciones.push(i + 1);
+				} else {
+					nodos.pop();
+				}
+				if (!nodo.isLeafNode()) {
+					// Tras el elemento i va todo el hijo i+1
+					descend(nodo.children[i + 1]);
+				}
+				return rx;
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		if (isEmpty()) {
+			return AbstractTreeADT.EMPTY_TREE_MARK;
+		}
+		StringBuffer result = new StringBuffer();
+		result.append("{[");
+		for (int i = 0; i < n; i++) {
+			if (i > 0) {
+				result.append(", ");
+			}
+			result.append(keys[i]);
+			if (counts[i] > 1) {
+				result.append("(" + counts[i] + ")");
+			}
+		}
+		result.append("]");
+		if (!isLeafNode()) {
+			for (int i = 0; i <= n; i++) {
+				result.append(", " + children[i].toString());
+			}
+		}
+		result.append("}");
+		return result.toString();
+	}
+}
@@ -0,0 +1,134 @@
+package ule.edi.tree;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BTreeTests {
+
+	/*
+	 * Con fanout 4 (t = 2) cada nodo tiene entre 1 y 3 elementos:
+	 * 
+	 * {[20], {[5, 10]}, {[30, 40]}}
+	 */
+	private BTreeImpl<Integer> ejemplo = null;
+
+	@Before
+	public void setupBTrees() {
+		ejemplo = new BTreeImpl<Integer>(4);
+		ejemplo.insert(10, 20, 30, 40, 5);
+		Assert.assertEquals("{[20], {[5, 10]}, {[30, 40]}}", ejemplo.toString());
+	}
+
+	@Test
+	public void testInsertRepetido() {
+		Assert.assertFalse(ejemplo.insert(30));
+		Assert.assertTrue(ejemplo.insert(35));
+		Assert.assertEquals("{[20], {[5, 10]}, {[30(2), 35, 40]}}", ejemplo.toString());
+		Assert.assertEquals(7, ejemplo.instancesCount());
+		Assert.assertEquals(6, ejemplo.size());
+	}
+
+	@Test
+	public void testSplit() {
+		ejemplo.insert(35, 50);
+		Assert.assertEquals("{[20, 35], {[5, 10]}, {[30]}, {[40, 50]}}", ejemplo.toString());
+		Assert.assertEquals(2, ejemplo.height());
+		Assert.assertEquals(3, ejemplo.getDegree());
+		Assert.assertEquals(4, ejemplo.getMaxDegree());
+		Assert.assertEquals(20, ejemplo.getContent().intValue());
+		Assert.assertTrue(ejemplo.getSubtree(2).isLeaf());
+		Assert.assertTrue(ejemplo.getSubtree(3).isEmpty());
+		// las hojas no reservan un arbol vacio en cada llamada
+		Assert.assertSame(ejemplo.getSubtree(2).getSubtree(0), ejemplo.getSubtree(2).getSubtree(3));
+		Assert.assertEquals(4, ejemplo.getSubtree(3).getMaxDegree());
+	}
+
+	@Test
+	public void testSubarbolVacioIndependiente() {
+		BTreeImpl<Integer> otro = new BTreeImpl<Integer>(4);
+		otro.insert(1);
+		TreeADT<Integer> vacio = ejemplo.getSubtree(0).getSubtree(0);
+		vacio.setTag("marca", 1);
+		Assert.assertNull(otro.getSubtree(0).getTag("marca"));
+		Assert.assertNull(ejemplo.getSubtree(1).getSubtree(0).getTag("marca"));
+		Assert.assertEquals(1, vacio.getTag("marca"));
+
+		// insertar en el no cambia el arbol del que se obtuvo
+		String antes = ejemplo.toString();
+		((BTreeImpl<Integer>) vacio).insert(7);
+		Assert.assertEquals("{[7]}", vacio.toString());
+		Assert.assertEquals(antes, ejemplo.toString());
+		Assert.assertTrue(ejemplo.getSubtree(0).getSubtree(0).isEmpty());
+	}
+
+	@Test
+	public void testRemove() {
+		ejemplo.insert(10);
+		ejemplo.remove(10);
+		Assert.assertEquals(1, ejemplo.getCount(10));
+		ejemplo.remove(20);
+		Assert.assertEquals("{[10], {[5]}, {[30, 40]}}", ejemplo.toString());
+		Assert.assertEquals(2, ejemplo.remove(5, 10, 99));
+		Assert.assertEquals("{[30, 40]}", ejemplo.toString());
+		Assert.assertEquals(1, ejemplo.removeAll(40));
+		ejemplo.remove(30, 3);
+		Assert.assertEquals("∅", ejemplo.toString());
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testRemoveNoSuchElement() {
+		ejemplo.remove(11);
+	}
+
+	@Test
+	public void testRemoveAllNoSuchElement() {
+		BTreeImpl<Integer> grande = new BTreeImpl<Integer>(4);
+		for (int i = 0; i < 100; i += 2) {
+			grande.insert(i, i);
+		}
+		Assert.assertEquals(2, grande.removeAll(50));
+		try {
+			grande.removeAll(51);
+			Assert.fail("51 no esta en el arbol");
+		} catch (NoSuchElementException e) {
+			// el recorrido puede mover elementos, pero no quitar ninguno
+		}
+		Assert.assertEquals(49, grande.size());
+		Assert.assertEquals(98, grande.instancesCount());
+		Iterator<Integer> it = grande.iterator();
+		for (int i = 0; i < 100; i += 2) {
+			if (i != 50) {
+				Assert.assertEquals(i, it.next().intValue());
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInsertNull() {
+		Integer i = null;
+		ejemplo.insert(i);
+	}
+
+	@Test
+	public void testIterator() {
+		BTreeImpl<Integer> grande = new BTreeImpl<Integer>(4);
+		for (int i = 999; i >= 0; i--) {
+			grande.insert((i * 7) % 1000);
+		}
+		Iterator<Integer> it = grande.iterator();
+		for (int i = 0; i < 1000; i++) {
+			Assert.assertEquals(i, it.next().intValue());
+		}
+		Assert.assertFalse(it.hasNext());
+		for (int i = 0; i < 1000; i += 2) {
+			grande.remove(i);
+		}
+		Assert.assertEquals(500, grande.size());
+		Assert.assertTrue(grande.contains(999));
+		Assert.assertFalse(grande.contains(998));
+	}
+}
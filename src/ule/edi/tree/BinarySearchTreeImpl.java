@@ -1,12 +1,18 @@
 package ule.edi.tree;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * arbol binario de busqueda (binary search tree, BST).
@@ -43,7 +49,9 @@ import java.util.Queue;
  * los pares asociados a cada nodo.
  * 
  * Con {@link #setTag(String, Object)} se inserta un par (clave,valor) y con
- * {@link #getTag(String)} se consulta.
+ * {@link #getTag(String)} se consulta. Las etiquetas numericas que pone el
+ * propio arbol usan las claves {@link #TAG_HEIGHT}, {@link #TAG_DESCEND}...,
+ * que guardan el valor sin convertirlo a Integer.
  * 
  * 
  * Con <T extends Comparable<? super T>> se pide que exista un orden en los
@@ -57,8 +65,16 @@ import java.util.Queue;
  */
 public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends AbstractBinaryTreeADT<T> {
 
+	public static final IntTagKey TAG_HEIGHT = IntTagKey.of("height");
+	public static final IntTagKey TAG_DESCEND = IntTagKey.of("descend");
+	public static final IntTagKey TAG_INTERNAL = IntTagKey.of("internal");
+	public static final IntTagKey TAG_ONLY_SON = IntTagKey.of("onlySon");
+	public static final IntTagKey TAG_ROAD = IntTagKey.of("road");
+
 	BinarySearchTreeImpl<T> father; // referencia a su nodo padre)
 	int count;  // contador de instancias 
+	TreeContext<T> context; // opciones del arbol completo (solo en la raiz, null si no hay)
+	Object aggregate; // agregado del sub-arbol, solo con enableAugmentation
 
 	/**
 	 * Devuelve el arbol binario de busqueda izquierdo.
@@ -171,23 +187,48 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 		if (element == null) {
 			throw new IllegalArgumentException();
 		}
-		if (this.contains(element)) {
-			this.getElem(element).count++; 
-			return false;
-		} else {
-			if (this.isEmpty()) {
-				this.setContent(element);
-				this.leftSubtree = new BinarySearchTreeImpl<T>(this);
-				this.rightSubtree = new BinarySearchTreeImpl<T>(this);
-				return true;
-			} else {
-				if (this.content.compareTo(element) > 0) {
-					return this.getLeftBST().insert(element);
-				} else {
-					return this.getRightBST().insert(element); 
+		
+		BinarySearchTreeImpl<T> nodo = this;
+		int depth = 0;
+		int comparisons = 0;
+		TreeContext.Finger<T> finger = finger();
+		if (finger != null) {
+			comparisons = climb(finger, element);
+			nodo = finger.node;
+			depth = finger.depth;
+		}
+		while (!nodo.isEmpty()) {
+			int cmp = nodo.content.compareTo(element);
+			comparisons++;
+			if (cmp == 0) {
+				nodo.count++;
+				recordDescent(TreeMetrics.Operation.INSERT, depth, comparisons);
+				if (context != null) {
+					countChanged(nodo, nodo.count - 1);
+				}
+				setFinger(finger, nodo, depth);
+				if (context != null && context.splay) {
+					splay(nodo);
 				}
+				return false;
 			}
+			nodo = cmp > 0 ? nodo.getLeftBST() : nodo.getRightBST();
+			depth++;
 		}
+		
+		nodo.setContent(element);
+		nodo.leftSubtree = emptyBST(nodo);
+		nodo.rightSubtree = emptyBST(nodo);
+		recordDescent(TreeMetrics.Operation.INSERT, depth, comparisons);
+		setFinger(finger, nodo, depth);
+		if (context != null) {
+			countChanged(nodo, 0);
+			nodeAdded(nodo, depth);
+			if (context.splay) {
+				splay(nodo);
+			}
+		}
+		return true;
 	}
 
 	/**
@@ -201,22 +242,7 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 *
 	 */
 	public boolean contains(T element) {
-		if (element == null) 
-			throw new IllegalArgumentException();
-		
-		if (!isEmpty()) {
-			if (element.equals(this.content)) {
-				return true;
-			} else {
-				if (this.content.compareTo(element) > 0){
-					return this.getLeftBST().contains(element);
-				} else {
-					return this.getRightBST().contains(element);
-				}
-			}
-		} else {
-			return false;
-		}
+		return findNode(element, TreeMetrics.Operation.CONTAINS) != null;
 	}
 	
 	/**
@@ -231,6 +257,11 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 * @return cadena con el contenido del árbol incluyendo su atributo count entre paréntesis si elemento tiene más de 1 instancia
 	 */
 	public String toString() {
+		beforeTagDisplay();
+		return treeString();
+	}
+	
+	private String treeString() {
 		if (! isEmpty()) {
 			//	Construye el resultado de forma eficiente
 			StringBuffer result = new StringBuffer();
@@ -241,7 +272,8 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 				result.append("(" + this.count + ")");
 			}
 			
-			if (! tags.isEmpty()) {
+			Map<String, Object> tags = displayTags();
+			if (tags != null && ! tags.isEmpty()) {
 				result.append(" [");
 				
 				List<String> sk = new LinkedList<String>(tags.keySet());
@@ -256,7 +288,7 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 			
 			//	Y cada sub-árbol
 			for (int i = 0; i < getMaxDegree(); i++) {
-				result.append(", " + getSubtree(i).toString());
+				result.append(", " + ((BinarySearchTreeImpl<T>) getSubtree(i)).treeString());
 			}
 			//	Cierra la "}" de este árbol
 			result.append("}");
@@ -303,7 +335,7 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	public void tagHeightLeaf() {
 		if(!this.isEmpty()) {
 			if(this.isLeaf()) {
-				this.setTag("height", this.getHeight(1));
+				this.setTag(TAG_HEIGHT, this.getHeight(1));
 			} else {
 				this.getLeftBST().tagHeightLeaf();
 				this.getRightBST().tagHeightLeaf();			
@@ -402,11 +434,18 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 * @return el numero de elementos diferentes del arbol 
 	 */
     public int size() {
-		if(!this.isEmpty()) {
-			return 1 + getLeftBST().size()+ getRightBST().size();
-		} else {
-			return 0;
+		int rx = 0;
+		LinkedList<BinarySearchTreeImpl<T>> pendientes = new LinkedList<BinarySearchTreeImpl<T>>();
+		pendientes.push(this);
+		while (!pendientes.isEmpty()) {
+			BinarySearchTreeImpl<T> nodo = pendientes.pop();
+			if(!nodo.isEmpty()) {
+				rx++;
+				pendientes.push(nodo.getLeftBST());
+				pendientes.push(nodo.getRightBST());
+			}
 		}
+		return rx;
 	}
 	
     /**
@@ -553,11 +592,11 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 			return descendValue;
 		}
 		if(this.isLeaf()) {
-			this.setTag("descend", ++descendValue);
+			this.setTag(TAG_DESCEND, ++descendValue);
 			return descendValue;
 		} else {
 			descendValue = this.getRightBST().tagPosDescendRec(descendValue);
-			this.setTag("descend", ++descendValue);
+			this.setTag(TAG_DESCEND, ++descendValue);
 			return this.getLeftBST().tagPosDescendRec(descendValue);
 		}	
 	}
@@ -603,7 +642,7 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 				internalValue = returnValue[0];
 				cont = returnValue[1];
 				cont++;
-				this.setTag("internal", ++internalValue);
+				this.setTag(TAG_INTERNAL, ++internalValue);
 				return this.getRightBST().tagInternalInorderRec(internalValue, cont);
 			}
 		}	
@@ -655,7 +694,7 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 			} else {
 				// HIJO UNICO
 				if(this.father.getLeftBST().isEmpty() || this.father.getRightBST().isEmpty()) {
-					this.setTag("onlySon", ++preOrdenValue);
+					this.setTag(TAG_ONLY_SON, ++preOrdenValue);
 					contOnlySon++;
 					returnValue = this.getLeftBST().tagOnlySonPreorderRec(preOrdenValue, contOnlySon);
 					preOrdenValue = returnValue[0];
@@ -694,13 +733,11 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 */
 	@SuppressWarnings("unchecked")
 	public T getRoadUpRight(T elem, int up, int right) {
-		if (elem == null) 
-			throw new IllegalArgumentException();
-		if (!this.contains(elem)) 
+		// BUSCAR ELEM (un solo descenso)
+		BinarySearchTreeImpl<T> nodo = this.getElem(elem);
+		if (nodo == null) 
 			throw new NoSuchElementException();
 		
-		// BUSCAR ELEM
-		BinarySearchTreeImpl<T> nodo = this.searchNode(elem);
 		BinarySearchTreeImpl<T> aux = nodo.upRoute(up, 0, right);
 		if(aux == null) {
 			return null;
@@ -709,6 +746,95 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 		}
 	}
 	
+	/**
+	 * Igual que {@link #getRoadUpRight(Comparable, int, int)} pero sin etiquetar
+	 * ningun nodo: hace un unico descenso hasta elem y despues sigue el
+	 * camino por father y por la rama derecha sin escribir en el arbol.
+	 * 
+	 * @throws NoSuchElementException si el elemento no esta en el arbol o
+	 *         el camino indicado no existe
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public T findRoadUpRight(T elem, int up, int right) {
+		BinarySearchTreeImpl<T> nodo = this.getElem(elem);
+		if (nodo == null) 
+			throw new NoSuchElementException();
+		
+		BinarySearchTreeImpl<T> aux = roadUpRightNode(nodo, up, right);
+		if (aux == null) 
+			throw new NoSuchElementException();
+		return aux.getContent();
+	}
+	
+	/**
+	 * Resuelve a la vez varias consultas (elems[i], ups[i], rights[i]) como
+	 * las de {@link #findRoadUpRight(Comparable, int, int)}, sin etiquetar nodos.
+	 * 
+	 * Ordena las consultas por elemento y pasa de cada una a la siguiente
+	 * con el sucesor inorden si es el siguiente elemento del arbol, o con un
+	 * descenso desde la raiz si esta mas lejos: cada consulta cuesta como
+	 * mucho O(h), y las de elementos consecutivos O(1) amortizado.
+	 * 
+	 * @return lista con la respuesta de cada consulta en el mismo orden;
+	 *         null si el elemento es null, no esta en el arbol o el camino no existe
+	 * @throws IllegalArgumentException si los arrays no tienen la misma longitud
+	 */
+	public List<T> findRoadUpRight(T[] elems, int[] ups, int[] rights) {
+		if (elems.length != ups.length || elems.length != rights.length)
+			throw new IllegalArgumentException();
+		
+		List<T> results = new ArrayList<T>(Collections.<T>nCopies(elems.length, null));
+		List<Integer> orden = new ArrayList<Integer>();
+		for (int i = 0; i < elems.length; i++) {
+			if (elems[i] != null) {
+				orden.add(i);
+			}
+		}
+		if (orden.isEmpty()) {
+			return results;
+		}
+		orden.sort((a, b) -> elems[a].compareTo(elems[b]));
+		
+		BinarySearchTreeImpl<T> nodo = this.ceilingNode(elems[orden.get(0)]);
+		for (int i : orden) {
+			if (nodo != null && nodo.content.compareTo(elems[i]) < 0) {
+				// la siguiente consulta suele ser el sucesor; si esta mas
+				// lejos, se baja desde la raiz en lugar de recorrer los
+				// elementos intermedios
+				nodo = nodo.successor();
+				if (nodo != null && nodo.content.compareTo(elems[i]) < 0) {
+					nodo = this.ceilingNode(elems[i]);
+				}
+			}
+			if (nodo == null) {
+				break;
+			}
+			if (nodo.content.compareTo(elems[i]) == 0) {
+				BinarySearchTreeImpl<T> aux = roadUpRightNode(nodo, ups[i], rights[i]);
+				if (aux != null) {
+					results.set(i, aux.getContent());
+				}
+			}
+		}
+		return results;
+	}
+	
+	private BinarySearchTreeImpl<T> roadUpRightNode(BinarySearchTreeImpl<T> nodo, int up, int right) {
+		for (; up > 0; up--) {
+			if (nodo.father == null) {
+				return null;
+			}
+			nodo = nodo.father;
+		}
+		for (; right > 0; right--) {
+			nodo = nodo.getRightBST();
+			if (nodo.isEmpty()) {
+				return null;
+			}
+		}
+		return nodo;
+	}
+	
 	public BinarySearchTreeImpl<T> searchNode(T elem) {
 		if (elem.equals(this.content)) {
 			return this;
@@ -726,7 +852,7 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 			return this.rightRoute(right, cont);
 		} else {
 			if(this.father != null) {
-				this.setTag("road", ++cont);
+				this.setTag(TAG_ROAD, ++cont);
 				return this.father.upRoute(--up, cont, right);
 			} else {
 				throw new NoSuchElementException();
@@ -739,10 +865,10 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 			throw new NoSuchElementException();
 		} else {
 			if(right == 0) {
-				this.setTag("road", ++cont);
+				this.setTag(TAG_ROAD, ++cont);
 				return this;
 			} else {
-				this.setTag("road", ++cont);
+				this.setTag(TAG_ROAD, ++cont);
 				return this.getRightBST().rightRoute(--right, cont);
 			}
 		}
@@ -774,6 +900,154 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 		}
 		
 	}
+	/**
+	 * Devuelve un arbol nuevo y equilibrado con la union de los multiconjuntos
+	 * this y other: cada elemento aparece con la mayor de sus dos multiplicidades.
+	 * 
+	 * Por ejemplo, la union de {10(2), {5, ∅, ∅}, ∅} y {5(3), ∅, {20, ∅, ∅}} es
+	 * {10(2), {5(3), ∅, ∅}, {20, ∅, ∅}}.
+	 * 
+	 * Se calcula como una mezcla de los dos recorridos inorden, en O(m + n).
+	 */
+	public BinarySearchTreeImpl<T> union(BinarySearchTreeImpl<T> other) {
+		return combine(other, MultisetOperation.UNION, false);
+	}
+	
+	/**
+	 * Devuelve un arbol nuevo y equilibrado con la interseccion de this y other:
+	 * cada elemento comun aparece con la menor de sus dos multiplicidades.
+	 */
+	public BinarySearchTreeImpl<T> intersection(BinarySearchTreeImpl<T> other) {
+		return combine(other, MultisetOperation.INTERSECTION, false);
+	}
+	
+	/**
+	 * Devuelve un arbol nuevo y equilibrado con la diferencia this - other:
+	 * a cada elemento de this se le restan las instancias que tenga en other,
+	 * y desaparece si no le queda ninguna.
+	 */
+	public BinarySearchTreeImpl<T> difference(BinarySearchTreeImpl<T> other) {
+		return combine(other, MultisetOperation.DIFFERENCE, false);
+	}
+	
+	/**
+	 * Devuelve un arbol nuevo y equilibrado con la mezcla de this y other:
+	 * cada elemento aparece con la suma de sus dos multiplicidades.
+	 */
+	public BinarySearchTreeImpl<T> merge(BinarySearchTreeImpl<T> other) {
+		return combine(other, MultisetOperation.MERGE, false);
+	}
+	
+	/**
+	 * Devuelve un arbol nuevo y equilibrado con el resultado de this op other.
+	 * Ninguno de los dos arboles se modifica y el resultado no lleva etiquetas.
+	 * 
+	 * Con parallel a true, si hay suficientes elementos la mezcla y la
+	 * construccion se reparten entre los hilos del ForkJoinPool comun.
+	 * 
+	 * @throws IllegalArgumentException si other u op son null
+	 */
+	public BinarySearchTreeImpl<T> combine(BinarySearchTreeImpl<T> other, MultisetOperation op, boolean parallel) {
+		if (other == null || op == null)
+			throw new IllegalArgumentException();
+		
+		return MultisetMerge.combine(this, other, op, parallel);
+	}
+	
+	/**
+	 * Devuelve una copia inmutable de este arbol, con sus elementos y counts
+	 * guardados en arrays contiguos, para arboles que ya no se van a
+	 * modificar y se consultan muchas veces. Las etiquetas no se copian.
+	 * 
+	 * @see FrozenSearchTree
+	 */
+	public FrozenSearchTree<T> freeze() {
+		MultisetMerge<T> runs = MultisetMerge.fromTree(this);
+		return new FrozenSearchTree<T>(runs.keys, runs.counts);
+	}
+	
+	/**
+	 * Devuelve los bytes que ocupa este (sub-)arbol, por partes: nodos con
+	 * elemento, centinelas vacios, mapas y claves de etiquetas, etiquetas de
+	 * valor primitivo, el contexto con sus estructuras y el resto
+	 * (agregados). Recorre todos los nodos en O(n) sin recursividad, y el
+	 * indice de counts y la cache en tiempo lineal en su tamaño.
+	 * 
+	 * @see MemoryFootprint
+	 */
+	public MemoryFootprint memoryFootprint() {
+		MemoryFootprint.Builder rx = new MemoryFootprint.Builder();
+		if (context != null) {
+			rx.context(contextBytes());
+		}
+		LinkedList<BinarySearchTreeImpl<T>> pila = new LinkedList<BinarySearchTreeImpl<T>>();
+		pila.push(this);
+		while (!pila.isEmpty()) {
+			BinarySearchTreeImpl<T> nodo = pila.pop();
+			rx.node(nodo, nodo.isEmpty());
+			if (!nodo.isEmpty()) {
+				rx.other(MemoryFootprint.valueBytes(nodo.aggregate));
+				pila.push(nodo.getRightBST());
+				pila.push(nodo.getLeftBST());
+			}
+		}
+		return rx.build();
+	}
+	
+	/**
+	 * Bytes del contexto y de las estructuras que crea el arbol en el. Los
+	 * oyentes y el agregado son de quien los registra y no se cuentan. Cada
+	 * dedo por hilo ocupa, ademas del dedo, una entrada del mapa de
+	 * ThreadLocal del hilo, y se cuentan todos los creados aunque sus hilos
+	 * hayan terminado.
+	 */
+	private long contextBytes() {
+		long rx = MemoryFootprint.shallowSize(TreeContext.class);
+		if (context.metrics != null) {
+			rx += context.metrics.memoryBytes();
+		}
+		if (context.cache != null) {
+			rx += context.cache.memoryBytes();
+		}
+		if (context.countIndex != null) {
+			rx += context.countIndex.memoryBytes();
+		}
+		if (context.listeners != null) {
+			// el ArrayList crece desde 10 casillas
+			rx += MemoryFootprint.shallowSize(context.listeners.getClass())
+					+ MemoryFootprint.referenceArrayBytes(Math.max(10, context.listeners.size()));
+		}
+		long dedo = MemoryFootprint.shallowSize(TreeContext.Finger.class);
+		if (context.finger != null) {
+			rx += dedo;
+		}
+		if (context.threadFingers != null) {
+			// entrada: referencia debil al ThreadLocal, cola, siguiente, descubierta y valor
+			long entrada = MemoryFootprint.align(MemoryFootprint.HEADER_BYTES + 5 * MemoryFootprint.REFERENCE_BYTES);
+			rx += MemoryFootprint.shallowSize(context.threadFingers.getClass())
+					+ MemoryFootprint.shallowSize(AtomicInteger.class)
+					+ context.threadFingerCount.get() * (dedo + entrada);
+		}
+		return rx;
+	}
+	
+	/**
+	 * Convierte este nodo, que debe ser vacio, en un arbol equilibrado con los
+	 * elementos keys[lo, hi), ordenados y sin repetir, y sus counts.
+	 */
+	void buildBalanced(List<T> keys, int[] counts, int lo, int hi) {
+		if (lo >= hi) {
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		this.setContent(keys.get(mid));
+		this.count = counts[mid];
+		this.leftSubtree = emptyBST(this);
+		this.rightSubtree = emptyBST(this);
+		this.getLeftBST().buildBalanced(keys, counts, lo, mid);
+		this.getRightBST().buildBalanced(keys, counts, mid + 1, hi);
+	}
+	
 	/**
 	 * Elimina los valores en un array del Arbol.
 	 * Devuelve el número de elementos que pudo eliminar del árbol
@@ -786,13 +1060,14 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 		
 		for (T elemento: elements) {
 			if (elemento != null) {
-				if(this.contains(elemento)) {
+				BinarySearchTreeImpl<T> nodo = this.findNode(elemento, TreeMetrics.Operation.REMOVE);
+				if(nodo != null) {
 					cont++;
-					this.remove(elemento);
-
+					removeInstances(nodo, 1);
 				}
 			}
 		}
+		afterRemove();
 		return cont;
 	}
 
@@ -807,110 +1082,162 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
      *
 	 */
 	public void remove(T element) {
-		if (element  == null) 
-			throw new IllegalArgumentException();
-		if (!contains(element)) 
-			throw new NoSuchElementException();
-		
-		BinarySearchTreeImpl<T> aux = this.getElem(element);
-		
-		if(aux.count <= 1) {
-			aux.count = 0;
-			removeAux(element);
+		remove(element, 1);
+	}
+
+	/**
+	 * Resta num instancias al nodo y, si su count queda en cero o negativo,
+	 * lo elimina del arbol.
+	 */
+	private void removeInstances(BinarySearchTreeImpl<T> nodo, int num) {
+		if(nodo.count - num <= 0) {
+			removeNode(nodo);
 		} else {
-			aux.count--;
+			nodo.count = nodo.count - num;
+			if (context != null) {
+				countChanged(nodo, nodo.count + num);
+			}
+		}
+	}
+	
+	/**
+	 * Quita el nodo del arbol y lo anota en el indice por count y en los
+	 * oyentes.
+	 */
+	private void removeNode(BinarySearchTreeImpl<T> nodo) {
+		if (context == null || (context.listeners == null && context.countIndex == null)) {
+			nodo.count = 0;
+			removeAux(nodo);
+			return;
+		}
+		T elemento = nodo.content;
+		int count = nodo.count;
+		// el camino se calcula antes de quitar el nodo
+		TreeEvent<T> evento = context.listeners == null ? null
+				: newEvent(TreeEvent.Type.REMOVE, elemento, count, 0, nodo);
+		nodo.count = 0;
+		removeAux(nodo);
+		if (context.countIndex != null) {
+			context.countIndex.update(elemento, count, 0);
+		}
+		if (evento != null) {
+			fireEvent(evento);
+		}
+	}
+	
+	/**
+	 * Se llama, cuando hay contexto, tras cambiar el count de un nodo que
+	 * sigue en el arbol, o tras crearlo con oldCount 0.
+	 */
+	private void countChanged(BinarySearchTreeImpl<T> nodo, int oldCount) {
+		if (context.augmentation != null) {
+			augmentFrom(nodo);
+		}
+		if (context.countIndex != null) {
+			context.countIndex.update(nodo.content, oldCount, nodo.count);
+		}
+		if (context.listeners != null) {
+			fireEvent(oldCount == 0 ? TreeEvent.Type.INSERT : TreeEvent.Type.COUNT, nodo.content, oldCount, nodo.count, nodo);
 		}
 	}
 
-	private void removeAux(T element) {
-		BinarySearchTreeImpl<T> nodoActual = this.getElem(element);
+	/**
+	 * Elimina del arbol el nodo dado, que no puede ser vacio, en O(h) y sin
+	 * volver a buscar ningun elemento desde la raiz.
+	 * 
+	 * Si tiene dos hijos se copia en el el menor de sus mayores (contenido,
+	 * count y etiquetas) y se elimina en su lugar el nodo de ese sucesor, que nunca tiene
+	 * hijo izquierdo. Un nodo sin hijos pasa a ser el arbol vacio, y uno con
+	 * un unico hijo se sustituye por el en su padre. Si el nodo a quitar es la
+	 * raiz, es la propia raiz la que toma el contenido de su hijo, de modo que
+	 * la referencia al arbol sigue siendo valida.
+	 */
+	private void removeAux(BinarySearchTreeImpl<T> nodo) {
+		LookupCache<T> cache = null;
+		if (context != null) {
+			context.size--;
+			context.fingerEpoch++;
+			cache = context.cache;
+		}
+		if (cache != null) {
+			cache.invalidate(nodo.content);
+		}
+		// elementos entre los que cambian las etiquetas mantenidas
+		T desde = nodo.content;
+		T hasta = nodo.content;
 		
-		//caso particular 1: compruebo que mi nodo es una hoja
-		if(nodoActual.isLeaf()) {
-			if(nodoActual.getContent().compareTo(nodoActual.father.getContent()) > 0) { 
-				nodoActual.father.setRightBST(emptyBST(nodoActual.father));
-			} else {
-				nodoActual.father.setLeftBST(emptyBST(nodoActual.father));
+		// caso general: mi nodo actual tiene dos hijos.
+		if(!nodo.getLeftBST().isEmpty() && !nodo.getRightBST().isEmpty()) {
+			BinarySearchTreeImpl<T> sucesor = nodo.getRightBST().firstNode();
+			if (cache != null) {
+				// el sucesor cambia de nodo
+				cache.invalidate(sucesor.content);
 			}
-			// caso particular 2: mi nodo tiene unicamente un hijo izquierdo
-		} else if(nodoActual.getRightBST().isEmpty() && !nodoActual.getLeftBST().isEmpty()) {
-			if(nodoActual.father == null) {
-				nodoActual = nodoActual.getLeftBST();
-			} else {
-				if(nodoActual.getContent().compareTo(nodoActual.father.getContent())>0) {
-					nodoActual.father.setRightBST(nodoActual.getLeftBST());
-				}
-				else {
-					nodoActual.father.setLeftBST(nodoActual.getLeftBST());
-				}
-			}
-			//caso particular 3: mi nodo actual tiene unicamente un hijo derecho
-		} else if(!nodoActual.getRightBST().isEmpty() && nodoActual.getLeftBST().isEmpty()) {
-			if(nodoActual.father == null) {
-				nodoActual = nodoActual.getLeftBST();
-			} else {
-				if(nodoActual.getContent().compareTo(nodoActual.father.getContent())>0) {
-					nodoActual.father.setRightBST(nodoActual.getRightBST());
-				}
-				else {
-					nodoActual.father.setLeftBST(nodoActual.getRightBST());
-				}
+			// las etiquetas siguen al elemento, como en rotateUp y rebuild
+			nodo.content = sucesor.content;
+			nodo.count = sucesor.count;
+			nodo.tags = sucesor.tags;
+			nodo.slots = sucesor.slots;
+			if (context != null && (context.tagsMaintained & 1L << TAG_HEIGHT.slot) != 0) {
+				// el sucesor podia ser hoja, pero su nuevo nodo tiene hijo izquierdo
+				nodo.removeTag(TAG_HEIGHT);
 			}
-			// caso general: mi nodo actual tiene dos hijos.
-		} else {
-			nodoActual.setContent(minMaxSubTreeElement(nodoActual));
-		}	
-	}
-	
-	private T minMaxSubTreeElement(BinarySearchTreeImpl<T> nodoActual) {
+			nodo = sucesor;
+		}
 		
-		if(nodoActual.getLeftBST().getContent().compareTo(nodoActual.getRightBST().getContent()) > 0) { 
-			if(nodoActual.getLeftBST().getLeftBST().isEmpty() && nodoActual.getLeftBST().getRightBST().isEmpty()) {
-				// HIJO IZQ 
-				T element = nodoActual.getLeftBST().getContent();
-				remove(element);
-				return element;
-			} else {
-				if(!nodoActual.getLeftBST().getLeftBST().isEmpty() && !nodoActual.getLeftBST().getRightBST().isEmpty()) {
-					if(nodoActual.getLeftBST().getLeftBST().getContent().compareTo(nodoActual.getLeftBST().getRightBST().getContent()) > 0){
-						T element = nodoActual.getLeftBST().getRightBST().getContent();
-						remove(element);
-						return element;
-					} else {
-						T element = nodoActual.getLeftBST().getLeftBST().getContent();
-						remove(element);
-						return element;
-					}
-				} else {
-					T element = nodoActual.getLeftBST().getContent();
-					remove(element);
-					return element;
+		BinarySearchTreeImpl<T> hijo = nodo.getLeftBST().isEmpty() ? nodo.getRightBST() : nodo.getLeftBST();
+		BinarySearchTreeImpl<T> cambiado; // nodo mas bajo cuyo sub-arbol ha cambiado
+		
+		if(hijo.isEmpty()) {
+			// caso particular 1: mi nodo es una hoja, se queda vacio
+			nodo.content = null;
+			nodo.leftSubtree = null;
+			nodo.rightSubtree = null;
+			nodo.count = 1;
+			nodo.tags = null;
+			nodo.slots = null;
+			nodo.aggregate = null;
+			cambiado = nodo.father;
+			if (context != null && context.tagsMaintained != 0) {
+				if (cambiado != null && cambiado.content.compareTo(desde) < 0) {
+					// el padre puede pasar a ser hoja
+					desde = cambiado.content;
 				}
+				tagsAfterRemove(cambiado, null, desde, hasta);
+			}
+		} else if(nodo.father == null) {
+			// caso particular 2: la raiz con un unico hijo toma su contenido
+			if (cache != null) {
+				cache.invalidate(hijo.content);
+			}
+			nodo.content = hijo.content;
+			nodo.count = hijo.count;
+			nodo.tags = hijo.tags;
+			nodo.slots = hijo.slots;
+			nodo.leftSubtree = hijo.leftSubtree;
+			nodo.rightSubtree = hijo.rightSubtree;
+			nodo.getLeftBST().father = nodo;
+			nodo.getRightBST().father = nodo;
+			cambiado = nodo;
+			if (context != null && context.tagsMaintained != 0) {
+				tagsAfterRemove(null, nodo, desde, hasta);
 			}
 		} else {
-			if(nodoActual.getRightBST().getLeftBST().isEmpty() && nodoActual.getRightBST().getRightBST().isEmpty()) {
-				// HIJO IZQ 
-				T element = nodoActual.getRightBST().getContent();
-				remove(element);
-				return element;
+			// caso particular 3: un unico hijo ocupa el lugar de mi nodo
+			hijo.father = nodo.father;
+			if(nodo.father.leftSubtree == nodo) {
+				nodo.father.leftSubtree = hijo;
 			} else {
-				if(!nodoActual.getRightBST().getLeftBST().isEmpty() && !nodoActual.getRightBST().getRightBST().isEmpty()) {
-					if(nodoActual.getRightBST().getLeftBST().getContent().compareTo(nodoActual.getRightBST().getRightBST().getContent()) > 0){
-						T element = nodoActual.getRightBST().getRightBST().getContent();
-						remove(element);
-						return element;
-					} else {
-						T element = nodoActual.getRightBST().getLeftBST().getContent();
-						remove(element);
-						return element;
-					}
-				} else {
-					T element = nodoActual.getRightBST().getContent();
-					remove(element);
-					return element;
-				}
+				nodo.father.rightSubtree = hijo;
+			}
+			cambiado = hijo.father;
+			if (context != null && context.tagsMaintained != 0) {
+				tagsAfterRemove(null, hijo, desde, hasta);
 			}
 		}
+		if (context != null && context.augmentation != null) {
+			augmentFrom(cambiado);
+		}
 	}
 	
 	/**
@@ -925,19 +1252,22 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 * @throws IllegalArgumentException si element es null
 	 */
 	public void remove(T element, int num) {
-		if (element  == null) 
-			throw new IllegalArgumentException();
-		if (!contains(element)) 
+		removeCounted(element, num);
+	}
+
+	/**
+	 * Como {@link #remove(Comparable, int)}, devolviendo las instancias que
+	 * tenia el elemento antes de quitarlas.
+	 */
+	int removeCounted(T element, int num) {
+		BinarySearchTreeImpl<T> aux = this.findNode(element, TreeMetrics.Operation.REMOVE);
+		if (aux == null) 
 			throw new NoSuchElementException();
 		
-		BinarySearchTreeImpl<T> aux = this.getElem(element);
-		
-		if(aux.count - num <= 0) {
-			aux.count = 0;
-			removeAux(element);
-		} else {
-			aux.count = aux.count - num;
-		}
+		int rx = aux.count;
+		removeInstances(aux, num);
+		afterRemove();
+		return rx;
 	}
 
 	
@@ -953,46 +1283,1722 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 * @throws IllegalArgumentException si element es null
 	 */
 	public int removeAll(T element) {
-		if (element  == null) 
-			throw new IllegalArgumentException();
-		if (!contains(element)) 
+		BinarySearchTreeImpl<T> aux = this.findNode(element, TreeMetrics.Operation.REMOVE);
+		if (aux == null) 
 			throw new NoSuchElementException();
 		
-		BinarySearchTreeImpl<T> aux = this.getElem(element);
 		int aux2 = aux.count;
-		aux.count = 0;
-		removeAux(element);
+		removeNode(aux);
+		afterRemove();
 		return aux2;
 	}
 	
-	public BinarySearchTreeImpl<T> getElem(T element) {
-		if (element == null) 
-			throw new IllegalArgumentException();
+	/**
+	 * Inserta en bloque los elementos que no sean null de una coleccion.
+	 * 
+	 * Ordena los elementos, agrupa los repetidos en un solo incremento de count
+	 * y los reparte en un unico recorrido del arbol: en cada nodo se divide el
+	 * tramo ordenado en menores, iguales y mayores, de modo que los elementos
+	 * que comparten camino lo recorren una sola vez. Los que caen en un mismo
+	 * hueco vacio se cuelgan de el como sub-arbol equilibrado, asi que la forma
+	 * resultante puede diferir de la de insertarlos uno a uno.
+	 * 
+	 * @param elements valores a insertar.
+	 * @return numero de elementos insertados en el arbol (elementos diferentes de null)
+	 */
+	public int insertBatch(Collection<T> elements) {
+		List<T> ordenados = new ArrayList<T>(elements.size());
+		for (T elemento : elements) {
+			if (elemento != null) {
+				ordenados.add(elemento);
+			}
+		}
+		Collections.sort(ordenados);
 		
-		if (!isEmpty()) {
-			if (element.equals(this.content)) {
-				return this;
+		List<T> claves = new ArrayList<T>();
+		int[] veces = groupRuns(ordenados, claves);
+		
+		int creados = 0;
+		int niveles = 0; // mayor nivel de un nodo nuevo, 1 en la raiz
+		// nodos nuevos sin hijos nuevos, los mas profundos de cada rama, si
+		// se vigila la altura
+		List<BinarySearchTreeImpl<T>> hojas = context != null && context.maxHeightRatio > 0
+				? new ArrayList<BinarySearchTreeImpl<T>>() : null;
+		LinkedList<BatchRange<T>> pila = new LinkedList<BatchRange<T>>();
+		pila.push(new BatchRange<T>(this, 0, claves.size()));
+		while (!pila.isEmpty()) {
+			BatchRange<T> tramo = pila.pop();
+			BinarySearchTreeImpl<T> nodo = tramo.nodo;
+			if (tramo.lo >= tramo.hi) {
+				continue;
+			}
+			if (nodo.isEmpty()) {
+				int mid = (tramo.lo + tramo.hi) >>> 1;
+				nodo.setContent(claves.get(mid));
+				nodo.count = veces[mid];
+				nodo.leftSubtree = emptyBST(nodo);
+				nodo.rightSubtree = emptyBST(nodo);
+				creados++;
+				niveles = Math.max(niveles, tramo.depth + 1);
+				if (hojas != null && tramo.lo == mid && mid + 1 == tramo.hi) {
+					hojas.add(nodo);
+				}
+				if (context != null) {
+					countChanged(nodo, 0);
+				}
+				pila.push(new BatchRange<T>(nodo.getLeftBST(), tramo.lo, mid, tramo.depth + 1));
+				pila.push(new BatchRange<T>(nodo.getRightBST(), mid + 1, tramo.hi, tramo.depth + 1));
 			} else {
-				if (this.content.compareTo(element) > 0){
-					return this.getLeftBST().getElem(element);
-				} else {
-					return this.getRightBST().getElem(element);
+				int pos = lowerBound(claves, tramo.lo, tramo.hi, nodo.content);
+				int igual = (pos < tramo.hi && claves.get(pos).compareTo(nodo.content) == 0) ? 1 : 0;
+				if (igual == 1) {
+					nodo.count += veces[pos];
+					if (context != null) {
+						countChanged(nodo, nodo.count - veces[pos]);
+					}
+				}
+				pila.push(new BatchRange<T>(nodo.getLeftBST(), tramo.lo, pos, tramo.depth + 1));
+				pila.push(new BatchRange<T>(nodo.getRightBST(), pos + igual, tramo.hi, tramo.depth + 1));
+			}
+		}
+		if (context != null && creados > 0) {
+			// los nodos nuevos no pasan por nodeAdded
+			context.tagsDirty = context.tagsMaintained;
+			if (context.metrics != null) {
+				context.metrics.recordAllocation(creados, 2 * creados);
+			}
+			if (context.maxHeightRatio > 0) {
+				context.size += creados;
+				context.maxSize = Math.max(context.maxSize, context.size);
+				// como en nodeAdded, basta con mirar el nivel de los nodos
+				// nuevos: el resto no ha bajado. Cada hoja nueva demasiado
+				// profunda reconstruye solo el sub-arbol de su chivo
+				// expiatorio; tras una reconstruccion su nivel se vuelve a
+				// medir, porque puede haber quedado dentro del sub-arbol
+				double limite = context.maxHeightRatio * log2(context.size + 1);
+				if (niveles > limite) {
+					for (BinarySearchTreeImpl<T> hoja : hojas) {
+						int nivel = 1;
+						for (BinarySearchTreeImpl<T> n = hoja; n != this; n = n.father) {
+							nivel++;
+						}
+						if (nivel > limite) {
+							rebuildScapegoat(hoja);
+						}
+					}
 				}
 			}
-		} else {
-			return null;
 		}
+		return ordenados.size();
 	}
 	
-	public int getHeight(int cont) {
-		if(this.father == null) {
-			return cont;
-		} else {
-			return this.father.getHeight(++cont);
+	/**
+	 * Inserta en bloque los elementos que no sean null de un array, igual que
+	 * {@link #insertBatch(Collection)}.
+	 * 
+	 * @param elements elementos a insertar.
+	 * @return numero de elementos insertados en el arbol (elementos diferentes de null)
+	 */
+	public int insertBatch(@SuppressWarnings("unchecked") T... elements) {
+		return insertBatch(Arrays.asList(elements));
+	}
+	
+	/**
+	 * Elimina en bloque una instancia por cada valor del array, con el mismo
+	 * resultado que {@link #remove(Comparable...)}.
+	 * 
+	 * Los valores repetidos se agrupan en un unico decremento de count y todos
+	 * se localizan en un solo recorrido del arbol. Los nodos se procesan en
+	 * postorden, de modo que cuando hay que eliminar uno, su sucesor ya esta
+	 * actualizado.
+	 * 
+	 * @return numero de elementos eliminados del arbol
+	 */
+	public int removeBatch(@SuppressWarnings("unchecked") T... elements) {
+		List<T> ordenados = new ArrayList<T>(elements.length);
+		for (T elemento : elements) {
+			if (elemento != null) {
+				ordenados.add(elemento);
+			}
+		}
+		Collections.sort(ordenados);
+		
+		List<T> claves = new ArrayList<T>();
+		int[] veces = groupRuns(ordenados, claves);
+		
+		int cont = 0;
+		LinkedList<BatchRange<T>> pila = new LinkedList<BatchRange<T>>();
+		pila.push(new BatchRange<T>(this, 0, claves.size()));
+		while (!pila.isEmpty()) {
+			BatchRange<T> tramo = pila.pop();
+			BinarySearchTreeImpl<T> nodo = tramo.nodo;
+			if (tramo.igual >= 0) {
+				// Segunda visita: sus sub-arboles ya estan procesados
+				int num = veces[tramo.igual];
+				cont += Math.min(num, nodo.count);
+				removeInstances(nodo, num);
+			} else if (tramo.lo < tramo.hi && !nodo.isEmpty()) {
+				int pos = lowerBound(claves, tramo.lo, tramo.hi, nodo.content);
+				boolean igual = pos < tramo.hi && claves.get(pos).compareTo(nodo.content) == 0;
+				if (igual) {
+					BatchRange<T> visita = new BatchRange<T>(nodo, pos, pos + 1);
+					visita.igual = pos;
+					pila.push(visita);
+				}
+				pila.push(new BatchRange<T>(nodo.getLeftBST(), tramo.lo, pos));
+				pila.push(new BatchRange<T>(nodo.getRightBST(), igual ? pos + 1 : pos, tramo.hi));
+			}
 		}
+		afterRemove();
+		return cont;
+	}
+	
+	/**
+	 * Busca en bloque todos los valores del array en un solo recorrido del arbol.
+	 * 
+	 * @return conjunto con el bit i activo si elements[i] no es null y esta en el arbol
+	 */
+	public BitSet containsAll(@SuppressWarnings("unchecked") T... elements) {
+		BitSet results = new BitSet(elements.length);
+		
+		List<Integer> indices = new ArrayList<Integer>(elements.length);
+		for (int i = 0; i < elements.length; i++) {
+			if (elements[i] != null) {
+				indices.add(i);
+			}
+		}
+		indices.sort((a, b) -> elements[a].compareTo(elements[b]));
+		List<T> claves = new ArrayList<T>(indices.size());
+		for (int i : indices) {
+			claves.add(elements[i]);
+		}
+		
+		LinkedList<BatchRange<T>> pila = new LinkedList<BatchRange<T>>();
+		pila.push(new BatchRange<T>(this, 0, claves.size()));
+		while (!pila.isEmpty()) {
+			BatchRange<T> tramo = pila.pop();
+			BinarySearchTreeImpl<T> nodo = tramo.nodo;
+			if (tramo.lo >= tramo.hi || nodo.isEmpty()) {
+				continue;
+			}
+			int pos = lowerBound(claves, tramo.lo, tramo.hi, nodo.content);
+			int fin = pos;
+			while (fin < tramo.hi && claves.get(fin).compareTo(nodo.content) == 0) {
+				results.set(indices.get(fin));
+				fin++;
+			}
+			pila.push(new BatchRange<T>(nodo.getLeftBST(), tramo.lo, pos));
+			pila.push(new BatchRange<T>(nodo.getRightBST(), fin, tramo.hi));
+		}
+		return results;
+	}
+	
+	/**
+	 * Tramo [lo, hi) de valores ordenados pendiente de repartir en el
+	 * sub-arbol nodo. En removeBatch, igual >= 0 marca la segunda visita
+	 * del nodo que contiene claves[igual].
+	 */
+	private static class BatchRange<T extends Comparable<? super T>> {
+		final BinarySearchTreeImpl<T> nodo;
+		final int lo;
+		final int hi;
+		int igual = -1;
+		final int depth; // profundidad de nodo, solo en insertBatch
+		
+		BatchRange(BinarySearchTreeImpl<T> nodo, int lo, int hi) {
+			this(nodo, lo, hi, 0);
+		}
+		
+		BatchRange(BinarySearchTreeImpl<T> nodo, int lo, int hi, int depth) {
+			this.nodo = nodo;
+			this.lo = lo;
+			this.hi = hi;
+			this.depth = depth;
+		}
+	}
+	
+	/**
+	 * Agrupa los valores repetidos de una lista ordenada: deja en claves cada
+	 * valor una sola vez y devuelve cuantas veces aparece cada uno.
+	 */
+	private static <T extends Comparable<? super T>> int[] groupRuns(List<T> ordenados, List<T> claves) {
+		int[] veces = new int[ordenados.size()];
+		for (T elemento : ordenados) {
+			int ultimo = claves.size() - 1;
+			if (ultimo >= 0 && claves.get(ultimo).compareTo(elemento) == 0) {
+				veces[ultimo]++;
+			} else {
+				claves.add(elemento);
+				veces[ultimo + 1] = 1;
+			}
+		}
+		return veces;
 	}
-
 	
+	/**
+	 * Primera posicion de [lo, hi) cuyo valor no es menor que elem.
+	 */
+	private static <T extends Comparable<? super T>> int lowerBound(List<T> claves, int lo, int hi, T elem) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (claves.get(mid).compareTo(elem) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+	
+	public BinarySearchTreeImpl<T> getElem(T element) {
+		return findNode(element, TreeMetrics.Operation.GET_ELEM);
+	}
+	
+	/**
+	 * Descenso iterativo desde este nodo hasta el que contiene element.
+	 * 
+	 * @param op operacion a la que se anota el descenso en las metricas
+	 * @return nodo que contiene element, o null si no esta
+	 * @throws IllegalArgumentException si element es null
+	 */
+	private BinarySearchTreeImpl<T> findNode(T element, TreeMetrics.Operation op) {
+		if (element == null) 
+			throw new IllegalArgumentException();
+		
+		LookupCache<T> cache = context == null ? null : context.cache;
+		if (cache != null) {
+			BinarySearchTreeImpl<T> cached = cache.get(element);
+			if (cached != null) {
+				if (isAttached(cached) && cached.content.compareTo(element) == 0) {
+					cache.recordHit();
+					return cached;
+				}
+				cache.invalidate(element);
+			}
+			cache.recordMiss();
+		}
+		
+		BinarySearchTreeImpl<T> nodo = this;
+		int depth = 0;
+		int comparisons = 0;
+		TreeContext.Finger<T> finger = finger();
+		if (finger != null) {
+			comparisons = climb(finger, element);
+			nodo = finger.node;
+			depth = finger.depth;
+		}
+		while (!nodo.isEmpty()) {
+			int cmp = nodo.content.compareTo(element);
+			comparisons++;
+			if (cmp == 0) {
+				recordDescent(op, depth, comparisons);
+				setFinger(finger, nodo, depth);
+				if (context != null && context.splay && op != TreeMetrics.Operation.REMOVE) {
+					nodo = splay(nodo);
+				}
+				if (cache != null && op != TreeMetrics.Operation.REMOVE) {
+					cache.put(element, nodo);
+				}
+				return nodo;
+			}
+			nodo = cmp > 0 ? nodo.getLeftBST() : nodo.getRightBST();
+			depth++;
+		}
+		recordDescent(op, depth, comparisons);
+		setFinger(finger, nodo.father, depth - 1);
+		if (context != null && context.splay && nodo.father != null) {
+			// tambien se sube el ultimo nodo visitado
+			splay(nodo.father);
+		}
+		return null;
+	}
+	
+	/**
+	 * Dedo de la busqueda en curso si la busqueda por dedo esta activa y el
+	 * dedo apunta a un nodo valido, o null si hay que empezar en la raiz.
+	 */
+	private TreeContext.Finger<T> finger() {
+		if (context == null || !context.fingerSearch) {
+			return null;
+		}
+		TreeContext.Finger<T> finger = context.threadFingers != null ? context.threadFingers.get() : context.finger;
+		if (finger.node == null || finger.epoch != context.fingerEpoch || !isAttached(finger.node)) {
+			return null;
+		}
+		return finger;
+	}
+	
+	private void setFinger(TreeContext.Finger<T> finger, BinarySearchTreeImpl<T> nodo, int depth) {
+		if (context == null || !context.fingerSearch) {
+			return;
+		}
+		if (finger == null) {
+			finger = context.threadFingers != null ? context.threadFingers.get() : context.finger;
+		}
+		finger.node = nodo;
+		finger.depth = depth;
+		finger.epoch = context.fingerEpoch;
+	}
+	
+	/**
+	 * Sube desde el dedo hasta un antecesor cuyo sub-arbol tiene que contener
+	 * element (si esta en el arbol), y deja en el dedo ese nodo y su
+	 * profundidad.
+	 * 
+	 * Todos los nodos que se visitan al subir estan en el sub-arbol del nodo
+	 * actual. En cuanto alguno es menor que element y otro mayor, element
+	 * queda entre los limites de ese sub-arbol y se puede bajar desde ahi. El
+	 * coste es la distancia hasta el antecesor comun del dedo y element, en
+	 * lugar de la profundidad de element.
+	 * 
+	 * @return numero de comparaciones hechas
+	 */
+	private int climb(TreeContext.Finger<T> finger, T element) {
+		BinarySearchTreeImpl<T> nodo = finger.node;
+		int depth = finger.depth;
+		int comparisons = 1;
+		int cmp = nodo.content.compareTo(element);
+		boolean sawLo = cmp < 0;
+		boolean sawHi = cmp > 0;
+		while (cmp != 0 && !(sawLo && sawHi) && nodo.father != null) {
+			nodo = nodo.father;
+			depth--;
+			comparisons++;
+			cmp = nodo.content.compareTo(element);
+			sawLo |= cmp < 0;
+			sawHi |= cmp > 0;
+		}
+		finger.node = nodo;
+		finger.depth = depth;
+		return comparisons - 1; // la ultima se repite al bajar
+	}
+	
+	/**
+	 * Activa en este arbol, que debe ser la raiz, el modo autoajustable
+	 * (splay): cada insert, contains o getElem sube el elemento accedido (o el
+	 * ultimo nodo visitado, si no esta) hasta la raiz con rotaciones zig,
+	 * zig-zig y zig-zag. Los elementos mas consultados quedan cerca de la raiz
+	 * y el coste amortizado de cada operacion es O(log n) aunque el arbol no
+	 * este equilibrado.
+	 * 
+	 * Las rotaciones mueven el contenido, count y etiquetas entre nodos en
+	 * lugar de mover los nodos, asi que este nodo sigue siendo la raiz y las
+	 * referencias father quedan actualizadas. Como consecuencia, un nodo
+	 * obtenido antes de otra operacion puede contener despues otro elemento.
+	 * Con este modo las consultas modifican el arbol, asi que no pueden
+	 * hacerse desde varios hilos a la vez, y los oyentes
+	 * ({@link #addTreeListener(TreeListener)}) reciben un RESHAPE de la raiz
+	 * en cada acceso que rota.
+	 * 
+	 * Desactiva la vigilancia de la forma ({@link #enableRebalancing(double)}).
+	 */
+	public void enableSplaying() {
+		if (context == null) {
+			context = new TreeContext<T>();
+		}
+		context.splay = true;
+		context.maxHeightRatio = 0;
+	}
+	
+	/**
+	 * Desactiva el modo autoajustable de este arbol.
+	 */
+	public void disableSplaying() {
+		if (context != null) {
+			context.splay = false;
+		}
+	}
+	
+	/**
+	 * Sube el elemento del nodo hasta la raiz de este arbol.
+	 * 
+	 * Si hay oyentes y se ha rotado algo, notifica un RESHAPE de la raiz,
+	 * porque cambian los caminos de todo lo que cuelga del camino subido.
+	 * 
+	 * @return la raiz, que contiene ahora el elemento
+	 */
+	private BinarySearchTreeImpl<T> splay(BinarySearchTreeImpl<T> nodo) {
+		boolean rotado = nodo.father != null;
+		while (nodo.father != null) {
+			BinarySearchTreeImpl<T> padre = nodo.father;
+			BinarySearchTreeImpl<T> abuelo = padre.father;
+			if (abuelo == null) {
+				// zig
+				nodo = rotateUp(nodo);
+			} else if ((abuelo.leftSubtree == padre) == (padre.leftSubtree == nodo)) {
+				// zig-zig: primero el padre y luego el nodo, que cuelga ya del abuelo
+				rotateUp(padre);
+				nodo = rotateUp(nodo);
+			} else {
+				// zig-zag
+				nodo = rotateUp(rotateUp(nodo));
+			}
+		}
+		context.fingerEpoch++;
+		context.tagsDirty |= context.tagsMaintained & ~(1L << TAG_DESCEND.slot | 1L << TAG_INTERNAL.slot);
+		if (rotado && context.listeners != null) {
+			fireEvent(TreeEvent.Type.RESHAPE, null, 0, 0, nodo);
+		}
+		return nodo;
+	}
+	
+	/**
+	 * Rotacion simple que sube un nivel el elemento de nodo.
+	 * 
+	 * En lugar de cambiar que nodo cuelga del abuelo, el padre toma el
+	 * contenido de nodo y nodo el del padre, y se reparten los sub-arboles:
+	 * 
+	 *       p(P)                p(X)
+	 *      /    \              /    \
+	 *   x(X)     C    ->      A     x(P)
+	 *   /  \                        /  \
+	 *  A    B                      B    C
+	 * 
+	 * @return el padre, que contiene ahora el elemento de nodo
+	 */
+	private BinarySearchTreeImpl<T> rotateUp(BinarySearchTreeImpl<T> nodo) {
+		BinarySearchTreeImpl<T> padre = nodo.father;
+		T contenido = padre.content;
+		padre.content = nodo.content;
+		nodo.content = contenido;
+		int count = padre.count;
+		padre.count = nodo.count;
+		nodo.count = count;
+		Map<String, Object> etiquetas = padre.tags;
+		padre.tags = nodo.tags;
+		nodo.tags = etiquetas;
+		long[] slots = padre.slots;
+		padre.slots = nodo.slots;
+		nodo.slots = slots;
+		
+		if (padre.leftSubtree == nodo) {
+			BinarySearchTreeImpl<T> a = nodo.getLeftBST();
+			BinarySearchTreeImpl<T> c = padre.getRightBST();
+			nodo.leftSubtree = nodo.rightSubtree;
+			nodo.rightSubtree = c;
+			c.father = nodo;
+			padre.leftSubtree = a;
+			a.father = padre;
+			padre.rightSubtree = nodo;
+		} else {
+			BinarySearchTreeImpl<T> a = padre.getLeftBST();
+			BinarySearchTreeImpl<T> c = nodo.getRightBST();
+			nodo.rightSubtree = nodo.leftSubtree;
+			nodo.leftSubtree = a;
+			a.father = nodo;
+			padre.rightSubtree = c;
+			c.father = padre;
+			padre.leftSubtree = nodo;
+		}
+		if (context.augmentation != null) {
+			recompute(nodo, context.augmentation);
+			recompute(padre, context.augmentation);
+		}
+		if (context.tagsMaintained != 0) {
+			// solo los dos elementos rotados pueden cambiar entre hoja e interno
+			tagsDirtyRange(contenido.compareTo(padre.content) < 0 ? contenido : padre.content, null);
+		}
+		return padre;
+	}
+	
+	/**
+	 * Activa en este arbol, que debe ser la raiz, la busqueda por dedo:
+	 * contains, getElem, insert y las busquedas de los borrados empiezan en el
+	 * ultimo nodo visitado y solo suben lo necesario antes de bajar. Con
+	 * accesos a elementos cercanos entre si el coste depende de la distancia
+	 * entre ellos y no de la profundidad del arbol.
+	 * 
+	 * Con perThread cada hilo tiene su propio dedo, de modo que varios hilos
+	 * pueden consultar a la vez un arbol que no se modifica (sin cache de
+	 * busquedas). Los borrados y reconstrucciones invalidan todos los dedos.
+	 */
+	public void enableFingerSearch(boolean perThread) {
+		if (context == null) {
+			context = new TreeContext<T>();
+		}
+		context.fingerSearch = true;
+		context.fingerEpoch++;
+		context.finger = new TreeContext.Finger<T>();
+		context.threadFingers = null;
+		context.threadFingerCount = null;
+		if (perThread) {
+			AtomicInteger creados = new AtomicInteger();
+			context.threadFingerCount = creados;
+			context.threadFingers = ThreadLocal.withInitial(() -> {
+				creados.incrementAndGet();
+				return new TreeContext.Finger<T>();
+			});
+		}
+	}
+	
+	/**
+	 * Desactiva la busqueda por dedo de este arbol.
+	 */
+	public void disableFingerSearch() {
+		if (context != null) {
+			context.fingerSearch = false;
+			context.finger = null;
+			context.threadFingers = null;
+			context.threadFingerCount = null;
+		}
+	}
+	
+	/**
+	 * Comprueba en O(1) que un nodo guardado en la cache sigue colgando de
+	 * este arbol y tiene elemento.
+	 */
+	private boolean isAttached(BinarySearchTreeImpl<T> nodo) {
+		if (nodo.content == null) {
+			return false;
+		}
+		if (nodo.father == null) {
+			return nodo == this;
+		}
+		return nodo.father.leftSubtree == nodo || nodo.father.rightSubtree == nodo;
+	}
+	
+	private TreeMetrics metrics() {
+		return context == null ? null : context.metrics;
+	}
+	
+	private void recordDescent(TreeMetrics.Operation op, int depth, int comparisons) {
+		if (context != null && context.metrics != null) {
+			context.metrics.recordDescent(op, depth, comparisons);
+		}
+	}
+	
+	/**
+	 * Activa las metricas de uso de este arbol, que debe ser la raiz, y las
+	 * devuelve. Si ya estaban activas devuelve las mismas.
+	 * 
+	 * Solo se anotan las operaciones que se invocan sobre este nodo.
+	 */
+	public TreeMetrics enableMetrics() {
+		if (context == null) {
+			context = new TreeContext<T>();
+		}
+		if (context.metrics == null) {
+			context.metrics = new TreeMetrics(this);
+		}
+		return context.metrics;
+	}
+	
+	/**
+	 * Desactiva las metricas de uso de este arbol.
+	 */
+	public void disableMetrics() {
+		if (context != null) {
+			context.metrics = null;
+		}
+	}
+	
+	/**
+	 * Devuelve las metricas de uso de este arbol, o null si no estan activas.
+	 */
+	public TreeMetrics getMetrics() {
+		return metrics();
+	}
+	
+	/**
+	 * Activa en este arbol, que debe ser la raiz, una cache LFU con los nodos
+	 * de hasta capacity elementos, y la devuelve. Las busquedas de contains,
+	 * getElem y los borrados sobre este nodo la consultan antes de bajar por
+	 * el arbol, asi que para los elementos mas consultados cuestan O(1).
+	 * Las busquedas resueltas por la cache no se anotan en las metricas.
+	 * 
+	 * Los elementos deben tener equals y hashCode coherentes con compareTo.
+	 * Si ya habia una cache se sustituye por una vacia.
+	 * 
+	 * @throws IllegalArgumentException si capacity es menor que 1
+	 */
+	public LookupCache<T> enableLookupCache(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException();
+		
+		if (context == null) {
+			context = new TreeContext<T>();
+		}
+		context.cache = new LookupCache<T>(capacity);
+		return context.cache;
+	}
+	
+	/**
+	 * Desactiva la cache de busquedas de este arbol.
+	 */
+	public void disableLookupCache() {
+		if (context != null) {
+			context.cache = null;
+		}
+	}
+	
+	/**
+	 * Devuelve la cache de busquedas de este arbol, o null si no esta activa.
+	 */
+	public LookupCache<T> getLookupCache() {
+		return context == null ? null : context.cache;
+	}
+	
+	/**
+	 * Activa en este arbol, que debe ser la raiz, un indice de sus elementos
+	 * ordenados por numero de instancias, que se actualiza en O(log n) en
+	 * cada insercion o borrado sobre este nodo. Con el, {@link #topK(int)} y
+	 * {@link #withCountAtLeast(int)} no recorren el arbol.
+	 * 
+	 * Se construye con los elementos actuales en O(n log n). Si ya estaba
+	 * activo no hace nada.
+	 */
+	public void enableCountIndex() {
+		if (context == null) {
+			context = new TreeContext<T>();
+		}
+		if (context.countIndex == null) {
+			context.countIndex = new CountIndex<T>();
+			for (InorderCursor<T> c = cursor(); c.isValid(); c.moveNext()) {
+				context.countIndex.update(c.get(), 0, c.getCount());
+			}
+		}
+	}
+	
+	/**
+	 * Desactiva el indice por numero de instancias de este arbol.
+	 */
+	public void disableCountIndex() {
+		if (context != null) {
+			context.countIndex = null;
+		}
+	}
+	
+	/**
+	 * Devuelve los k elementos con mas instancias, de mas a menos; con el
+	 * mismo numero, de menor a mayor elemento. Si hay menos de k, todos.
+	 * 
+	 * Por ejemplo, con el arbol
+	 * 
+	 * {50, {30(2), {10, ∅, ∅}, {40(4), ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}
+	 * 
+	 * topK(3) devuelve [40, 30, 80].
+	 * 
+	 * Con {@link #enableCountIndex()} cuesta O(log n + k); si no, recorre el
+	 * arbol en O(n log k).
+	 * 
+	 * @throws IllegalArgumentException si k es negativo
+	 */
+	public List<T> topK(int k) {
+		if (k < 0)
+			throw new IllegalArgumentException();
+		
+		if (context != null && context.countIndex != null) {
+			return context.countIndex.first(k);
+		}
+		if (k == 0) {
+			return new ArrayList<T>();
+		}
+		// monticulo con los k mejores vistos, el peor en la cima
+		PriorityQueue<BinarySearchTreeImpl<T>> mejores = new PriorityQueue<BinarySearchTreeImpl<T>>(k,
+				(a, b) -> a.count != b.count ? Integer.compare(a.count, b.count) : b.content.compareTo(a.content));
+		for (InorderCursor<T> c = cursor(); c.isValid(); c.moveNext()) {
+			mejores.add(c.getNode());
+			if (mejores.size() > k) {
+				mejores.poll();
+			}
+		}
+		LinkedList<T> rx = new LinkedList<T>();
+		while (!mejores.isEmpty()) {
+			rx.addFirst(mejores.poll().content);
+		}
+		return new ArrayList<T>(rx);
+	}
+	
+	/**
+	 * Devuelve los elementos con al menos threshold instancias, en el orden
+	 * de {@link #topK(int)}.
+	 * 
+	 * Con {@link #enableCountIndex()} cuesta O(log n + m), siendo m el numero
+	 * de elementos devueltos; si no, recorre el arbol.
+	 * 
+	 * @throws IllegalArgumentException si threshold es menor que 1
+	 */
+	public List<T> withCountAtLeast(int threshold) {
+		if (threshold < 1)
+			throw new IllegalArgumentException();
+		
+		if (context != null && context.countIndex != null) {
+			return context.countIndex.atLeast(threshold);
+		}
+		List<BinarySearchTreeImpl<T>> nodos = new ArrayList<BinarySearchTreeImpl<T>>();
+		for (InorderCursor<T> c = cursor(); c.isValid(); c.moveNext()) {
+			if (c.getCount() >= threshold) {
+				nodos.add(c.getNode());
+			}
+		}
+		// estable: con el mismo count quedan de menor a mayor
+		nodos.sort((a, b) -> Integer.compare(b.count, a.count));
+		List<T> rx = new ArrayList<T>(nodos.size());
+		for (BinarySearchTreeImpl<T> nodo : nodos) {
+			rx.add(nodo.content);
+		}
+		return rx;
+	}
+	
+	/**
+	 * Activa en este arbol, que debe ser la raiz, el agregado dado: cada nodo
+	 * guarda el resultado de combinar en inorden los elementos de su
+	 * sub-arbol, y lo recalculan los nodos del camino afectado en cada
+	 * insercion, borrado, rotacion o reconstruccion invocada sobre este nodo.
+	 * Con el, {@link #aggregate(TreeAugmentation, Comparable, Comparable)}
+	 * cuesta O(h) en lugar de recorrer el rango.
+	 * 
+	 * Solo hay un agregado activo por arbol; activar otro sustituye al
+	 * anterior. Se calcula para los elementos actuales en O(n).
+	 * 
+	 * @throws IllegalArgumentException si augmentation es null
+	 */
+	public void enableAugmentation(TreeAugmentation<T, ?> augmentation) {
+		if (augmentation == null)
+			throw new IllegalArgumentException();
+		
+		if (context == null) {
+			context = new TreeContext<T>();
+		}
+		context.augmentation = augmentation;
+		List<BinarySearchTreeImpl<T>> nodos = preorderNodes();
+		// en preorden inverso cada nodo va despues de sus hijos
+		for (int i = nodos.size() - 1; i >= 0; i--) {
+			recompute(nodos.get(i), augmentation);
+		}
+	}
+	
+	/**
+	 * Desactiva el agregado de este arbol y libera el de cada nodo.
+	 */
+	public void disableAugmentation() {
+		if (context != null && context.augmentation != null) {
+			context.augmentation = null;
+			for (BinarySearchTreeImpl<T> nodo : preorderNodes()) {
+				nodo.aggregate = null;
+			}
+		}
+	}
+	
+	/**
+	 * Devuelve el agregado de todos los elementos del arbol.
+	 * 
+	 * Si augmentation es el agregado activo cuesta O(1); si no, recorre el
+	 * arbol.
+	 * 
+	 * @throws IllegalArgumentException si augmentation es null
+	 */
+	public <A> A aggregate(TreeAugmentation<T, A> augmentation) {
+		if (augmentation == null)
+			throw new IllegalArgumentException();
+		
+		if (augmented(augmentation)) {
+			return aggregateOf(this, augmentation);
+		}
+		A rx = augmentation.identity();
+		for (InorderCursor<T> c = cursor(); c.isValid(); c.moveNext()) {
+			rx = augmentation.combine(rx, augmentation.lift(c.get(), c.getCount()));
+		}
+		return rx;
+	}
+	
+	/**
+	 * Devuelve el agregado de los elementos x con from &lt;= x &lt; to, o
+	 * augmentation.identity() si no hay ninguno.
+	 * 
+	 * Por ejemplo, con el arbol
+	 * 
+	 * {50, {30(2), {10, ∅, ∅}, {40, ∅, ∅}}, {80, {60, ∅, ∅}, ∅}}
+	 * 
+	 * y TreeAugmentation.sum(x -&gt; x), aggregate(suma, 30, 60) devuelve
+	 * 30 * 2 + 40 + 50 = 150.
+	 * 
+	 * Si augmentation es el agregado activo, baja por el arbol hasta el
+	 * primer nodo dentro del rango y desde el sigue los dos caminos hacia from
+	 * y to, combinando el agregado de los sub-arboles que quedan enteros
+	 * dentro: O(h). Si no, recorre los elementos del rango en O(h + m).
+	 * 
+	 * @throws IllegalArgumentException si alguno de los parametros es null
+	 */
+	public <A> A aggregate(TreeAugmentation<T, A> augmentation, T from, T to) {
+		if (augmentation == null || from == null || to == null)
+			throw new IllegalArgumentException();
+		
+		if (!augmented(augmentation)) {
+			A rx = augmentation.identity();
+			for (InorderCursor<T> c = cursor(from); c.isValid() && c.get().compareTo(to) < 0; c.moveNext()) {
+				rx = augmentation.combine(rx, augmentation.lift(c.get(), c.getCount()));
+			}
+			return rx;
+		}
+		
+		BinarySearchTreeImpl<T> nodo = this;
+		while (!nodo.isEmpty()) {
+			if (nodo.content.compareTo(from) < 0) {
+				nodo = nodo.getRightBST();
+			} else if (nodo.content.compareTo(to) >= 0) {
+				nodo = nodo.getLeftBST();
+			} else {
+				break;
+			}
+		}
+		if (nodo.isEmpty()) {
+			return augmentation.identity();
+		}
+		
+		// elementos >= from del hijo izquierdo, de derecha a izquierda
+		A izq = augmentation.identity();
+		for (BinarySearchTreeImpl<T> m = nodo.getLeftBST(); !m.isEmpty();) {
+			if (m.content.compareTo(from) >= 0) {
+				A resto = augmentation.combine(augmentation.lift(m.content, m.count),
+						aggregateOf(m.getRightBST(), augmentation));
+				izq = augmentation.combine(resto, izq);
+				m = m.getLeftBST();
+			} else {
+				m = m.getRightBST();
+			}
+		}
+		// elementos < to del hijo derecho, de izquierda a derecha
+		A der = augmentation.identity();
+		for (BinarySearchTreeImpl<T> m = nodo.getRightBST(); !m.isEmpty();) {
+			if (m.content.compareTo(to) < 0) {
+				A resto = augmentation.combine(aggregateOf(m.getLeftBST(), augmentation),
+						augmentation.lift(m.content, m.count));
+				der = augmentation.combine(der, resto);
+				m = m.getRightBST();
+			} else {
+				m = m.getLeftBST();
+			}
+		}
+		return augmentation.combine(augmentation.combine(izq, augmentation.lift(nodo.content, nodo.count)), der);
+	}
+	
+	/**
+	 * Devuelve en orden los elementos cuyo intervalo [start, end] se solapa
+	 * con [from, to], es decir, con start &lt;= to y end &gt;= from. Los
+	 * elementos deben estar ordenados por start (ver
+	 * {@link IntervalAugmentation}).
+	 * 
+	 * Si intervals es el agregado activo no entra en los sub-arboles cuyo
+	 * mayor end es menor que from, y cuesta O(m log n) en un arbol
+	 * equilibrado, siendo m el numero de elementos devueltos; si no, recorre
+	 * los elementos con start &lt;= to.
+	 * 
+	 * @throws IllegalArgumentException si intervals es null o from &gt; to
+	 */
+	public List<T> overlapping(IntervalAugmentation<T> intervals, long from, long to) {
+		if (intervals == null || from > to)
+			throw new IllegalArgumentException();
+		
+		boolean podar = augmented(intervals);
+		List<T> rx = new ArrayList<T>();
+		LinkedList<BinarySearchTreeImpl<T>> pila = new LinkedList<BinarySearchTreeImpl<T>>();
+		BinarySearchTreeImpl<T> actual = this;
+		while (actual != null || !pila.isEmpty()) {
+			if (actual != null) {
+				if (actual.isEmpty() || (podar && (Long) actual.aggregate < from)) {
+					actual = null;
+				} else {
+					pila.push(actual);
+					actual = actual.getLeftBST();
+				}
+			} else {
+				actual = pila.pop();
+				if (intervals.start(actual.content) > to) {
+					// los siguientes en inorden empiezan aun mas tarde
+					break;
+				}
+				if (intervals.end(actual.content) >= from) {
+					rx.add(actual.content);
+				}
+				actual = actual.getRightBST();
+			}
+		}
+		return rx;
+	}
+	
+	private boolean augmented(TreeAugmentation<T, ?> augmentation) {
+		return context != null && context.augmentation == augmentation;
+	}
+	
+	/**
+	 * Recalcula el agregado de nodo y de sus antecesores hasta este nodo.
+	 */
+	private void augmentFrom(BinarySearchTreeImpl<T> nodo) {
+		while (nodo != null) {
+			recompute(nodo, context.augmentation);
+			nodo = nodo == this ? null : nodo.father;
+		}
+	}
+	
+	/**
+	 * Recalcula el agregado de nodo, no vacio, a partir del de sus hijos.
+	 */
+	private static <T extends Comparable<? super T>, A> void recompute(BinarySearchTreeImpl<T> nodo,
+			TreeAugmentation<T, A> augmentation) {
+		A izq = aggregateOf(nodo.getLeftBST(), augmentation);
+		A propio = augmentation.lift(nodo.content, nodo.count);
+		nodo.aggregate = augmentation.combine(augmentation.combine(izq, propio), aggregateOf(nodo.getRightBST(), augmentation));
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <T extends Comparable<? super T>, A> A aggregateOf(BinarySearchTreeImpl<T> nodo,
+			TreeAugmentation<T, A> augmentation) {
+		return nodo.isEmpty() ? augmentation.identity() : (A) nodo.aggregate;
+	}
+	
+	/**
+	 * Nodos con elemento de este arbol en preorden.
+	 */
+	private List<BinarySearchTreeImpl<T>> preorderNodes() {
+		List<BinarySearchTreeImpl<T>> rx = new ArrayList<BinarySearchTreeImpl<T>>();
+		LinkedList<BinarySearchTreeImpl<T>> pila = new LinkedList<BinarySearchTreeImpl<T>>();
+		pila.push(this);
+		while (!pila.isEmpty()) {
+			BinarySearchTreeImpl<T> nodo = pila.pop();
+			if (!nodo.isEmpty()) {
+				rx.add(nodo);
+				pila.push(nodo.getRightBST());
+				pila.push(nodo.getLeftBST());
+			}
+		}
+		return rx;
+	}
+	
+	/**
+	 * Registra un oyente de las modificaciones de este arbol, que debe ser la
+	 * raiz. Se le notifica, despues de hacerlas, cada insercion de un
+	 * elemento nuevo, cada cambio de count y cada elemento quitado, con el
+	 * camino desde este nodo, y cada reconstruccion de un sub-arbol
+	 * ({@link TreeEvent.Type#RESHAPE}).
+	 * 
+	 * Solo se notifican las operaciones que se invocan sobre este nodo. En el
+	 * modo autoajustable cada acceso que rota el arbol, aunque sea una
+	 * consulta, notifica ademas un RESHAPE de la raiz despues de su propio
+	 * evento.
+	 * 
+	 * @throws IllegalArgumentException si listener es null
+	 */
+	public void addTreeListener(TreeListener<T> listener) {
+		if (listener == null)
+			throw new IllegalArgumentException();
+		
+		if (context == null) {
+			context = new TreeContext<T>();
+		}
+		if (context.listeners == null) {
+			context.listeners = new ArrayList<TreeListener<T>>();
+		}
+		context.listeners.add(listener);
+	}
+	
+	/**
+	 * Quita un oyente registrado con {@link #addTreeListener(TreeListener)}.
+	 * 
+	 * @return true si estaba registrado
+	 */
+	public boolean removeTreeListener(TreeListener<T> listener) {
+		if (context == null || context.listeners == null || !context.listeners.remove(listener)) {
+			return false;
+		}
+		if (context.listeners.isEmpty()) {
+			context.listeners = null;
+		}
+		return true;
+	}
+	
+	private void fireEvent(TreeEvent.Type type, T element, int oldCount, int newCount, BinarySearchTreeImpl<T> nodo) {
+		fireEvent(newEvent(type, element, oldCount, newCount, nodo));
+	}
+	
+	private void fireEvent(TreeEvent<T> evento) {
+		for (int i = 0; i < context.listeners.size(); i++) {
+			context.listeners.get(i).treeChanged(evento);
+		}
+	}
+	
+	/**
+	 * Crea el evento con el camino desde este nodo hasta nodo, que cuelga de
+	 * el. Sube una sola vez por father guardando los pasos en bits, salvo en
+	 * caminos de mas de 64 pasos.
+	 */
+	private TreeEvent<T> newEvent(TreeEvent.Type type, T element, int oldCount, int newCount, BinarySearchTreeImpl<T> nodo) {
+		long bits = 0;
+		int n = 0;
+		for (BinarySearchTreeImpl<T> actual = nodo; actual != this; actual = actual.father) {
+			if (n < 64 && actual.father.rightSubtree == actual) {
+				bits |= 1L << n;
+			}
+			n++;
+		}
+		long secuencia = ++context.eventSequence;
+		if (n > 64) {
+			StringBuilder camino = new StringBuilder(n);
+			for (BinarySearchTreeImpl<T> actual = nodo; actual != this; actual = actual.father) {
+				camino.append(actual.father.leftSubtree == actual ? 'L' : 'R');
+			}
+			return new TreeEvent<T>(secuencia, type, element, oldCount, newCount, camino.reverse().toString());
+		}
+		return new TreeEvent<T>(secuencia, type, element, oldCount, newCount, bits, n);
+	}
+	
+	/**
+	 * Activa en este arbol, que debe ser la raiz, el mantenimiento de las
+	 * etiquetas dadas, que deben ser {@link #TAG_HEIGHT}, {@link #TAG_DESCEND},
+	 * {@link #TAG_INTERNAL} o {@link #TAG_ONLY_SON}; sin ninguna, las cuatro.
+	 * 
+	 * Mientras este activo, esas etiquetas siguen siendo las que pondrian
+	 * tagHeightLeaf(), tagPosDescend(), tagInternalInorder() y
+	 * tagOnlySonPreorder() aunque se inserten o borren elementos sobre este
+	 * nodo. "height" se corrige al modificar: al insertar solo cambian el
+	 * nuevo nodo y su padre, y al borrar, las hojas del sub-arbol que sube un
+	 * nivel. Las otras dependen de la posicion en un recorrido, que cambia
+	 * para muchos nodos, asi que se anotan como pendientes y se recalculan
+	 * juntas la siguiente vez que se lee una etiqueta de la raiz, se muestra
+	 * el arbol o cualquier sub-arbol, o se llama a {@link #refreshTags()}.
+	 * Leer la etiqueta de otro nodo no las recalcula (costaria subir hasta la
+	 * raiz en cada lectura de cualquier arbol), asi que antes de leer las de
+	 * varios nodos tras modificar hay que llamar a {@link #refreshTags()}:
+	 * 
+	 * - "internal" es la posicion en inorden, y al insertar o borrar x solo
+	 *   cambia para los elementos mayores que x (y para el padre de x, que
+	 *   puede dejar de ser hoja). Se guarda el menor elemento afectado y se
+	 *   renumeran solo los nodos desde el, partiendo de la etiqueta de su
+	 *   anterior.
+	 * - "descend" es la posicion en inorden descendente, y solo cambia para
+	 *   los elementos menores que x: se guarda el mayor elemento afectado y
+	 *   se renumeran solo los nodos hasta el.
+	 * - "onlySon" es la posicion en preorden, que no se puede deducir de las
+	 *   etiquetas de los nodos vecinos (solo la tienen los hijos unicos), asi
+	 *   que cualquier insercion o borrado la recalcula en todo el arbol.
+	 * 
+	 * Las rotaciones y reconstrucciones mueven las etiquetas con cada
+	 * elemento, asi que no cambian "descend", y en "internal" solo pueden
+	 * cambiar que nodos son hojas entre los reorganizados; "height" y
+	 * "onlySon" se recalculan enteras. Las inserciones en bloque dejan
+	 * pendientes todas.
+	 * 
+	 * Los cambios que solo afectan al count de un nodo no invalidan ninguna.
+	 * Las etiquetas se calculan por primera vez en la siguiente lectura.
+	 * 
+	 * @throws IllegalArgumentException si alguna clave no es una de las cuatro
+	 */
+	public void enableTagMaintenance(IntTagKey... keys) {
+		long mascara = 0;
+		for (IntTagKey key : keys) {
+			if (key != TAG_HEIGHT && key != TAG_DESCEND && key != TAG_INTERNAL && key != TAG_ONLY_SON)
+				throw new IllegalArgumentException();
+			mascara |= 1L << key.slot;
+		}
+		if (keys.length == 0) {
+			mascara = 1L << TAG_HEIGHT.slot | 1L << TAG_DESCEND.slot
+					| 1L << TAG_INTERNAL.slot | 1L << TAG_ONLY_SON.slot;
+		}
+		
+		if (context == null) {
+			context = new TreeContext<T>();
+		}
+		context.tagsMaintained = mascara;
+		context.tagsDirty = mascara;
+		context.internalDirtyFrom = null;
+		context.descendDirtyTo = null;
+	}
+	
+	/**
+	 * Desactiva el mantenimiento de etiquetas de este arbol. Las etiquetas
+	 * que ya tenga no se quitan, aunque esten pendientes de recalcular.
+	 */
+	public void disableTagMaintenance() {
+		if (context != null) {
+			context.tagsMaintained = 0;
+			context.tagsDirty = 0;
+			context.internalDirtyFrom = null;
+			context.descendDirtyTo = null;
+		}
+	}
+	
+	/**
+	 * Recalcula en este arbol, que debe ser la raiz, las etiquetas mantenidas
+	 * que esten pendientes, una sola vez por muchas modificaciones: las que
+	 * lo estan en todo el arbol se quitan de cada nodo y se vuelven a hacer
+	 * las pasadas completas, y las de "internal" y "descend" con un tramo
+	 * pendiente se renumeran solo en ese tramo.
+	 */
+	public void refreshTags() {
+		if (context == null
+				|| context.tagsDirty == 0 && context.internalDirtyFrom == null && context.descendDirtyTo == null) {
+			return;
+		}
+		long pendientes = context.tagsDirty;
+		T internoDesde = context.internalDirtyFrom;
+		T descendHasta = context.descendDirtyTo;
+		context.tagsDirty = 0;
+		context.internalDirtyFrom = null;
+		context.descendDirtyTo = null;
+		
+		LinkedList<BinarySearchTreeImpl<T>> pila = new LinkedList<BinarySearchTreeImpl<T>>();
+		pila.push(this);
+		while (!pila.isEmpty()) {
+			BinarySearchTreeImpl<T> nodo = pila.pop();
+			if (!nodo.isEmpty()) {
+				for (IntTagKey key : new IntTagKey[] { TAG_HEIGHT, TAG_DESCEND, TAG_INTERNAL, TAG_ONLY_SON }) {
+					if ((pendientes & 1L << key.slot) != 0) {
+						nodo.removeTag(key);
+					}
+				}
+				pila.push(nodo.getLeftBST());
+				pila.push(nodo.getRightBST());
+			}
+		}
+		
+		if ((pendientes & 1L << TAG_HEIGHT.slot) != 0) {
+			tagHeightLeaf();
+		}
+		if ((pendientes & 1L << TAG_DESCEND.slot) != 0) {
+			tagPosDescend();
+		}
+		if ((pendientes & 1L << TAG_INTERNAL.slot) != 0) {
+			tagInternalInorder();
+		}
+		if ((pendientes & 1L << TAG_ONLY_SON.slot) != 0) {
+			tagOnlySonPreorder();
+		}
+		if (internoDesde != null && (pendientes & 1L << TAG_INTERNAL.slot) == 0) {
+			renumberInternal(internoDesde);
+		}
+		if (descendHasta != null && (pendientes & 1L << TAG_DESCEND.slot) == 0) {
+			renumberDescend(descendHasta);
+		}
+	}
+	
+	/**
+	 * Vuelve a poner "internal" a los nodos con elemento mayor o igual que
+	 * desde. Los anteriores estan al dia, asi que la numeracion sigue a la
+	 * del nodo anterior; si este es una hoja, que no tiene etiqueta, su
+	 * anterior no lo es (tiene hijo derecho) y la tiene.
+	 */
+	private void renumberInternal(T desde) {
+		BinarySearchTreeImpl<T> nodo = ceilingNode(desde);
+		if (nodo == null) {
+			return;
+		}
+		int posicion = 0;
+		BinarySearchTreeImpl<T> anterior = nodo.predecessor();
+		if (anterior != null && anterior.isLeaf()) {
+			anterior = anterior.predecessor();
+			posicion = 1;
+		}
+		if (anterior != null) {
+			posicion += anterior.getTag(TAG_INTERNAL, 0);
+		}
+		for (; nodo != null; nodo = nodo.successor()) {
+			posicion++;
+			if (nodo.isLeaf()) {
+				nodo.removeTag(TAG_INTERNAL);
+			} else {
+				nodo.setTag(TAG_INTERNAL, posicion);
+			}
+		}
+	}
+	
+	/**
+	 * Vuelve a poner "descend" a los nodos con elemento menor o igual que
+	 * hasta, siguiendo la numeracion del nodo siguiente, que esta al dia.
+	 */
+	private void renumberDescend(T hasta) {
+		if (isEmpty()) {
+			return;
+		}
+		BinarySearchTreeImpl<T> nodo = ceilingNode(hasta);
+		if (nodo == null) {
+			nodo = lastNode();
+		} else if (nodo.content.compareTo(hasta) > 0) {
+			nodo = nodo.predecessor();
+		}
+		if (nodo == null) {
+			return;
+		}
+		BinarySearchTreeImpl<T> siguiente = nodo.successor();
+		int posicion = siguiente == null ? 0 : siguiente.getTag(TAG_DESCEND, 0);
+		for (; nodo != null; nodo = nodo.predecessor()) {
+			nodo.setTag(TAG_DESCEND, ++posicion);
+		}
+	}
+	
+	/**
+	 * Anota que hay que renumerar "internal" desde el elemento desde y
+	 * "descend" hasta el elemento hasta (null si no), salvo que no se
+	 * mantengan o ya esten pendientes en todo el arbol.
+	 */
+	private void tagsDirtyRange(T desde, T hasta) {
+		long limpias = context.tagsMaintained & ~context.tagsDirty;
+		if (desde != null && (limpias & 1L << TAG_INTERNAL.slot) != 0
+				&& (context.internalDirtyFrom == null || desde.compareTo(context.internalDirtyFrom) < 0)) {
+			context.internalDirtyFrom = desde;
+		}
+		if (hasta != null && (limpias & 1L << TAG_DESCEND.slot) != 0
+				&& (context.descendDirtyTo == null || hasta.compareTo(context.descendDirtyTo) > 0)) {
+			context.descendDirtyTo = hasta;
+		}
+	}
+	
+	/**
+	 * Antes de leer etiquetas en la raiz, recalcula las pendientes. En el
+	 * resto de nodos no hace nada: saber si su arbol las mantiene obligaria
+	 * a subir hasta la raiz en cada lectura, tambien en los arboles que no
+	 * las mantienen.
+	 */
+	@Override
+	void beforeTagRead() {
+		if (father == null && context != null) {
+			refreshTags();
+		}
+	}
+	
+	/**
+	 * Antes de mostrar cualquier sub-arbol, recalcula las etiquetas
+	 * pendientes de su raiz; subir hasta ella cuesta menos que el recorrido.
+	 */
+	@Override
+	void beforeTagDisplay() {
+		BinarySearchTreeImpl<T> raiz = this;
+		while (raiz.father != null) {
+			raiz = raiz.father;
+		}
+		raiz.beforeTagRead();
+	}
+	
+	/**
+	 * Ajusta las etiquetas mantenidas tras convertir un nodo vacio en hoja.
+	 */
+	private void tagsAfterInsert(BinarySearchTreeImpl<T> nodo) {
+		long altura = 1L << TAG_HEIGHT.slot;
+		if ((context.tagsMaintained & altura) != 0 && (context.tagsDirty & altura) == 0) {
+			nodo.setTag(TAG_HEIGHT, nodo.getHeight(1));
+			BinarySearchTreeImpl<T> padre = nodo.father;
+			if (padre != null && (padre.leftSubtree == nodo ? padre.rightSubtree : padre.leftSubtree).isEmpty()) {
+				// el padre era hoja
+				padre.removeTag(TAG_HEIGHT);
+			}
+		}
+		// el padre puede dejar de ser hoja; si es menor, "internal" cambia desde el
+		BinarySearchTreeImpl<T> padre = nodo.father;
+		T desde = padre != null && padre.content.compareTo(nodo.content) < 0 ? padre.content : nodo.content;
+		tagsDirtyRange(desde, nodo.content);
+		context.tagsDirty |= context.tagsMaintained & 1L << TAG_ONLY_SON.slot;
+	}
+	
+	/**
+	 * Ajusta las etiquetas mantenidas tras quitar un nodo del arbol: padre es
+	 * el padre de una hoja que ha pasado a ser vacia, y subido la raiz de un
+	 * sub-arbol que ha subido un nivel. "internal" cambia desde el menor
+	 * elemento afectado, desde, y "descend" hasta el mayor, hasta.
+	 */
+	private void tagsAfterRemove(BinarySearchTreeImpl<T> padre, BinarySearchTreeImpl<T> subido, T desde, T hasta) {
+		long altura = 1L << TAG_HEIGHT.slot;
+		if ((context.tagsMaintained & altura) != 0 && (context.tagsDirty & altura) == 0) {
+			if (padre != null && padre.isLeaf()) {
+				padre.setTag(TAG_HEIGHT, padre.getHeight(1));
+			}
+			if (subido != null) {
+				// las hojas del sub-arbol quedan un nivel mas arriba
+				LinkedList<BinarySearchTreeImpl<T>> pila = new LinkedList<BinarySearchTreeImpl<T>>();
+				LinkedList<Integer> niveles = new LinkedList<Integer>();
+				pila.push(subido);
+				niveles.push(subido.getHeight(1));
+				while (!pila.isEmpty()) {
+					BinarySearchTreeImpl<T> nodo = pila.pop();
+					int nivel = niveles.pop();
+					if (nodo.isLeaf()) {
+						nodo.setTag(TAG_HEIGHT, nivel);
+					} else if (!nodo.isEmpty()) {
+						pila.push(nodo.getLeftBST());
+						niveles.push(nivel + 1);
+						pila.push(nodo.getRightBST());
+						niveles.push(nivel + 1);
+					}
+				}
+			}
+		}
+		tagsDirtyRange(desde, hasta);
+		context.tagsDirty |= context.tagsMaintained & 1L << TAG_ONLY_SON.slot;
+	}
+	
+	/**
+	 * Se llama tras convertir un nodo vacio en nodo con elemento, a
+	 * profundidad depth respecto a este nodo, cuando hay contexto.
+	 */
+	private void nodeAdded(BinarySearchTreeImpl<T> nodo, int depth) {
+		if (context.metrics != null) {
+			context.metrics.recordAllocation(1, 2);
+		}
+		if (context.tagsMaintained != 0) {
+			tagsAfterInsert(nodo);
+		}
+		if (context.maxHeightRatio > 0) {
+			context.size++;
+			context.maxSize = Math.max(context.maxSize, context.size);
+			if (depth + 1 > context.maxHeightRatio * log2(context.size + 1)) {
+				rebuildScapegoat(nodo);
+			}
+		}
+	}
+	
+	/**
+	 * Se llama al terminar cualquier operacion publica de borrado.
+	 */
+	private void afterRemove() {
+		if (context != null && context.maxHeightRatio > 0 && context.size <= context.maxSize / 2) {
+			// Tras borrar la mitad de los nodos la altura ya no se ajusta
+			// al tamaño: se reconstruye el arbol completo
+			rebuild(this);
+			context.maxSize = context.size;
+		}
+	}
+	
+	private static double log2(int n) {
+		return Math.log(n) / Math.log(2);
+	}
+	
+	/**
+	 * Activa la vigilancia de la forma de este arbol, que debe ser la raiz.
+	 * 
+	 * El arbol lleva la cuenta de su numero de nodos mientras se modifica. Si
+	 * al insertar un nodo su nivel supera maxHeightRatio * log2(size + 1), se
+	 * sube por father desde el nuevo nodo hasta el primer antecesor cuyo
+	 * sub-arbol incumple la misma proporcion (el "chivo expiatorio") y se
+	 * reconstruye ese sub-arbol perfectamente equilibrado. Cuando los borrados
+	 * dejan el arbol en la mitad de nodos que llego a tener, se reconstruye
+	 * entero. El coste amortizado de cada operacion queda en O(log n).
+	 * 
+	 * Si el arbol ya incumple la proporcion al activarla, se reconstruye.
+	 * Desactiva el modo autoajustable ({@link #enableSplaying()}).
+	 * 
+	 * @param maxHeightRatio altura maxima permitida en proporcion a log2(size + 1);
+	 *                       por ejemplo 2.0
+	 * @throws IllegalArgumentException si maxHeightRatio no es mayor que 1
+	 */
+	public void enableRebalancing(double maxHeightRatio) {
+		if (!(maxHeightRatio > 1.0))
+			throw new IllegalArgumentException();
+		
+		if (context == null) {
+			context = new TreeContext<T>();
+		}
+		context.maxHeightRatio = maxHeightRatio;
+		context.splay = false;
+		context.size = this.size();
+		context.maxSize = context.size;
+		if (this.height() > maxHeightRatio * log2(context.size + 1)) {
+			rebuild(this);
+		}
+	}
+	
+	/**
+	 * Desactiva la vigilancia de la forma de este arbol.
+	 */
+	public void disableRebalancing() {
+		if (context != null) {
+			context.maxHeightRatio = 0;
+		}
+	}
+	
+	/**
+	 * Reconstruye este (sub-)arbol con forma perfectamente equilibrada.
+	 * 
+	 * Cada elemento conserva su count y sus etiquetas, y todas las
+	 * referencias father quedan actualizadas. No reserva nodos nuevos:
+	 * reutiliza los mismos nodos y centinelas, y este nodo sigue siendo la
+	 * raiz del sub-arbol.
+	 */
+	public void rebalance() {
+		rebuild(this);
+	}
+	
+	/**
+	 * Busca, subiendo desde el nodo recien insertado, el primer antecesor
+	 * cuyo sub-arbol es demasiado alto para su tamaño, y lo reconstruye.
+	 */
+	private void rebuildScapegoat(BinarySearchTreeImpl<T> nuevo) {
+		BinarySearchTreeImpl<T> hijo = nuevo;
+		int tam = 1;
+		int niveles = 1;
+		while (hijo != this && hijo.father != null) {
+			BinarySearchTreeImpl<T> padre = hijo.father;
+			BinarySearchTreeImpl<T> hermano = padre.leftSubtree == hijo ? padre.getRightBST() : padre.getLeftBST();
+			tam = tam + 1 + hermano.size();
+			niveles++;
+			if (niveles > context.maxHeightRatio * log2(tam + 1)) {
+				rebuild(padre);
+				return;
+			}
+			hijo = padre;
+		}
+	}
+	
+	/**
+	 * Reconstruye equilibrado el sub-arbol con raiz top, moviendo entre sus
+	 * nodos el contenido, count y etiquetas de cada elemento. Los agregados
+	 * se recalculan dentro del sub-arbol; los de sus antecesores no cambian
+	 * porque sigue teniendo los mismos elementos.
+	 */
+	private void rebuild(BinarySearchTreeImpl<T> top) {
+		if (top.isEmpty()) {
+			return;
+		}
+		
+		// Inorden iterativo: nodos con elemento y centinelas por separado
+		List<BinarySearchTreeImpl<T>> nodos = new ArrayList<BinarySearchTreeImpl<T>>();
+		List<BinarySearchTreeImpl<T>> vacios = new ArrayList<BinarySearchTreeImpl<T>>();
+		LinkedList<BinarySearchTreeImpl<T>> pila = new LinkedList<BinarySearchTreeImpl<T>>();
+		BinarySearchTreeImpl<T> actual = top;
+		while (actual != null || !pila.isEmpty()) {
+			if (actual != null) {
+				if (actual.isEmpty()) {
+					vacios.add(actual);
+					actual = null;
+				} else {
+					pila.push(actual);
+					actual = actual.getLeftBST();
+				}
+			} else {
+				actual = pila.pop();
+				nodos.add(actual);
+				actual = actual.getRightBST();
+			}
+		}
+		
+		List<T> contenidos = new ArrayList<T>(nodos.size());
+		int[] counts = new int[nodos.size()];
+		List<Map<String, Object>> etiquetas = new ArrayList<Map<String, Object>>(nodos.size());
+		List<long[]> slots = new ArrayList<long[]>(nodos.size());
+		for (int i = 0; i < nodos.size(); i++) {
+			BinarySearchTreeImpl<T> nodo = nodos.get(i);
+			contenidos.add(nodo.content);
+			counts[i] = nodo.count;
+			etiquetas.add(nodo.tags);
+			slots.add(nodo.slots);
+		}
+		
+		// top se queda en su sitio; el resto de nodos se reparten
+		nodos.remove(top);
+		Iterator<BinarySearchTreeImpl<T>> libres = nodos.iterator();
+		Iterator<BinarySearchTreeImpl<T>> centinelas = vacios.iterator();
+		relink(top, contenidos, counts, etiquetas, slots, 0, contenidos.size(), libres, centinelas);
+		
+		if (context != null) {
+			context.fingerEpoch++;
+			if (context.tagsMaintained != 0) {
+				context.tagsDirty |= context.tagsMaintained & ~(1L << TAG_DESCEND.slot | 1L << TAG_INTERNAL.slot);
+				tagsDirtyRange(contenidos.get(0), null);
+			}
+			if (context.metrics != null) {
+				context.metrics.recordRebuild(contenidos.size());
+			}
+			if (context.listeners != null) {
+				fireEvent(TreeEvent.Type.RESHAPE, null, 0, 0, top);
+			}
+		}
+	}
+	
+	private void relink(BinarySearchTreeImpl<T> nodo, List<T> contenidos, int[] counts,
+			List<Map<String, Object>> etiquetas, List<long[]> slots, int lo, int hi,
+			Iterator<BinarySearchTreeImpl<T>> libres, Iterator<BinarySearchTreeImpl<T>> centinelas) {
+		int mid = (lo + hi) >>> 1;
+		nodo.content = contenidos.get(mid);
+		nodo.count = counts[mid];
+		nodo.tags = etiquetas.get(mid);
+		nodo.slots = slots.get(mid);
+		
+		BinarySearchTreeImpl<T> izq = lo < mid ? libres.next() : centinelas.next();
+		izq.father = nodo;
+		nodo.leftSubtree = izq;
+		if (lo < mid) {
+			relink(izq, contenidos, counts, etiquetas, slots, lo, mid, libres, centinelas);
+		}
+		
+		BinarySearchTreeImpl<T> der = mid + 1 < hi ? libres.next() : centinelas.next();
+		der.father = nodo;
+		nodo.rightSubtree = der;
+		if (mid + 1 < hi) {
+			relink(der, contenidos, counts, etiquetas, slots, mid + 1, hi, libres, centinelas);
+		}
+		if (context != null && context.augmentation != null) {
+			recompute(nodo, context.augmentation);
+		}
+	}
+	
+	/**
+	 * Devuelve la altura de este (sub-)arbol: 0 si es vacio, 1 si es hoja...
+	 * 
+	 * Es iterativo, asi que sirve tambien para arboles degenerados.
+	 */
+	public int height() {
+		int rx = 0;
+		LinkedList<BinarySearchTreeImpl<T>> pendientes = new LinkedList<BinarySearchTreeImpl<T>>();
+		LinkedList<Integer> niveles = new LinkedList<Integer>();
+		pendientes.push(this);
+		niveles.push(0);
+		while (!pendientes.isEmpty()) {
+			BinarySearchTreeImpl<T> nodo = pendientes.pop();
+			int nivel = niveles.pop();
+			if (!nodo.isEmpty()) {
+				rx = Math.max(rx, nivel + 1);
+				pendientes.push(nodo.getLeftBST());
+				niveles.push(nivel + 1);
+				pendientes.push(nodo.getRightBST());
+				niveles.push(nivel + 1);
+			}
+		}
+		return rx;
+	}
+	
+	public int getHeight(int cont) {
+		if(this.father == null) {
+			return cont;
+		} else {
+			return this.father.getHeight(++cont);
+		}
+	}
+
+	/**
+	 * Devuelve el nodo con el menor elemento de este (sub-)arbol,
+	 * o null si es vacio.
+	 */
+	public BinarySearchTreeImpl<T> firstNode() {
+		if (this.isEmpty()) {
+			return null;
+		}
+		BinarySearchTreeImpl<T> nodo = this;
+		while (!nodo.getLeftBST().isEmpty()) {
+			nodo = nodo.getLeftBST();
+		}
+		return nodo;
+	}
+
+	/**
+	 * Devuelve el nodo con el mayor elemento de este (sub-)arbol,
+	 * o null si es vacio.
+	 */
+	public BinarySearchTreeImpl<T> lastNode() {
+		if (this.isEmpty()) {
+			return null;
+		}
+		BinarySearchTreeImpl<T> nodo = this;
+		while (!nodo.getRightBST().isEmpty()) {
+			nodo = nodo.getRightBST();
+		}
+		return nodo;
+	}
+
+	/**
+	 * Devuelve el nodo siguiente a este en el recorrido inorden del arbol
+	 * completo, o null si este nodo contiene el mayor elemento.
+	 *
+	 * No usa pila: si hay sub-arbol derecho baja a su minimo, y si no sube
+	 * por father mientras se venga de un hijo derecho. Recorrer k nodos
+	 * consecutivos cuesta O(k) amortizado.
+	 *
+	 * Por ejemplo, con el arbol
+	 *
+	 * {10, {5, {2, ∅, ∅}, ∅}, {20, {15, ∅, ∅}, {30, ∅, ∅}}}
+	 *
+	 * el sucesor del nodo 5 es el 10 y el del 15 es el 20.
+	 *
+	 * @return nodo sucesor en inorden, null si no existe
+	 * @throws NoSuchElementException si este nodo es vacio
+	 */
+	public BinarySearchTreeImpl<T> successor() {
+		if (this.isEmpty())
+			throw new NoSuchElementException();
+
+		if (!this.getRightBST().isEmpty()) {
+			return this.getRightBST().firstNode();
+		}
+		BinarySearchTreeImpl<T> nodo = this;
+		while (nodo.father != null && nodo.father.rightSubtree == nodo) {
+			nodo = nodo.father;
+		}
+		return nodo.father;
+	}
+
+	/**
+	 * Devuelve el nodo anterior a este en el recorrido inorden del arbol
+	 * completo, o null si este nodo contiene el menor elemento.
+	 *
+	 * Es simetrico a {@link #successor()}.
+	 *
+	 * @return nodo predecesor en inorden, null si no existe
+	 * @throws NoSuchElementException si este nodo es vacio
+	 */
+	public BinarySearchTreeImpl<T> predecessor() {
+		if (this.isEmpty())
+			throw new NoSuchElementException();
+
+		if (!this.getLeftBST().isEmpty()) {
+			return this.getLeftBST().lastNode();
+		}
+		BinarySearchTreeImpl<T> nodo = this;
+		while (nodo.father != null && nodo.father.leftSubtree == nodo) {
+			nodo = nodo.father;
+		}
+		return nodo.father;
+	}
+
+	/**
+	 * Devuelve el nodo con el menor elemento mayor o igual que elem,
+	 * o null si no existe. Hace un unico descenso desde este nodo.
+	 *
+	 * @throws IllegalArgumentException si elem es null
+	 */
+	public BinarySearchTreeImpl<T> ceilingNode(T elem) {
+		if (elem == null)
+			throw new IllegalArgumentException();
+
+		BinarySearchTreeImpl<T> nodo = this;
+		BinarySearchTreeImpl<T> candidato = null;
+		while (!nodo.isEmpty()) {
+			int cmp = nodo.content.compareTo(elem);
+			if (cmp == 0) {
+				return nodo;
+			} else if (cmp > 0) {
+				candidato = nodo;
+				nodo = nodo.getLeftBST();
+			} else {
+				nodo = nodo.getRightBST();
+			}
+		}
+		return candidato;
+	}
+
+	/**
+	 * Devuelve un cursor inorden situado en el menor elemento del arbol.
+	 *
+	 * @return cursor (no valido si el arbol es vacio)
+	 */
+	public InorderCursor<T> cursor() {
+		return new InorderCursor<T>(this.firstNode());
+	}
+
+	/**
+	 * Devuelve un cursor inorden situado en el menor elemento mayor o igual
+	 * que elem. Con un solo descenso se pueden recorrer despues los vecinos
+	 * de elem en ambos sentidos sin volver a la raiz.
+	 *
+	 * Por ejemplo, con el arbol
+	 *
+	 * {10, {5, {2, ∅, ∅}, ∅}, {20, {15, ∅, ∅}, {30, ∅, ∅}}}
+	 *
+	 * cursor(12) queda situado en el 15; moviendolo hacia delante pasa por
+	 * 20 y 30, y hacia atras por 10, 5 y 2.
+	 *
+	 * @return cursor (no valido si no hay elementos mayores o iguales)
+	 * @throws IllegalArgumentException si elem es null
+	 */
+	public InorderCursor<T> cursor(T elem) {
+		return new InorderCursor<T>(this.ceilingNode(elem));
+	}
+
 }
 	
 	
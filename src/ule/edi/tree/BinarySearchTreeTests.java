@@ -1,10 +1,15 @@
 package ule.edi.tree;
 
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -107,6 +112,27 @@ public class BinarySearchTreeTests {
 	}
 	
 		
+	@Test
+	public void testRemoveRaiz1Hijo() {
+		other.remove(20, 15, 12);
+		Assert.assertEquals("{10, {5, {2, ∅, ∅}, ∅}, ∅}", other.toString());
+		other.remove(10);
+		Assert.assertEquals("{5, {2, ∅, ∅}, ∅}", other.toString());
+		Assert.assertEquals("L", other.getPath(2));
+		other.remove(5);
+		other.remove(2);
+		Assert.assertEquals("∅", other.toString());
+	}
+	
+	@Test
+	public void testRemove2HijosSucesorConInstancias() {
+		ejemplo.insert(15, 15);
+		ejemplo.remove(10);
+		Assert.assertEquals("{15(3), {5, {2, ∅, ∅}, ∅}, {20, ∅, {30, ∅, ∅}}}", ejemplo.toString());
+		Assert.assertEquals(3, ejemplo.removeAll(15));
+		Assert.assertEquals("{20, {5, {2, ∅, ∅}, ∅}, {30, ∅, ∅}}", ejemplo.toString());
+	}
+	
 	@Test
 	public void testTagHeightLeafEjemplo() {
 			other.tagHeightLeaf();
@@ -216,6 +242,953 @@ public class BinarySearchTreeTests {
 		Assert.assertEquals(4,ejemplo2.tagOnlySonPreorder());
 		Assert.assertEquals(ejemplo2.toString(), "{30, {10 [(onlySon, 2)], {5, {2 [(onlySon, 4)], ∅, ∅}, ∅}, {20, {15 [(onlySon, 6)], {12 [(onlySon, 7)], ∅, ∅}, ∅}, ∅}}, ∅}");
 	}
-}
 
+	// successor / predecessor / cursor
+	
+	@Test
+	public void testSuccessorPredecessor() {
+		Assert.assertEquals(10, ejemplo.getElem(5).successor().getContent().intValue());
+		Assert.assertEquals(20, ejemplo.getElem(15).successor().getContent().intValue());
+		Assert.assertEquals(15, ejemplo.getElem(20).predecessor().getContent().intValue());
+		Assert.assertEquals(null, ejemplo.getElem(30).successor());
+		Assert.assertEquals(null, ejemplo.getElem(2).predecessor());
+	}
+	
+	@Test
+	public void testCursor() {
+		InorderCursor<Integer> c = ejemplo.cursor(12);
+		Assert.assertEquals(15, c.get().intValue());
+		StringBuffer rx = new StringBuffer();
+		while (c.movePrevious()) {
+			rx.append(c.get() + " ");
+		}
+		Assert.assertEquals("10 5 2 ", rx.toString());
+		
+		c = ejemplo.cursor();
+		rx = new StringBuffer();
+		do {
+			rx.append(c.get() + " ");
+		} while (c.moveNext());
+		Assert.assertEquals("2 5 10 15 20 30 ", rx.toString());
+		Assert.assertFalse(ejemplo.cursor(31).isValid());
+	}
 
+	@Test
+	public void testFindRoadUpRightSinEtiquetas() {
+		Assert.assertEquals(30, ejemplo.findRoadUpRight(2, 2, 2).intValue());
+		Assert.assertEquals("{10, {5, {2, ∅, ∅}, ∅}, {20, {15, ∅, ∅}, {30, ∅, ∅}}}", ejemplo.toString());
+	}
+	
+	@Test
+	public void testFindRoadUpRightLote() {
+		Integer[] elems = {15, 2, 99, 30, null};
+		int[] ups = {1, 2, 0, 3, 0};
+		int[] rights = {1, 2, 0, 0, 0};
+		Assert.assertEquals("[30, 30, null, null, null]", ejemplo.findRoadUpRight(elems, ups, rights).toString());
+	}
+	
+	@Test(expected = NoSuchElementException.class)
+	public void testFindRoadUpRightNoSuch() {
+		ejemplo.findRoadUpRight(15, 0, 1);
+	}
+
+	// operaciones en bloque
+	
+	@Test
+	public void testInsertBatch() {
+		Assert.assertEquals(7, ejemplo.insertBatch(20, 1, null, 3, 20, 25, 40, 35));
+		Assert.assertEquals("{10, {5, {2, {1, ∅, ∅}, {3, ∅, ∅}}, ∅}, {20(3), {15, ∅, ∅}, {30, {25, ∅, ∅}, {40, {35, ∅, ∅}, ∅}}}}", ejemplo.toString());
+		
+		BinarySearchTreeImpl<Integer> vacio = new BinarySearchTreeImpl<Integer>();
+		vacio.insertBatch(1, 2, 3, 4, 5, 6, 7);
+		Assert.assertEquals("{4, {2, {1, ∅, ∅}, {3, ∅, ∅}}, {6, {5, ∅, ∅}, {7, ∅, ∅}}}", vacio.toString());
+	}
+	
+	@Test
+	public void testRemoveBatch() {
+		ejemplo.insert(20);
+		Assert.assertEquals(5, ejemplo.removeBatch(20, 20, 20, 10, 2, 99, null, 15));
+		Assert.assertEquals("{30, {5, ∅, ∅}, ∅}", ejemplo.toString());
+		Assert.assertEquals(2, ejemplo.removeBatch(5, 30));
+		Assert.assertEquals("∅", ejemplo.toString());
+	}
+	
+	@Test
+	public void testContainsAll() {
+		Assert.assertEquals("{0, 2, 3, 6}", ejemplo.containsAll(2, 4, 30, 2, null, 31, 10).toString());
+	}
+
+	// operaciones de multiconjuntos
+	
+	@Test
+	public void testOperacionesMulticonjunto() {
+		ejemplo.insert(20, 20);
+		other.insert(5, 12);
+		// ejemplo: 2 5 10 15 20(3) 30   other: 2 5(2) 10 12(2) 15 20
+		Assert.assertEquals("{12(2), {5(2), {2, ∅, ∅}, {10, ∅, ∅}}, {20(3), {15, ∅, ∅}, {30, ∅, ∅}}}", ejemplo.union(other).toString());
+		Assert.assertEquals("{10, {5, {2, ∅, ∅}, ∅}, {20, {15, ∅, ∅}, ∅}}", ejemplo.intersection(other).toString());
+		Assert.assertEquals("{30, {20(2), ∅, ∅}, ∅}", ejemplo.difference(other).toString());
+		Assert.assertEquals("{12(2), {5(3), {2(2), ∅, ∅}, {10(2), ∅, ∅}}, {20(4), {15(2), ∅, ∅}, {30, ∅, ∅}}}", ejemplo.merge(other).toString());
+		Assert.assertEquals("{10, {5, {2, ∅, ∅}, ∅}, {20(3), {15, ∅, ∅}, {30, ∅, ∅}}}", ejemplo.toString());
+	}
+	
+	@Test
+	public void testOperacionesMulticonjuntoParalelo() {
+		BinarySearchTreeImpl<Integer> pares = new BinarySearchTreeImpl<Integer>();
+		BinarySearchTreeImpl<Integer> tercios = new BinarySearchTreeImpl<Integer>();
+		List<Integer> lp = new LinkedList<Integer>();
+		List<Integer> lt = new LinkedList<Integer>();
+		for (int i = 0; i < 30000; i++) {
+			lp.add(2 * i);
+			lt.add(3 * i);
+		}
+		pares.insertBatch(lp);
+		tercios.insertBatch(lt);
+		Assert.assertEquals(tercios.intersection(pares).toString(), tercios.combine(pares, MultisetOperation.INTERSECTION, true).toString());
+		Assert.assertEquals(10000, pares.combine(tercios, MultisetOperation.INTERSECTION, true).size());
+		Assert.assertEquals(50000, pares.combine(tercios, MultisetOperation.UNION, true).size());
+	}
+
+	// metricas
+	
+	@Test
+	public void testMetricas() {
+		Assert.assertEquals(null, ejemplo.getMetrics());
+		TreeMetrics m = ejemplo.enableMetrics();
+		ejemplo.contains(15);
+		ejemplo.contains(16);
+		ejemplo.insert(40);
+		ejemplo.remove(5);
+		Assert.assertEquals(2, m.getContainsCount());
+		Assert.assertEquals(1, m.getInsertCount());
+		Assert.assertEquals(1, m.getRemoveCount());
+		Assert.assertEquals(3 + 3 + 3 + 2, m.getComparisons());
+		Assert.assertEquals(1, m.getNodesCreated());
+		Assert.assertEquals(2, m.getSentinelsAllocated());
+		Assert.assertEquals(1, m.getDepthHistogram(TreeMetrics.Operation.CONTAINS)[2]);
+		Assert.assertEquals(1, m.getDepthHistogram(TreeMetrics.Operation.CONTAINS)[3]);
+		Assert.assertEquals(4, m.getHeight());
+		Assert.assertEquals(-2, m.getBalanceFactor());
+		Assert.assertEquals(3, m.snapshot().get("insert.depth.max"));
+	}
+
+	// equilibrado
+	
+	@Test
+	public void testRebalance() {
+		ejemplo.insert(30, 30);
+		ejemplo.getElem(15).setTag("marca", 1);
+		ejemplo.rebalance();
+		Assert.assertEquals("{15 [(marca, 1)], {5, {2, ∅, ∅}, {10, ∅, ∅}}, {30(3), {20, ∅, ∅}, ∅}}", ejemplo.toString());
+		Assert.assertEquals("RL", ejemplo.getPath(20));
+		Assert.assertEquals(ejemplo, ejemplo.getElem(30).father);
+	}
+	
+	@Test
+	public void testEnableRebalancing() {
+		BinarySearchTreeImpl<Integer> degenerado = new BinarySearchTreeImpl<Integer>();
+		degenerado.enableRebalancing(2.0);
+		for (int i = 0; i < 5000; i++) {
+			degenerado.insert(i);
+			Assert.assertTrue(degenerado.height() <= 2.0 * Math.log(i + 2) / Math.log(2));
+		}
+		Assert.assertEquals(5000, degenerado.size());
+		for (int i = 0; i < 4900; i++) {
+			degenerado.remove(i);
+		}
+		Assert.assertTrue(degenerado.height() <= 2.0 * Math.log(101) / Math.log(2));
+		Assert.assertEquals(100, degenerado.size());
+	}
+	
+	@Test
+	public void testEnableRebalancingInsertBatch() {
+		BinarySearchTreeImpl<Integer> arbol = new BinarySearchTreeImpl<Integer>();
+		arbol.enableRebalancing(2.0);
+		TreeMetrics metricas = arbol.enableMetrics();
+		for (int i = 0; i < 2000; i++) {
+			// dos elementos mayores que todos alargan siempre la rama derecha
+			arbol.insertBatch(2 * i, 2 * i + 1);
+			Assert.assertTrue(arbol.height() <= 2.0 * Math.log(2 * i + 3) / Math.log(2));
+		}
+		Assert.assertEquals(4000, arbol.size());
+		// solo se reconstruye el sub-arbol del chivo expiatorio: O(n log n) en
+		// total, no el arbol entero cada pocas inserciones
+		Assert.assertTrue(metricas.getRebuiltNodes() < 4000 * 12);
+	}
+
+	// freeze
+	
+	@Test
+	public void testFreeze() {
+		ejemplo.insert(20, 20, 2);
+		FrozenSearchTree<Integer> f = ejemplo.freeze();
+		Assert.assertEquals(6, f.size());
+		Assert.assertEquals(9, f.instancesCount());
+		Assert.assertEquals(3, f.getCount(20));
+		Assert.assertEquals(0, f.getCount(21));
+		Assert.assertTrue(f.contains(15));
+		Assert.assertFalse(f.contains(1));
+		// 2(2) 5 10 15 20(3) 30 en forma equilibrada: {15, {5, {2}, {10}}, {30, {20}, ∅}}
+		Assert.assertEquals("", f.getPath(15));
+		Assert.assertEquals("LL", f.getPath(2));
+		Assert.assertEquals("RL", f.getPath(20));
+		Assert.assertEquals(3, f.rank(15));
+		Assert.assertEquals(3, f.rank(11));
+		Assert.assertEquals(6, f.rank(31));
+		Assert.assertEquals(4, f.instancesRank(11));
+		Assert.assertEquals(20, f.select(4).intValue());
+		StringBuffer rx = new StringBuffer();
+		for (Integer x : f) {
+			rx.append(x + " ");
+		}
+		Assert.assertEquals("2 5 10 15 20 30 ", rx.toString());
+	}
+	
+	@Test
+	public void testFreezeIterador() {
+		BinarySearchTreeImpl<Integer> arbol = new BinarySearchTreeImpl<Integer>();
+		for (int n = 0; n < 40; n++) {
+			FrozenSearchTree<Integer> f = arbol.freeze();
+			int esperado = 0;
+			for (Integer x : f) {
+				Assert.assertEquals(esperado, x.intValue());
+				esperado++;
+			}
+			Assert.assertEquals(n, esperado);
+			arbol.insert(n);
+		}
+	}
+	
+	@Test(expected = NoSuchElementException.class)
+	public void testFreezeGetPathNoSuch() {
+		ejemplo.freeze().getPath(7);
+	}
+
+	// cache de busquedas
+	
+	@Test
+	public void testLookupCache() {
+		LookupCache<Integer> cache = ejemplo.enableLookupCache(2);
+		Assert.assertTrue(ejemplo.contains(30));
+		Assert.assertTrue(ejemplo.contains(30));
+		Assert.assertEquals(ejemplo.getElem(30), ejemplo.getRightBST().getRightBST());
+		Assert.assertEquals(2, cache.getHits());
+		Assert.assertEquals(1, cache.getMisses());
+		// 15 y 2 compiten por el segundo hueco; 30 es el mas usado y se queda
+		ejemplo.contains(15);
+		ejemplo.contains(2);
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(1, cache.getEvictions());
+		ejemplo.contains(30);
+		Assert.assertEquals(3, cache.getHits());
+		Assert.assertFalse(ejemplo.contains(7));
+		Assert.assertEquals(3.0 / 7, cache.getHitRate(), 1e-9);
+	}
+	
+	@Test
+	public void testLookupCacheEnvejecimiento() {
+		LookupCache<Integer> cache = ejemplo.enableLookupCache(2);
+		for (int i = 0; i < 19; i++) {
+			ejemplo.contains(30);
+		}
+		// 15 y 2 pasan a ser los mas buscados; sin envejecer, 30 seguiria
+		// ocupando un hueco y ellos se expulsarian uno a otro en cada acceso
+		for (int i = 0; i < 100; i++) {
+			ejemplo.contains(15);
+			ejemplo.contains(2);
+		}
+		cache.resetStats();
+		for (int i = 0; i < 10; i++) {
+			ejemplo.contains(15);
+			ejemplo.contains(2);
+		}
+		Assert.assertEquals(20, cache.getHits());
+		Assert.assertEquals(0, cache.getMisses());
+		Assert.assertEquals(2, cache.size());
+	}
+	
+	@Test
+	public void testLookupCacheInvalidacion() {
+		ejemplo.enableLookupCache(10);
+		ejemplo.contains(20);
+		ejemplo.contains(30);
+		ejemplo.contains(5);
+		// 20 tiene dos hijos: toma el contenido de 30, cuyo nodo desaparece
+		ejemplo.remove(20);
+		Assert.assertFalse(ejemplo.contains(20));
+		Assert.assertEquals(ejemplo.getRightBST(), ejemplo.getElem(30));
+		ejemplo.removeAll(10);
+		ejemplo.remove(30, 1);
+		Assert.assertEquals("{15, {5, {2, ∅, ∅}, ∅}, ∅}", ejemplo.toString());
+		// la raiz con un unico hijo toma el contenido de 5
+		ejemplo.remove(15);
+		Assert.assertEquals("{5, {2, ∅, ∅}, ∅}", ejemplo.toString());
+		Assert.assertEquals(ejemplo, ejemplo.getElem(5));
+		Assert.assertTrue(ejemplo.contains(2));
+		ejemplo.getLeftBST().remove(2);
+		Assert.assertFalse(ejemplo.contains(2));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testLookupCacheCapacidad() {
+		ejemplo.enableLookupCache(0);
+	}
+
+	// busqueda por dedo
+	
+	@Test
+	public void testFingerSearch() {
+		BinarySearchTreeImpl<Integer> grande = new BinarySearchTreeImpl<Integer>();
+		List<Integer> elementos = new LinkedList<Integer>();
+		for (int i = 0; i < 1023; i++) {
+			elementos.add(i);
+		}
+		grande.insertBatch(elementos);
+		grande.enableFingerSearch(false);
+		TreeMetrics metricas = grande.enableMetrics();
+		for (int i = 0; i < 1023; i++) {
+			Assert.assertTrue(grande.contains(i));
+		}
+		// desde la raiz serian 9 comparaciones de media
+		Assert.assertTrue(metricas.getComparisonsPerOperation() < 5);
+		Assert.assertFalse(grande.contains(2000));
+		Assert.assertFalse(grande.insert(1022));
+		Assert.assertTrue(grande.insert(1023));
+		Assert.assertEquals(1023, grande.lastNode().getContent().intValue());
+	}
+	
+	@Test
+	public void testFingerSearchTrasBorrar() {
+		ejemplo.enableFingerSearch(true);
+		Assert.assertTrue(ejemplo.contains(30));
+		ejemplo.remove(20);
+		Assert.assertTrue(ejemplo.contains(15));
+		Assert.assertFalse(ejemplo.contains(20));
+		ejemplo.insert(25);
+		Assert.assertEquals("{10, {5, {2, ∅, ∅}, ∅}, {30, {15, ∅, {25, ∅, ∅}}, ∅}}", ejemplo.toString());
+		ejemplo.disableFingerSearch();
+		Assert.assertEquals("RLR", ejemplo.getPath(25));
+	}
+
+	// modo autoajustable
+	
+	@Test
+	public void testSplay() {
+		ejemplo.insert(15);
+		ejemplo.enableSplaying();
+		Assert.assertTrue(ejemplo.contains(15));
+		// zig-zag desde 15 y la raiz sigue siendo el mismo nodo
+		Assert.assertEquals("{15(2), {10, {5, {2, ∅, ∅}, ∅}, ∅}, {20, ∅, {30, ∅, ∅}}}", ejemplo.toString());
+		Assert.assertEquals(ejemplo, ejemplo.getElem(15));
+		// dos zig-zig desde el nuevo nodo
+		Assert.assertTrue(ejemplo.insert(1));
+		Assert.assertEquals("{1, ∅, {10, {2, ∅, {5, ∅, ∅}}, {15(2), ∅, {20, ∅, {30, ∅, ∅}}}}}", ejemplo.toString());
+		Assert.assertEquals(ejemplo, ejemplo.getLeftBST().father);
+		Assert.assertEquals(ejemplo.getRightBST(), ejemplo.getRightBST().getRightBST().father);
+		// una busqueda fallida sube el ultimo nodo visitado
+		Assert.assertFalse(ejemplo.contains(3));
+		Assert.assertEquals(5, ejemplo.getContent().intValue());
+		Assert.assertEquals(7, ejemplo.size());
+		Assert.assertEquals(8, ejemplo.instancesCount());
+	}
+
+	// render por lineas
+	
+	@Test
+	public void testRenderLimites() throws IOException {
+		StringWriter out = new StringWriter();
+		ejemplo.render(out, 1, 100);
+		Assert.assertEquals("10\n|  5\n|  |  ...\n|  20\n|  |  ...\n", out.toString());
+		out = new StringWriter();
+		ejemplo.render(out, 100, 2);
+		Assert.assertEquals("10\n|  5\n|  |  ...\n", out.toString());
+		out = new StringWriter();
+		ejemplo.render(out, Integer.MAX_VALUE, Integer.MAX_VALUE);
+		Assert.assertEquals(ejemplo.render(), out.toString());
+	}
+	
+	@Test
+	public void testRenderLines() {
+		Iterator<String> it = ejemplo.renderLines();
+		Assert.assertEquals("10", it.next());
+		Assert.assertEquals("|  5", it.next());
+		Assert.assertEquals("|  |  2", it.next());
+		Assert.assertEquals("|  |  |  ∅", it.next());
+		int resto = 0;
+		while (it.hasNext()) {
+			it.next();
+			resto++;
+		}
+		Assert.assertEquals(9, resto);
+	}
+	
+	@Test
+	public void testRenderDegenerado() {
+		BinarySearchTreeImpl<Integer> degenerado = new BinarySearchTreeImpl<Integer>();
+		for (int i = 0; i < 3000; i++) {
+			degenerado.insert(i);
+		}
+		// cada nodo muestra su hijo izquierdo vacio; el ultimo, dos
+		String[] lineas = degenerado.render().split("\n");
+		Assert.assertEquals(2 * 3000 + 1, lineas.length);
+		Assert.assertEquals(3 * 2999 + "2999".length(), lineas[2 * 3000 - 2].length());
+		Iterator<String> it = degenerado.renderLines(3, 10);
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		// 4 nodos, 3 vacios y la elision bajo el nodo del nivel 3
+		Assert.assertEquals(8, n);
+	}
+
+	// filterTags
+	
+	@Test
+	public void testFilterTagsDescartaMapas() {
+		ejemplo.tagHeightLeaf();
+		ejemplo.setTag("raiz", true);
+		ejemplo.getElem(20).setTag("raiz", false);
+		ejemplo.filterTags("raiz", "otra");
+		Assert.assertEquals("{10 [(raiz, true)], {5, {2, ∅, ∅}, ∅}, {20 [(raiz, false)], {15, ∅, ∅}, {30, ∅, ∅}}}", ejemplo.toString());
+		Assert.assertNull(ejemplo.getElem(30).tags);
+		Assert.assertNull(ejemplo.getElem(30).getTag("height"));
+		Assert.assertTrue(ejemplo.getElem(30).getTags().isEmpty());
+	}
+	
+	@Test
+	public void testFilterTagsDegenerado() {
+		// cadena de 20000 nodos a la derecha, insertando cada uno en el
+		// hueco del anterior para no recorrerla entera en cada paso
+		BinarySearchTreeImpl<Integer> degenerado = new BinarySearchTreeImpl<Integer>();
+		BinarySearchTreeImpl<Integer> ultimo = degenerado;
+		for (int i = 0; i < 20000; i++) {
+			ultimo.insert(i);
+			if (i > 0) {
+				ultimo = ultimo.getRightBST();
+			}
+		}
+		Assert.assertSame(ultimo, degenerado.lastNode());
+		ultimo.setTag("a", 1);
+		ultimo.setTag("b", 2);
+		degenerado.filterTags("b");
+		Assert.assertNull(degenerado.lastNode().getTag("a"));
+		Assert.assertEquals(2, degenerado.lastNode().getTag("b"));
+	}
+	
+	// etiquetas con tipo
+	
+	@Test
+	public void testTagKeyInt() {
+		IntTagKey peso = IntTagKey.of("peso");
+		Assert.assertSame(peso, IntTagKey.of("peso"));
+		ejemplo.setTag(peso, 7);
+		Assert.assertEquals(7, ejemplo.getTag(peso, -1));
+		Assert.assertEquals(-1, ejemplo.getElem(20).getTag(peso, -1));
+		// se ve tambien por su nombre, sin crear el mapa del nodo
+		Assert.assertEquals(7, ejemplo.getTag("peso"));
+		Assert.assertNull(ejemplo.tags);
+		Assert.assertEquals("{10 [(peso, 7)], {5, {2, ∅, ∅}, ∅}, {20, {15, ∅, ∅}, {30, ∅, ∅}}}", ejemplo.toString());
+		
+		// por nombre con el tipo de la clave va a su posicion; con otro tipo, al mapa
+		ejemplo.setTag("peso", 8);
+		Assert.assertEquals(8, ejemplo.getTag(peso, -1));
+		Assert.assertNull(ejemplo.tags);
+		ejemplo.setTag("peso", "mucho");
+		Assert.assertEquals(-1, ejemplo.getTag(peso, -1));
+		Assert.assertEquals("mucho", ejemplo.getTag("peso"));
+		
+		ejemplo.removeTag(peso);
+		Assert.assertNull(ejemplo.getTag("peso"));
+	}
+	
+	@Test
+	public void testTagKeyLongYObjeto() {
+		LongTagKey marca = LongTagKey.of("marca");
+		TagKey<String> nombre = TagKey.of("nombre", String.class);
+		ejemplo.getElem(5).setTag(marca, 1L << 40);
+		ejemplo.getElem(5).setTag(nombre, "cinco");
+		Assert.assertEquals(1L << 40, ejemplo.getElem(5).getTag(marca, 0));
+		Assert.assertEquals(Long.valueOf(1L << 40), ejemplo.getElem(5).getTag(marca));
+		Assert.assertEquals("cinco", ejemplo.getElem(5).getTag(nombre));
+		
+		// getTags() pasa las primitivas al mapa
+		Map<String, Object> tags = ejemplo.getElem(5).getTags();
+		Assert.assertEquals(1L << 40, tags.get("marca"));
+		Assert.assertEquals("cinco", tags.get("nombre"));
+		Assert.assertEquals(1L << 40, ejemplo.getElem(5).getTag(marca, 0));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testTagKeyOtroTipo() {
+		IntTagKey.of("conflicto");
+		LongTagKey.of("conflicto");
+	}
+	
+	@Test
+	public void testTagKeyArbol() {
+		ejemplo.tagHeightLeaf();
+		Assert.assertEquals(3, ejemplo.getElem(2).getTag(BinarySearchTreeImpl.TAG_HEIGHT, 0));
+		Assert.assertEquals(3, ejemplo.getElem(2).getTag("height"));
+		Assert.assertNull(ejemplo.getElem(2).tags);
+		
+		ejemplo.setTag("otra", 1);
+		ejemplo.filterTags("otra");
+		Assert.assertEquals(0, ejemplo.getElem(2).getTag(BinarySearchTreeImpl.TAG_HEIGHT, 0));
+		Assert.assertNull(ejemplo.getElem(2).slots);
+		Assert.assertEquals(1, ejemplo.getTag("otra"));
+	}
+	
+	@Test
+	public void testRemoveDosHijosMueveEtiquetas() {
+		LongTagKey marca = LongTagKey.of("marca");
+		ejemplo.setTag("nombre", "diez");
+		ejemplo.getElem(15).setTag("nombre", "quince");
+		ejemplo.getElem(15).setTag(marca, 15L);
+		ejemplo.remove(10);
+		// el sucesor sube a la raiz con sus etiquetas y las del borrado se van
+		Assert.assertEquals("{15 [(marca, 15), (nombre, quince)], {5, {2, ∅, ∅}, ∅}, {20, ∅, {30, ∅, ∅}}}", ejemplo.toString());
+		Assert.assertEquals(15L, ejemplo.getTag(marca, 0));
+	}
+	
+	// mantenimiento de etiquetas
+	
+	@Test
+	public void testTagMaintenanceHeight() {
+		ejemplo.enableTagMaintenance(BinarySearchTreeImpl.TAG_HEIGHT);
+		Assert.assertEquals("{10, {5, {2 [(height, 3)], ∅, ∅}, ∅}, {20, {15 [(height, 3)], ∅, ∅}, {30 [(height, 3)], ∅, ∅}}}", ejemplo.toString());
+		ejemplo.insert(1);
+		Assert.assertNull(ejemplo.getElem(2).getTag("height"));
+		Assert.assertEquals(4, ejemplo.getElem(1).getTag(BinarySearchTreeImpl.TAG_HEIGHT, 0));
+		// el sub-arbol de 2 sube un nivel
+		ejemplo.remove(5);
+		Assert.assertEquals("{10, {2, {1 [(height, 3)], ∅, ∅}, ∅}, {20, {15 [(height, 3)], ∅, ∅}, {30 [(height, 3)], ∅, ∅}}}", ejemplo.toString());
+		ejemplo.remove(1);
+		Assert.assertEquals(2, ejemplo.getElem(2).getTag(BinarySearchTreeImpl.TAG_HEIGHT, 0));
+		// solo cambia count
+		ejemplo.insert(30);
+		Assert.assertEquals("{10, {2 [(height, 2)], ∅, ∅}, {20, {15 [(height, 3)], ∅, ∅}, {30(2) [(height, 3)], ∅, ∅}}}", ejemplo.toString());
+		// el sucesor era hoja y pasa a un nodo con hijos
+		ejemplo.remove(10);
+		Assert.assertEquals("{15, {2 [(height, 2)], ∅, ∅}, {20, ∅, {30(2) [(height, 3)], ∅, ∅}}}", ejemplo.toString());
+	}
+	
+	@Test
+	public void testTagMaintenancePendientes() {
+		ejemplo.enableTagMaintenance();
+		ejemplo.insert(12);
+		ejemplo.remove(20);
+		ejemplo.insertBatch(40, 1);
+		
+		BinarySearchTreeImpl<Integer> esperado = new BinarySearchTreeImpl<Integer>();
+		esperado.insert(10, 30, 5, 2, 15, 12, 40, 1);
+		esperado.tagHeightLeaf();
+		esperado.tagPosDescend();
+		esperado.tagInternalInorder();
+		esperado.tagOnlySonPreorder();
+		Assert.assertEquals(esperado.toString(), ejemplo.toString());
+		Assert.assertEquals(esperado.render(), ejemplo.render());
+	}
+	
+	@Test
+	public void testTagMaintenanceIncremental() {
+		Random random = new Random(7);
+		BinarySearchTreeImpl<Integer> arbol = new BinarySearchTreeImpl<Integer>();
+		arbol.enableTagMaintenance();
+		for (int i = 0; i < 400; i++) {
+			int x = random.nextInt(60);
+			if (i == 200) {
+				// la segunda mitad con rotaciones
+				arbol.enableSplaying();
+			}
+			if (!arbol.contains(x)) {
+				arbol.insert(x);
+			} else if (random.nextBoolean()) {
+				arbol.remove(x);
+			}
+			if (i % 3 == 0) {
+				// varias modificaciones pueden quedar pendientes a la vez
+				BinarySearchTreeImpl<Integer> esperado = arbol.copy();
+				esperado.tagHeightLeaf();
+				esperado.tagPosDescend();
+				esperado.tagInternalInorder();
+				esperado.tagOnlySonPreorder();
+				Assert.assertEquals(esperado.toString(), arbol.toString());
+			}
+		}
+	}
+	
+	@Test
+	public void testTagMaintenancePorArbol() {
+		BinarySearchTreeImpl<Integer> otro = new BinarySearchTreeImpl<Integer>();
+		otro.insert(2, 1, 3);
+		otro.enableTagMaintenance(BinarySearchTreeImpl.TAG_DESCEND);
+		ejemplo.tagPosDescend();
+		ejemplo.insert(1);
+		// ejemplo no mantiene sus etiquetas aunque otro arbol si lo haga
+		Assert.assertNull(ejemplo.getElem(1).getTag("descend"));
+		Assert.assertEquals(6, ejemplo.getElem(2).getTag(BinarySearchTreeImpl.TAG_DESCEND, 0));
+		otro.insert(0);
+		// leer un nodo que no es la raiz no sube a recalcular las pendientes
+		Assert.assertEquals(0, otro.getElem(0).getTag(BinarySearchTreeImpl.TAG_DESCEND, 0));
+		otro.refreshTags();
+		Assert.assertEquals(4, otro.getElem(0).getTag(BinarySearchTreeImpl.TAG_DESCEND, 0));
+		Assert.assertEquals(1, otro.getElem(3).getTag(BinarySearchTreeImpl.TAG_DESCEND, 0));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testTagMaintenanceClaveNoValida() {
+		ejemplo.enableTagMaintenance(BinarySearchTreeImpl.TAG_ROAD);
+	}
+	
+	// oyentes de modificaciones
+	
+	@Test
+	public void testTreeListener() {
+		final List<String> eventos = new LinkedList<String>();
+		TreeListener<Integer> oyente = new TreeListener<Integer>() {
+			@Override
+			public void treeChanged(TreeEvent<Integer> event) {
+				eventos.add(event.toString());
+			}
+		};
+		ejemplo.addTreeListener(oyente);
+		ejemplo.insert(12);
+		ejemplo.insert(12);
+		ejemplo.remove(12);
+		ejemplo.removeAll(12);
+		// con dos hijos: el sucesor 30 ocupa el nodo de 20
+		ejemplo.remove(20);
+		ejemplo.insertBatch(30, 40);
+		ejemplo.rebalance();
+		Assert.assertEquals("[1 INSERT 12 0->1 \"RLL\", 2 COUNT 12 1->2 \"RLL\", 3 COUNT 12 2->1 \"RLL\", "
+				+ "4 REMOVE 12 1->0 \"RLL\", 5 REMOVE 20 1->0 \"R\", 6 COUNT 30 1->2 \"R\", "
+				+ "7 INSERT 40 0->1 \"RR\", 8 RESHAPE \"\"]", eventos.toString());
+		
+		Assert.assertTrue(ejemplo.removeTreeListener(oyente));
+		Assert.assertFalse(ejemplo.removeTreeListener(oyente));
+		ejemplo.insert(1);
+		Assert.assertEquals(8, eventos.size());
+	}
+	
+	@Test
+	public void testTreeListenerSplay() {
+		RingBufferListener<Integer> cola = new RingBufferListener<Integer>(16);
+		ejemplo.enableSplaying();
+		ejemplo.addTreeListener(cola);
+		// una consulta que rota notifica el cambio de forma
+		Assert.assertTrue(ejemplo.contains(15));
+		TreeEvent<Integer> e = cola.poll();
+		Assert.assertEquals(TreeEvent.Type.RESHAPE, e.getType());
+		Assert.assertEquals("", e.getPath());
+		// la raiz no rota
+		Assert.assertTrue(ejemplo.contains(15));
+		Assert.assertNull(cola.poll());
+		// la insercion se notifica con su camino antes de subir
+		ejemplo.insert(12);
+		Assert.assertEquals(TreeEvent.Type.INSERT, cola.poll().getType());
+		Assert.assertEquals(TreeEvent.Type.RESHAPE, cola.poll().getType());
+		Assert.assertNull(cola.poll());
+		Assert.assertEquals("{12, {10, {5, {2, ∅, ∅}, ∅}, ∅}, {15, ∅, {20, ∅, {30, ∅, ∅}}}}", ejemplo.toString());
+	}
+	
+	@Test
+	public void testTreeListenerReplica() {
+		RingBufferListener<Integer> cola = new RingBufferListener<Integer>(1024);
+		ejemplo.addTreeListener(cola);
+		BinarySearchTreeImpl<Integer> replica = ejemplo.copy();
+		Random random = new Random(3);
+		for (int i = 0; i < 500; i++) {
+			int x = random.nextInt(40);
+			if (random.nextBoolean()) {
+				ejemplo.insert(x);
+			} else if (ejemplo.contains(x)) {
+				ejemplo.remove(x);
+			}
+		}
+		
+		List<TreeEvent<Integer>> lote = new ArrayList<TreeEvent<Integer>>();
+		Assert.assertEquals(cola.size(), cola.drainTo(lote, Integer.MAX_VALUE));
+		for (TreeEvent<Integer> e : lote) {
+			if (e.getType() == TreeEvent.Type.REMOVE) {
+				replica.removeAll(e.getElement());
+			} else if (e.getType() != TreeEvent.Type.RESHAPE) {
+				replica.insert(e.getElement());
+				replica.remove(e.getElement(), replica.getElem(e.getElement()).count - e.getNewCount());
+			}
+		}
+		Assert.assertEquals(0, cola.getDropped());
+		Assert.assertEquals(ejemplo.instancesCount(), replica.instancesCount());
+		for (int x = 0; x < 40; x++) {
+			Assert.assertEquals(ejemplo.contains(x), replica.contains(x));
+		}
+	}
+	
+	@Test
+	public void testTreeListenerCaminoLargo() {
+		BinarySearchTreeImpl<Integer> degenerado = new BinarySearchTreeImpl<Integer>();
+		RingBufferListener<Integer> cola = new RingBufferListener<Integer>(128);
+		degenerado.addTreeListener(cola);
+		for (int i = 0; i < 70; i++) {
+			degenerado.insert(i);
+		}
+		degenerado.remove(68);
+		TreeEvent<Integer> e = null;
+		for (int i = 0; i < 70; i++) {
+			e = cola.poll();
+			Assert.assertEquals(i + 1, e.getSequence());
+			Assert.assertEquals(i, e.getDepth());
+			Assert.assertTrue(e.getPath().matches("R{" + i + "}"));
+		}
+		e = cola.poll();
+		Assert.assertEquals(TreeEvent.Type.REMOVE, e.getType());
+		Assert.assertEquals(68, e.getDepth());
+		Assert.assertTrue(e.getPath().matches("R{68}"));
+		Assert.assertNull(cola.poll());
+	}
+	
+	// elementos mas frecuentes
+	
+	@Test
+	public void testTopK() {
+		BinarySearchTreeImpl<Integer> frecuencias = new BinarySearchTreeImpl<Integer>();
+		frecuencias.insert(50, 30, 30, 10, 40, 40, 40, 40, 80, 80, 60);
+		Assert.assertEquals("[40, 30, 80]", frecuencias.topK(3).toString());
+		Assert.assertEquals("[40, 30, 80, 10, 50, 60]", frecuencias.topK(10).toString());
+		Assert.assertEquals("[40, 30, 80]", frecuencias.withCountAtLeast(2).toString());
+		Assert.assertTrue(frecuencias.topK(0).isEmpty());
+		
+		frecuencias.enableCountIndex();
+		Assert.assertEquals("[40, 30, 80]", frecuencias.topK(3).toString());
+		Assert.assertEquals("[40, 30, 80, 10, 50, 60]", frecuencias.topK(10).toString());
+		frecuencias.insert(60);
+		frecuencias.insert(60);
+		frecuencias.insert(60);
+		frecuencias.remove(40, 2);
+		frecuencias.removeAll(30);
+		frecuencias.insertBatch(10, 10, 90);
+		// {50, {10(3), ∅, {40(2), ∅, ∅}}, {80(2), {60(4), ∅, ∅}, {90, ∅, ∅}}}
+		Assert.assertEquals("[60, 10, 40, 80]", frecuencias.withCountAtLeast(2).toString());
+		Assert.assertEquals("[60, 10]", frecuencias.topK(2).toString());
+		
+		frecuencias.disableCountIndex();
+		Assert.assertEquals("[60, 10, 40, 80]", frecuencias.withCountAtLeast(2).toString());
+		Assert.assertEquals("[60, 10, 40, 80, 50, 90]", frecuencias.topK(6).toString());
+	}
+	
+	@Test
+	public void testTopKIndiceAleatorio() {
+		BinarySearchTreeImpl<Integer> conIndice = new BinarySearchTreeImpl<Integer>();
+		BinarySearchTreeImpl<Integer> sinIndice = new BinarySearchTreeImpl<Integer>();
+		conIndice.enableCountIndex();
+		Random random = new Random(5);
+		for (int i = 0; i < 3000; i++) {
+			int x = random.nextInt(100);
+			int op = random.nextInt(4);
+			if (op < 2) {
+				conIndice.insert(x);
+				sinIndice.insert(x);
+			} else if (conIndice.contains(x)) {
+				if (op == 2) {
+					conIndice.remove(x, 2);
+					sinIndice.remove(x, 2);
+				} else {
+					conIndice.removeBatch(x);
+					sinIndice.removeBatch(x);
+				}
+			}
+		}
+		Assert.assertEquals(sinIndice.topK(20), conIndice.topK(20));
+		Assert.assertEquals(sinIndice.withCountAtLeast(3), conIndice.withCountAtLeast(3));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testTopKNegativo() {
+		ejemplo.topK(-1);
+	}
+	
+	@Test
+	public void testAugmentationSuma() {
+		BinarySearchTreeImpl<Integer> arbol = new BinarySearchTreeImpl<Integer>();
+		arbol.insert(50, 30, 30, 10, 40, 80, 60);
+		TreeAugmentation<Integer, Long> suma = TreeAugmentation.sum(x -> x);
+		Assert.assertEquals(Long.valueOf(150), arbol.aggregate(suma, 30, 60));
+		
+		arbol.enableAugmentation(suma);
+		Assert.assertEquals(Long.valueOf(150), arbol.aggregate(suma, 30, 60));
+		Assert.assertEquals(Long.valueOf(300), arbol.aggregate(suma));
+		Assert.assertEquals(Long.valueOf(0), arbol.aggregate(suma, 41, 50));
+		arbol.remove(30);
+		arbol.removeAll(50);
+		arbol.insert(45);
+		// {60, {30, {10, ∅, ∅}, {40, ∅, {45, ∅, ∅}}}, {80, ∅, ∅}}
+		Assert.assertEquals(Long.valueOf(175), arbol.aggregate(suma, 30, 80));
+		Assert.assertEquals(Long.valueOf(265), arbol.aggregate(suma));
+		
+		TreeAugmentation<Integer, Long> minimo = TreeAugmentation.min(x -> x);
+		arbol.enableAugmentation(minimo);
+		Assert.assertEquals(Long.valueOf(40), arbol.aggregate(minimo, 35, 100));
+		Assert.assertEquals(Long.valueOf(Long.MAX_VALUE), arbol.aggregate(minimo, 90, 100));
+		// sin estar activo se recorre el rango
+		Assert.assertEquals(Long.valueOf(175), arbol.aggregate(suma, 30, 80));
+		arbol.disableAugmentation();
+		Assert.assertEquals(Long.valueOf(40), arbol.aggregate(minimo, 35, 100));
+	}
+	
+	@Test
+	public void testAugmentationAleatorio() {
+		// concatenar no es conmutativo: comprueba tambien el orden
+		TreeAugmentation<Integer, String> lista = new TreeAugmentation<Integer, String>() {
+			@Override
+			public String identity() {
+				return "";
+			}
+
+			@Override
+			public String lift(Integer element, int count) {
+				return element + "x" + count + " ";
+			}
+
+			@Override
+			public String combine(String left, String right) {
+				return left + right;
+			}
+		};
+		TreeAugmentation<Integer, Long> suma = TreeAugmentation.sum(x -> x);
+		for (int modo = 0; modo < 3; modo++) {
+			BinarySearchTreeImpl<Integer> arbol = new BinarySearchTreeImpl<Integer>();
+			arbol.enableAugmentation(lista);
+			if (modo == 1) {
+				arbol.enableRebalancing(1.5);
+			} else if (modo == 2) {
+				arbol.enableSplaying();
+			}
+			Random random = new Random(modo);
+			for (int i = 0; i < 2000; i++) {
+				int x = random.nextInt(200);
+				int op = random.nextInt(5);
+				if (op < 2) {
+					arbol.insert(x);
+				} else if (op == 2) {
+					arbol.insertBatch(x, x + 3, x + 3);
+				} else if (arbol.contains(x)) {
+					if (op == 3) {
+						arbol.remove(x);
+					} else {
+						arbol.removeAll(x);
+					}
+				}
+				int lo = random.nextInt(200);
+				int hi = lo + random.nextInt(60);
+				Assert.assertEquals(scan(arbol, lo, hi), arbol.aggregate(lista, lo, hi));
+			}
+			Assert.assertEquals(scan(arbol, 0, 300), arbol.aggregate(lista));
+			Assert.assertEquals(arbol.aggregate(suma), arbol.aggregate(suma, 0, 300));
+		}
+	}
+	
+	private static String scan(BinarySearchTreeImpl<Integer> arbol, int lo, int hi) {
+		StringBuilder rx = new StringBuilder();
+		for (InorderCursor<Integer> c = arbol.cursor(); c.isValid(); c.moveNext()) {
+			if (c.get() >= lo && c.get() < hi) {
+				rx.append(c.get()).append('x').append(c.getCount()).append(' ');
+			}
+		}
+		return rx.toString();
+	}
+	
+	@Test
+	public void testAugmentationIntervalos() {
+		// el intervalo [i / 1000, i % 1000]
+		IntervalAugmentation<Integer> intervalos = new IntervalAugmentation<Integer>(i -> i / 1000, i -> i % 1000);
+		BinarySearchTreeImpl<Integer> arbol = new BinarySearchTreeImpl<Integer>();
+		arbol.enableAugmentation(intervalos);
+		arbol.insert(10020, 5008, 15018, 30040, 1100, 25026, 17019);
+		Assert.assertEquals("[1100, 10020, 15018, 17019]", arbol.overlapping(intervalos, 16, 17).toString());
+		Assert.assertEquals("[1100]", arbol.overlapping(intervalos, 50, 60).toString());
+		Assert.assertTrue(arbol.overlapping(intervalos, 101, 200).isEmpty());
+		arbol.remove(1100);
+		Assert.assertEquals("[25026, 30040]", arbol.overlapping(intervalos, 21, 200).toString());
+		
+		Random random = new Random(9);
+		for (int i = 0; i < 500; i++) {
+			int inicio = random.nextInt(900);
+			arbol.insert(inicio * 1000 + inicio + random.nextInt(100));
+		}
+		IntervalAugmentation<Integer> sinPodar = new IntervalAugmentation<Integer>(i -> i / 1000, i -> i % 1000);
+		for (int i = 0; i < 50; i++) {
+			int desde = random.nextInt(1000);
+			int hasta = desde + random.nextInt(20);
+			Assert.assertEquals(arbol.overlapping(sinPodar, desde, hasta), arbol.overlapping(intervalos, desde, hasta));
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testAugmentationIntervaloInvalido() {
+		ejemplo.overlapping(new IntervalAugmentation<Integer>(i -> i, i -> i), 5, 4);
+	}
+	
+	@Test
+	public void testMemoryFootprint() {
+		BinarySearchTreeImpl<Integer> arbol = new BinarySearchTreeImpl<Integer>();
+		arbol.insert(50, 30, 30, 10, 40, 80, 60);
+		MemoryFootprint f = arbol.memoryFootprint();
+		Assert.assertEquals(6, f.getNodes());
+		Assert.assertEquals(7, f.getSentinels());
+		// mismos nodos con y sin elemento
+		Assert.assertEquals(f.getNodeBytes() / 6, f.getSentinelBytes() / 7);
+		Assert.assertEquals(0, f.getTagMaps());
+		Assert.assertEquals(0, f.getSlotArrays());
+		Assert.assertEquals(f.getNodeBytes() + f.getSentinelBytes(), f.getTotalBytes());
+		Assert.assertEquals((double) f.getTotalBytes() / 6, f.getBytesPerElement(), 1e-9);
+		
+		arbol.getLeftBST().setTag("nota", "alta");
+		arbol.getRightBST().setTag("nota", 7);
+		arbol.setTag(BinarySearchTreeImpl.TAG_HEIGHT, 3);
+		MemoryFootprint etiquetado = arbol.memoryFootprint();
+		Assert.assertEquals(2, etiquetado.getTagMaps());
+		Assert.assertEquals(1, etiquetado.getTagKeys());
+		Assert.assertEquals(1, etiquetado.getSlotArrays());
+		Assert.assertTrue(etiquetado.getTagMapBytes() > 0 && etiquetado.getTagKeyBytes() > 0);
+		Assert.assertEquals(f.getNodeBytes(), etiquetado.getNodeBytes());
+		
+		BinarySearchTreeImpl<Integer> vacio = new BinarySearchTreeImpl<Integer>();
+		Assert.assertEquals(0, vacio.memoryFootprint().getNodes());
+		Assert.assertEquals(1, vacio.memoryFootprint().getSentinels());
+		Assert.assertEquals(0.0, vacio.memoryFootprint().getBytesPerElement(), 0);
+		
+		MemoryFootprint congelado = arbol.freeze().memoryFootprint();
+		Assert.assertEquals(6, congelado.getNodes());
+		Assert.assertEquals(0, congelado.getSentinels());
+		Assert.assertTrue(congelado.getTotalBytes() < f.getTotalBytes());
+	}
+	
+	@Test
+	public void testMemoryFootprintContexto() {
+		BinarySearchTreeImpl<Integer> arbol = new BinarySearchTreeImpl<Integer>();
+		for (int i = 0; i < 1000; i++) {
+			arbol.insert((i * 7919) % 1000);
+		}
+		arbol.enableFingerSearch(false);
+		MemoryFootprint antes = arbol.memoryFootprint();
+		Assert.assertTrue(antes.getContextBytes() > 0);
+		Assert.assertEquals(0, antes.getOtherBytes());
+		
+		// el indice guarda una entrada de TreeSet y un Entry por elemento
+		arbol.enableCountIndex();
+		MemoryFootprint indexado = arbol.memoryFootprint();
+		Assert.assertTrue(indexado.getContextBytes() - antes.getContextBytes() > 1000 * 40);
+		Assert.assertEquals(antes.getNodeBytes(), indexado.getNodeBytes());
+		
+		arbol.enableLookupCache(64);
+		for (int i = 0; i < 100; i++) {
+			arbol.contains(i);
+		}
+		Assert.assertTrue(arbol.memoryFootprint().getContextBytes() - indexado.getContextBytes() > 64 * 24);
+		
+		// setTag admite la clave null
+		arbol.setTag((String) null, 1);
+		arbol.setTag("nota", 2);
+		Assert.assertEquals(1, arbol.memoryFootprint().getTagKeys());
+	}
+}
@@ -0,0 +1,100 @@
+package ule.edi.tree;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Indice de los elementos de un {@link BinarySearchTreeImpl} ordenados por
+ * numero de instancias, de mayor a menor (y, con el mismo numero, por el
+ * propio elemento).
+ *
+ * El arbol lo actualiza en O(log n) cada vez que cambia el count de un
+ * elemento, de modo que los k elementos mas frecuentes se obtienen en
+ * O(log n + k) sin recorrer el arbol. Se activa con
+ * {@link BinarySearchTreeImpl#enableCountIndex()}.
+ *
+ * @param <T> tipo de la informacion en cada nodo, comparable.
+ */
+final class CountIndex<T extends Comparable<? super T>> {
+
+	private static final class Entry<T extends Comparable<? super T>> implements Comparable<Entry<T>> {
+		final int count;
+		final T element;
+
+		Entry(int count, T element) {
+			this.count = count;
+			this.element = element;
+		}
+
+		@Override
+		public int compareTo(Entry<T> o) {
+			if (count != o.count) {
+				return count > o.count ? -1 : 1;
+			}
+			return element.compareTo(o.element);
+		}
+	}
+
+	private final TreeSet<Entry<T>> entries = new TreeSet<Entry<T>>();
+
+	/**
+	 * Anota que el count de element pasa de oldCount a newCount; 0 indica
+	 * que no estaba o que ya no esta en el arbol.
+	 */
+	void update(T element, int oldCount, int newCount) {
+		if (oldCount == newCount) {
+			return;
+		}
+		if (oldCount > 0) {
+			entries.remove(new Entry<T>(oldCount, element));
+		}
+		if (newCount > 0) {
+			entries.add(new Entry<T>(newCount, element));
+		}
+	}
+
+	void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Los k primeros elementos, o todos si hay menos.
+	 */
+	List<T> first(int k) {
+		List<T> rx = new ArrayList<T>(Math.min(k, entries.size()));
+		Iterator<Entry<T>> it = entries.iterator();
+		while (rx.size() < k && it.hasNext()) {
+			rx.add(it.next().element);
+		}
+		return rx;
+	}
+
+	/**
+	 * Elementos con count mayor o igual que threshold, en el orden del indice.
+	 */
+	List<T> atLeast(int threshold) {
+		List<T> rx = new ArrayList<T>();
+		for (Entry<T> e : entries) {
+			if (e.count < threshold) {
+				break;
+			}
+			rx.add(e.element);
+		}
+		return rx;
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Bytes del indice: el TreeSet con sus entradas del mapa y un Entry por
+	 * elemento, sin los elementos.
+	 */
+	long memoryBytes() {
+		return MemoryFootprint.shallowSize(CountIndex.class) + MemoryFootprint.treeSetBytes(entries)
+				+ entries.size() * MemoryFootprint.shallowSize(Entry.class);
+	}
+}
@@ -0,0 +1,500 @@
+package ule.edi.tree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+/**
+ * {@link BinarySearchTreeImpl} persistente: cada modificacion se anota en un
+ * registro de escritura anticipada (WAL) y el arbol se recupera tras una
+ * caida.
+ *
+ * En el directorio del arbol hay dos ficheros:
+ *
+ * - tree.snapshot: una generacion y una {@link TreeSnapshot} del arbol.
+ * - tree.wal: la misma generacion y las operaciones hechas desde esa copia.
+ *
+ * Las operaciones (insert, remove y removeAll) se codifican primero en un
+ * grupo en memoria y despues se aplican al arbol; si no se pueden codificar
+ * el arbol no cambia, y si el arbol las rechaza se quitan del grupo. Cada syncInterval
+ * operaciones, o al llamar a {@link #sync()}, el grupo se escribe de una vez
+ * en el WAL, precedido de su longitud y su CRC32, y se hace un solo fsync
+ * para todas ellas. Con syncInterval 1 cada operacion es durable al volver;
+ * con valores mayores, una caida puede perder las del ultimo grupo, pero
+ * nunca deja el arbol a medias: un grupo incompleto o con CRC erroneo se
+ * descarta entero al recuperar.
+ *
+ * Cuando el WAL supera checkpointBytes se hace un punto de control: se
+ * escribe la copia con la generacion siguiente en un fichero temporal, se
+ * renombra sobre la anterior y se vacia el WAL. Si hay una caida entre el
+ * renombrado y el vaciado, la generacion del WAL es menor que la de la copia
+ * y su contenido, que ya esta en la copia, se ignora.
+ *
+ * La recuperacion ({@link #open}) carga la copia y aplica la cola del WAL.
+ *
+ * Los metodos estan sincronizados; las consultas pueden hacerse sobre
+ * {@link #getTree()}, que no debe modificarse directamente (esos cambios no
+ * pasarian por el registro).
+ *
+ * @param <T> tipo de la informacion en cada nodo, comparable.
+ */
+public class DurableTree<T extends Comparable<? super T>> implements Closeable {
+
+	static final String SNAPSHOT = "tree.snapshot";
+	static final String WAL = "tree.wal";
+
+	public static final int DEFAULT_SYNC_INTERVAL = 1024;
+	public static final long DEFAULT_CHECKPOINT_BYTES = 64L << 20;
+
+	private static final int WAL_MAGIC = 0x4253544c; // "BSTL"
+	private static final int WAL_HEADER = 12; // magic y generacion
+	private static final int GROUP_HEADER = 8; // longitud y CRC32
+
+	private static final byte INSERT = 1;
+	private static final byte REMOVE = 2;
+	private static final byte REMOVE_ALL = 3;
+
+	/**
+	 * Buffer del grupo en curso, con acceso a su array para no copiarlo.
+	 */
+	private static final class GroupBuffer extends ByteArrayOutputStream {
+		GroupBuffer() {
+			super(1 << 16);
+		}
+
+		ByteBuffer wrap() {
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+
+		/**
+		 * Descarta lo escrito a partir de size.
+		 */
+		void truncate(int size) {
+			count = size;
+		}
+
+		long crc() {
+			CRC32 crc = new CRC32();
+			crc.update(buf, 0, count);
+			return crc.getValue();
+		}
+	}
+
+	private final Path dir;
+	private final KeyCodec<T> codec;
+	private final int syncInterval;
+	private final BinarySearchTreeImpl<T> tree;
+	private final GroupBuffer group = new GroupBuffer();
+	private final DataOutputStream groupOut = new DataOutputStream(group);
+	private final ByteBuffer groupHeader = ByteBuffer.allocate(GROUP_HEADER);
+
+	private FileChannel wal;
+	private long generation;
+	private int pending;
+	private long checkpointBytes = DEFAULT_CHECKPOINT_BYTES;
+
+	private DurableTree(Path dir, KeyCodec<T> codec, int syncInterval, BinarySearchTreeImpl<T> tree,
+			long generation) {
+		this.dir = dir;
+		this.codec = codec;
+		this.syncInterval = syncInterval;
+		this.tree = tree;
+		this.generation = generation;
+	}
+
+	/**
+	 * Abre (o crea) el arbol del directorio con {@link #DEFAULT_SYNC_INTERVAL}.
+	 */
+	public static <T extends Comparable<? super T>> DurableTree<T> open(Path dir, KeyCodec<T> codec)
+			throws IOException {
+		return open(dir, codec, DEFAULT_SYNC_INTERVAL);
+	}
+
+	/**
+	 * Abre (o crea) el arbol del directorio: carga la ultima copia y aplica
+	 * las operaciones del WAL posteriores a ella.
+	 *
+	 * @param syncInterval operaciones por grupo (y por fsync)
+	 * @throws IllegalArgumentException si dir o codec son null o syncInterval
+	 *         es menor que 1
+	 * @throws IOException si los ficheros no se pueden leer o estan corruptos
+	 */
+	public static <T extends Comparable<? super T>> DurableTree<T> open(Path dir, KeyCodec<T> codec,
+			int syncInterval) throws IOException {
+		if (dir == null || codec == null || syncInterval < 1)
+			throw new IllegalArgumentException();
+
+		Files.createDirectories(dir);
+		Path snapshot = dir.resolve(SNAPSHOT);
+		BinarySearchTreeImpl<T> tree;
+		long generation = 0;
+		if (Files.exists(snapshot)) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+				generation = in.readLong();
+				tree = TreeSnapshot.read(codec, in);
+			}
+		} else {
+			tree = new BinarySearchTreeImpl<T>();
+		}
+
+		DurableTree<T> rx = new DurableTree<T>(dir, codec, syncInterval, tree, generation);
+		rx.wal = FileChannel.open(dir.resolve(WAL), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			rx.recover();
+		} catch (IOException e) {
+			rx.wal.close();
+			throw e;
+		}
+		return rx;
+	}
+
+	/**
+	 * Aplica los grupos validos del WAL y lo deja listo para añadir al final.
+	 */
+	private void recover() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(WAL_HEADER);
+		if (readFully(header, 0)) {
+			header.flip();
+			if (header.getInt() != WAL_MAGIC)
+				throw new IOException("not a tree log");
+			long walGeneration = header.getLong();
+			if (walGeneration > generation)
+				throw new IOException("tree log is newer than its snapshot");
+			if (walGeneration == generation) {
+				wal.position(replay(WAL_HEADER));
+				wal.truncate(wal.position());
+				return;
+			}
+		}
+		// No hay WAL, esta cortado en la cabecera o ya esta incluido en la copia
+		resetLog();
+	}
+
+	/**
+	 * Aplica los grupos a partir de pos hasta el primero incompleto o
+	 * corrupto.
+	 *
+	 * @return posicion siguiente al ultimo grupo valido
+	 */
+	private long replay(long pos) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(GROUP_HEADER);
+		while (true) {
+			header.clear();
+			if (!readFully(header, pos)) {
+				return pos;
+			}
+			header.flip();
+			int length = header.getInt();
+			long crc = header.getInt() & 0xffffffffL;
+			if (length < 0 || pos + GROUP_HEADER + length > wal.size()) {
+				return pos;
+			}
+			ByteBuffer payload = ByteBuffer.allocate(length);
+			readFully(payload, pos + GROUP_HEADER);
+			CRC32 check = new CRC32();
+			check.update(payload.array(), 0, length);
+			if (check.getValue() != crc) {
+				return pos;
+			}
+			apply(new DataInputStream(new ByteArrayInputStream(payload.array(), 0, length)), length);
+			pos += GROUP_HEADER + length;
+		}
+	}
+
+	private void apply(DataInputStream in, int length) throws IOException {
+		try {
+			while (in.available() > 0) {
+				byte op = in.readByte();
+				T elem = codec.read(in);
+				if (op == INSERT) {
+					tree.insert(elem);
+				} else if (op == REMOVE) {
+					tree.remove(elem, in.readInt());
+				} else if (op == REMOVE_ALL) {
+					tree.removeAll(elem);
+				} else {
+					throw new IOException("corrupt tree log");
+				}
+			}
+		} catch (NoSuchElementException | IllegalArgumentException e) {
+			throw new IOException("tree log does not match its snapshot", e);
+		}
+	}
+
+	/**
+	 * Lee hasta llenar dst desde pos.
+	 *
+	 * @return false si el fichero termina antes
+	 */
+	private boolean readFully(ByteBuffer dst, long pos) throws IOException {
+		while (dst.hasRemaining()) {
+			int leidos = wal.read(dst, pos);
+			if (leidos < 0) {
+				return false;
+			}
+			pos += leidos;
+		}
+		return true;
+	}
+
+	/**
+	 * Vacia el WAL y escribe la cabecera con la generacion actual.
+	 */
+	private void resetLog() throws IOException {
+		wal.truncate(0);
+		ByteBuffer header = ByteBuffer.allocate(WAL_HEADER);
+		header.putInt(WAL_MAGIC).putLong(generation).flip();
+		wal.position(0);
+		while (header.hasRemaining()) {
+			wal.write(header);
+		}
+		wal.force(true);
+	}
+
+	private void checkOpen() {
+		if (wal == null)
+			throw new IllegalStateException("tree is closed");
+	}
+
+	/**
+	 * Inserta el elemento y anota la operacion.
+	 *
+	 * @see BinarySearchTreeImpl#insert(Comparable)
+	 * @throws UncheckedIOException si falla la escritura del registro
+	 */
+	public synchronized boolean insert(T element) {
+		checkOpen();
+		int marca = encode(INSERT, element, 0);
+		boolean rx;
+		try {
+			rx = tree.insert(element);
+		} catch (RuntimeException e) {
+			group.truncate(marca);
+			throw e;
+		}
+		logged();
+		return rx;
+	}
+
+	/**
+	 * Elimina num instancias del elemento y anota la operacion.
+	 *
+	 * @see BinarySearchTreeImpl#remove(Comparable, int)
+	 * @throws UncheckedIOException si falla la escritura del registro
+	 */
+	public synchronized void remove(T element, int num) {
+		checkOpen();
+		int marca = encode(REMOVE, element, num);
+		try {
+			tree.remove(element, num);
+		} catch (RuntimeException e) {
+			group.truncate(marca);
+			throw e;
+		}
+		logged();
+	}
+
+	/**
+	 * Elimina todas las instancias del elemento y anota la operacion.
+	 *
+	 * @see BinarySearchTreeImpl#removeAll(Comparable)
+	 * @throws UncheckedIOException si falla la escritura del registro
+	 */
+	public synchronized int removeAll(T element) {
+		checkOpen();
+		int marca = encode(REMOVE_ALL, element, 0);
+		int rx;
+		try {
+			rx = tree.removeAll(element);
+		} catch (RuntimeException e) {
+			group.truncate(marca);
+			throw e;
+		}
+		logged();
+		return rx;
+	}
+
+	public synchronized boolean contains(T element) {
+		return tree.contains(element);
+	}
+
+	/**
+	 * Numero de instancias del elemento, 0 si no esta.
+	 */
+	public synchronized int getCount(T element) {
+		BinarySearchTreeImpl<T> nodo = tree.getElem(element);
+		return nodo == null ? 0 : nodo.count;
+	}
+
+	/**
+	 * Arbol en memoria, solo para consultas.
+	 */
+	public BinarySearchTreeImpl<T> getTree() {
+		return tree;
+	}
+
+	/**
+	 * Añade la operacion al grupo en curso antes de aplicarla al arbol.
+	 *
+	 * @return tamaño del grupo antes de añadirla, para poder quitarla
+	 */
+	private int encode(byte op, T element, int num) {
+		if (element == null)
+			throw new IllegalArgumentException();
+
+		int marca = group.size();
+		try {
+			groupOut.writeByte(op);
+			codec.write(element, groupOut);
+			if (op == REMOVE) {
+				groupOut.writeInt(num);
+			}
+		} catch (IOException | RuntimeException e) {
+			group.truncate(marca);
+			if (e instanceof IOException) {
+				throw new UncheckedIOException((IOException) e);
+			}
+			throw (RuntimeException) e;
+		}
+		return marca;
+	}
+
+	/**
+	 * Cuenta una operacion ya aplicada y escribe el grupo si esta completo.
+	 * Si la escritura falla, el grupo sigue pendiente (con la operacion) y se
+	 * vuelve a intentar en la siguiente.
+	 */
+	private void logged() {
+		if (++pending >= syncInterval) {
+			try {
+				commit();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Escribe el grupo en curso en el WAL y hace fsync.
+	 */
+	private void commit() throws IOException {
+		if (group.size() == 0) {
+			return;
+		}
+		long inicio = wal.position();
+		groupHeader.clear();
+		groupHeader.putInt(group.size()).putInt((int) group.crc()).flip();
+		ByteBuffer[] datos = { groupHeader, group.wrap() };
+		try {
+			while (datos[1].hasRemaining()) {
+				wal.write(datos);
+			}
+			wal.force(false);
+		} catch (IOException e) {
+			// un grupo escrito a medias ocultaria al reintento en la recuperacion
+			try {
+				wal.truncate(inicio);
+				wal.position(inicio);
+			} catch (IOException otro) {
+				e.addSuppressed(otro);
+			}
+			throw e;
+		}
+		group.reset();
+		pending = 0;
+
+		if (wal.size() >= checkpointBytes) {
+			checkpoint();
+		}
+	}
+
+	/**
+	 * Hace durables todas las operaciones anteriores.
+	 */
+	public synchronized void sync() throws IOException {
+		checkOpen();
+		commit();
+	}
+
+	/**
+	 * Tamaño del WAL a partir del cual se hace un punto de control
+	 * automaticamente.
+	 *
+	 * @throws IllegalArgumentException si bytes no es positivo
+	 */
+	public synchronized void setCheckpointBytes(long bytes) {
+		if (bytes <= 0)
+			throw new IllegalArgumentException();
+		this.checkpointBytes = bytes;
+	}
+
+	/**
+	 * Guarda una copia completa del arbol y vacia el WAL. Recorre el arbol
+	 * entero, asi que bloquea las operaciones durante O(n).
+	 */
+	public synchronized void checkpoint() throws IOException {
+		checkOpen();
+		Path snapshot = dir.resolve(SNAPSHOT);
+		Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+		try (FileOutputStream file = new FileOutputStream(tmp.toFile())) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+			out.writeLong(generation + 1);
+			TreeSnapshot.write(tree, codec, out);
+			out.flush();
+			file.getChannel().force(true);
+		}
+		Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		syncDirectory();
+
+		// La copia ya incluye las operaciones del grupo en curso
+		generation++;
+		group.reset();
+		pending = 0;
+		resetLog();
+	}
+
+	/**
+	 * Hace durable el renombrado de la copia: en POSIX la entrada del
+	 * directorio no se escribe con el fsync del fichero.
+	 */
+	private void syncDirectory() throws IOException {
+		try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+			d.force(true);
+		} catch (AccessDeniedException e) {
+			// Windows no permite abrir un directorio; alli no hay nada que sincronizar
+		}
+	}
+
+	/**
+	 * Hace durables las operaciones pendientes y cierra el WAL. Despues las
+	 * modificaciones disparan IllegalStateException.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (wal != null) {
+			try {
+				commit();
+			} finally {
+				wal.close();
+				wal = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package ule.edi.tree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DurableTreeTests {
+
+	private Path dir = null;
+
+	@Before
+	public void setupDir() throws IOException {
+		dir = Files.createTempDirectory("durable-tree");
+	}
+
+	@After
+	public void deleteDir() throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testSnapshotConservaForma() throws IOException {
+		BinarySearchTreeImpl<Integer> ejemplo = new BinarySearchTreeImpl<Integer>();
+		ejemplo.insert(50, 30, 30, 10, 40, 40, 40, 40, 80, 80, 60);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TreeSnapshot.write(ejemplo, KeyCodec.INTEGER, new DataOutputStream(bytes));
+		BinarySearchTreeImpl<Integer> copia = TreeSnapshot.read(KeyCodec.INTEGER,
+				new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		Assert.assertEquals(ejemplo.toString(), copia.toString());
+		Assert.assertEquals("RL", copia.getPath(60));
+	}
+
+	@Test
+	public void testRecuperaWal() throws IOException {
+		DurableTree<Integer> arbol = DurableTree.open(dir, KeyCodec.INTEGER, 4);
+		arbol.insert(50);
+		arbol.insert(30);
+		arbol.insert(30);
+		arbol.insert(80);
+		arbol.remove(30, 1);
+		arbol.insert(10);
+		Assert.assertEquals(1, arbol.removeAll(80));
+		arbol.close();
+
+		DurableTree<Integer> recuperado = DurableTree.open(dir, KeyCodec.INTEGER, 4);
+		Assert.assertEquals("{50, {30, {10, ∅, ∅}, ∅}, ∅}", recuperado.getTree().toString());
+		recuperado.close();
+	}
+
+	@Test
+	public void testCheckpoint() throws IOException {
+		DurableTree<String> arbol = DurableTree.open(dir, KeyCodec.STRING, 1);
+		arbol.insert("m");
+		arbol.insert("c");
+		arbol.checkpoint();
+		Assert.assertEquals(12, Files.size(dir.resolve(DurableTree.WAL)));
+		arbol.insert("x");
+		arbol.insert("c");
+		arbol.close();
+
+		DurableTree<String> recuperado = DurableTree.open(dir, KeyCodec.STRING);
+		Assert.assertEquals("{m, {c(2), ∅, ∅}, {x, ∅, ∅}}", recuperado.getTree().toString());
+		Assert.assertEquals(2, recuperado.getCount("c"));
+		recuperado.close();
+	}
+
+	@Test
+	public void testFalloAlCodificarNoCambiaArbol() throws IOException {
+		DurableTree<String> arbol = DurableTree.open(dir, KeyCodec.STRING, 4);
+		arbol.insert("m");
+		char[] largo = new char[70000];
+		Arrays.fill(largo, 'a');
+		try {
+			// writeUTF no admite mas de 65535 bytes
+			arbol.insert(new String(largo));
+			Assert.fail("insert");
+		} catch (UncheckedIOException e) {
+			Assert.assertEquals(1, arbol.getTree().size());
+		}
+		try {
+			arbol.remove("z", 1);
+			Assert.fail("remove");
+		} catch (NoSuchElementException e) {
+			// su registro se quita del grupo
+		}
+		arbol.insert("c");
+		arbol.close();
+
+		DurableTree<String> recuperado = DurableTree.open(dir, KeyCodec.STRING);
+		Assert.assertEquals("{m, {c, ∅, ∅}, ∅}", recuperado.getTree().toString());
+		recuperado.close();
+	}
+
+	@Test
+	public void testDescartaGrupoIncompleto() throws IOException {
+		DurableTree<Long> arbol = DurableTree.open(dir, KeyCodec.LONG, 2);
+		arbol.insert(1L);
+		arbol.insert(2L);
+		arbol.insert(3L);
+		arbol.insert(4L);
+		arbol.close();
+
+		// Simula una caida a mitad de escribir el segundo grupo
+		Path wal = dir.resolve(DurableTree.WAL);
+		try (FileChannel ch = FileChannel.open(wal, StandardOpenOption.WRITE)) {
+			ch.truncate(ch.size() - 3);
+		}
+		DurableTree<Long> recuperado = DurableTree.open(dir, KeyCodec.LONG, 2);
+		Assert.assertEquals("{1, ∅, {2, ∅, ∅}}", recuperado.getTree().toString());
+		recuperado.insert(5L);
+		recuperado.close();
+
+		DurableTree<Long> otraVez = DurableTree.open(dir, KeyCodec.LONG, 2);
+		Assert.assertEquals("{1, ∅, {2, ∅, {5, ∅, ∅}}}", otraVez.getTree().toString());
+		otraVez.close();
+	}
+
+	@Test
+	public void testIgnoraWalAnteriorALaCopia() throws IOException {
+		DurableTree<Integer> arbol = DurableTree.open(dir, KeyCodec.INTEGER, 1);
+		arbol.insert(7);
+		arbol.insert(7);
+		Path wal = dir.resolve(DurableTree.WAL);
+		byte[] walViejo = Files.readAllBytes(wal);
+		arbol.checkpoint();
+		arbol.close();
+
+		// Caida entre el renombrado de la copia y el vaciado del WAL
+		Files.write(wal, walViejo);
+		DurableTree<Integer> recuperado = DurableTree.open(dir, KeyCodec.INTEGER);
+		Assert.assertEquals(2, recuperado.getCount(7));
+		recuperado.close();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCerrado() throws IOException {
+		DurableTree<Integer> arbol = DurableTree.open(dir, KeyCodec.INTEGER);
+		arbol.close();
+		arbol.insert(1);
+	}
+
+	@Test(expected = IOException.class)
+	public void testWalAjeno() throws IOException {
+		Files.write(dir.resolve(DurableTree.WAL), ByteBuffer.allocate(16).putInt(12345).array());
+		DurableTree.open(dir, KeyCodec.INTEGER);
+	}
+}
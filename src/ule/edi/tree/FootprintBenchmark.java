@@ -0,0 +1,103 @@
+package ule.edi.tree;
+
+import java.util.Random;
+
+/**
+ * Compara la memoria por elemento de las distintas formas de guardar un
+ * arbol, para varios tamaños: el arbol normal, con una etiqueta en mapa en
+ * cada nodo, con las etiquetas de {@link BinarySearchTreeImpl#TAG_HEIGHT} y
+ * demas mantenidas, con un agregado ({@link TreeAugmentation#sum}), su copia
+ * congelada ({@link FrozenSearchTree}) y el arbol de long con los nodos en
+ * memoria directa ({@link LongBinarySearchTree} sobre
+ * {@link OffHeapNodeStore}).
+ *
+ * Uso: java ule.edi.tree.FootprintBenchmark [tamaño...]
+ *
+ * Para cada tamaño y forma se muestran los bytes por elemento estimados por
+ * {@link BinarySearchTreeImpl#memoryFootprint()} y los medidos como
+ * diferencia del heap ocupado antes y despues de construir el arbol. Los
+ * elementos se crean antes de medir, asi que ninguna de las dos cifras los
+ * incluye. La medida es aproximada: conviene ejecutarlo con un heap fijo
+ * (-Xms igual a -Xmx) y fijarse en las estimaciones para comparar versiones.
+ *
+ * En la forma "directa" la estimacion es la memoria directa reservada por el
+ * almacen ({@link OffHeapNodeStore#reservedBytes()}) y lo medido es solo el
+ * heap, es decir, lo que ve el recolector de basura.
+ */
+public class FootprintBenchmark {
+
+	private static final String[] FORMAS = { "normal", "mapa", "primitivas", "agregado", "congelado", "directa" };
+
+	public static void main(String[] args) {
+		int[] tamanos = { 1000, 10000, 100000, 1000000 };
+		if (args.length > 0) {
+			tamanos = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				tamanos[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.printf("%-11s %9s %12s %12s %12s%n", "forma", "elementos", "bytes", "modelo B/el", "medido B/el");
+		for (int n : tamanos) {
+			Integer[] elementos = new Integer[n];
+			Random random = new Random(n);
+			for (int i = 0; i < n; i++) {
+				elementos[i] = random.nextInt(Integer.MAX_VALUE);
+			}
+			for (String forma : FORMAS) {
+				long antes = usedHeap();
+				if (forma.equals("directa")) {
+					OffHeapNodeStore almacen = new OffHeapNodeStore();
+					LongBinarySearchTree arbol = new LongBinarySearchTree(almacen);
+					for (Integer x : elementos) {
+						arbol.insert(x);
+					}
+					long medido = usedHeap() - antes;
+					print(forma, arbol.size(), almacen.reservedBytes(), medido);
+					arbol.close();
+					continue;
+				}
+				Object arbol = build(forma, elementos);
+				long medido = usedHeap() - antes; // arbol se usa despues, asi que sigue vivo
+				MemoryFootprint f = arbol instanceof FrozenSearchTree
+						? ((FrozenSearchTree<?>) arbol).memoryFootprint()
+						: ((BinarySearchTreeImpl<?>) arbol).memoryFootprint();
+				print(forma, f.getNodes(), f.getTotalBytes(), medido);
+			}
+		}
+	}
+
+	private static void print(String forma, long nodos, long bytes, long medido) {
+		System.out.printf("%-11s %9d %12d %12.1f %12.1f%n", forma, nodos, bytes, (double) bytes / nodos,
+				(double) medido / nodos);
+	}
+
+	private static Object build(String forma, Integer[] elementos) {
+		BinarySearchTreeImpl<Integer> arbol = new BinarySearchTreeImpl<Integer>();
+		if (forma.equals("agregado")) {
+			arbol.enableAugmentation(TreeAugmentation.sum(x -> x));
+		}
+		for (Integer x : elementos) {
+			arbol.insert(x);
+		}
+		if (forma.equals("mapa")) {
+			for (InorderCursor<Integer> c = arbol.cursor(); c.isValid(); c.moveNext()) {
+				c.getNode().setTag("orden", c.get() / 2);
+			}
+		} else if (forma.equals("primitivas")) {
+			arbol.enableTagMaintenance();
+			arbol.refreshTags();
+		} else if (forma.equals("congelado")) {
+			return arbol.freeze();
+		}
+		return arbol;
+	}
+
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
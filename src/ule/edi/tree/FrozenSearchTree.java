@@ -0,0 +1,282 @@
+package ule.edi.tree;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Copia inmutable de un {@link BinarySearchTreeImpl} pensada para arboles que
+ * se construyen una vez y despues solo se consultan.
+ *
+ * Los elementos se guardan en arrays con disposicion de Eytzinger: la raiz en
+ * la posicion 1 y los hijos de la posicion i en 2i y 2i+1, como en un
+ * monticulo. Es el arbol equilibrado con los mismos elementos, pero sin nodos
+ * ni referencias entre ellos: un descenso lee posiciones que estan juntas en
+ * memoria en los primeros niveles, y no hay centinelas ni mapas de etiquetas.
+ *
+ * La busqueda no se detiene al encontrar el elemento: siempre baja hasta el
+ * ultimo nivel y calcula al final, con operaciones de bits, la posicion del
+ * menor elemento mayor o igual. El unico salto depende del resultado de la
+ * comparacion y se puede compilar sin bifurcaciones. Si todos los elementos
+ * son Integer o Long se guardan ademas como long, y las comparaciones no
+ * tienen que leer ningun objeto.
+ *
+ * Se obtiene con {@link BinarySearchTreeImpl#freeze()}.
+ *
+ * @param <T> tipo de la informacion en cada nodo, comparable.
+ */
+public final class FrozenSearchTree<T extends Comparable<? super T>> implements Iterable<T> {
+
+	private final int n;
+	private final Object[] keys; // posiciones 1..n en orden de Eytzinger, la 0 no se usa
+	private final long[] primitiveKeys; // mismas claves como long, o null
+	private final int[] counts; // count de cada posicion
+	private final int[] ranks; // posicion en orden ascendente (desde 0) de cada casilla
+	private final long[] prefix; // prefix[r] = instancias de los r menores elementos
+
+	/**
+	 * @param sorted elementos ordenados y sin repetir
+	 * @param sortedCounts count de cada uno
+	 */
+	FrozenSearchTree(List<T> sorted, int[] sortedCounts) {
+		this.n = sorted.size();
+		this.keys = new Object[n + 1];
+		this.counts = new int[n + 1];
+		this.ranks = new int[n + 1];
+		this.prefix = new long[n + 1];
+
+		for (int r = 0; r < n; r++) {
+			prefix[r + 1] = prefix[r] + sortedCounts[r];
+		}
+
+		// Inorden iterativo sobre el arbol implicito: asigna los elementos en orden
+		int i = firstSlot(n);
+		for (int r = 0; r < n; r++) {
+			keys[i] = sorted.get(r);
+			counts[i] = sortedCounts[r];
+			ranks[i] = r;
+			i = nextSlot(i, n);
+		}
+
+		this.primitiveKeys = toPrimitive(keys, n);
+	}
+
+	/**
+	 * Posicion del menor elemento de un arbol de n elementos (0 si n es 0).
+	 */
+	private static int firstSlot(int n) {
+		if (n == 0) {
+			return 0;
+		}
+		int i = 1;
+		while (2 * i <= n) {
+			i = 2 * i;
+		}
+		return i;
+	}
+
+	/**
+	 * Posicion siguiente a i en inorden, o 0 si i es la ultima.
+	 */
+	private static int nextSlot(int i, int n) {
+		if (2 * i + 1 <= n) {
+			// el menor del hijo derecho
+			i = 2 * i + 1;
+			while (2 * i <= n) {
+				i = 2 * i;
+			}
+			return i;
+		}
+		// Sube mientras se venga de un hijo derecho
+		while ((i & 1) == 1) {
+			i >>>= 1;
+		}
+		return i >>> 1;
+	}
+
+	private static long[] toPrimitive(Object[] keys, int n) {
+		if (n == 0) {
+			return null;
+		}
+		Class<?> tipo = keys[1].getClass();
+		if (tipo != Integer.class && tipo != Long.class) {
+			return null;
+		}
+		long[] rx = new long[n + 1];
+		for (int i = 1; i <= n; i++) {
+			if (keys[i].getClass() != tipo) {
+				return null;
+			}
+			rx[i] = ((Number) keys[i]).longValue();
+		}
+		return rx;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T key(int i) {
+		return (T) keys[i];
+	}
+
+	/**
+	 * Posicion del menor elemento mayor o igual que elem, o 0 si no hay.
+	 */
+	private int lowerBoundSlot(T elem) {
+		int i = 1;
+		if (primitiveKeys != null && (elem instanceof Integer || elem instanceof Long)) {
+			long x = ((Number) elem).longValue();
+			while (i <= n) {
+				i = 2 * i + (primitiveKeys[i] < x ? 1 : 0);
+			}
+		} else {
+			while (i <= n) {
+				i = 2 * i + (key(i).compareTo(elem) < 0 ? 1 : 0);
+			}
+		}
+		// Deshace los ultimos pasos a la derecha y el ultimo a la izquierda
+		return i >>> (Integer.numberOfTrailingZeros(~i) + 1);
+	}
+
+	/**
+	 * Posicion del elemento, o 0 si no esta.
+	 */
+	private int slotOf(T elem) {
+		if (elem == null)
+			throw new IllegalArgumentException();
+
+		int i = lowerBoundSlot(elem);
+		return (i != 0 && key(i).compareTo(elem) == 0) ? i : 0;
+	}
+
+	/**
+	 * Busca el elemento.
+	 *
+	 * @throws IllegalArgumentException si elem es null
+	 */
+	public boolean contains(T elem) {
+		return slotOf(elem) != 0;
+	}
+
+	/**
+	 * Devuelve el numero de instancias del elemento, 0 si no esta.
+	 *
+	 * @throws IllegalArgumentException si elem es null
+	 */
+	public int getCount(T elem) {
+		return counts[slotOf(elem)];
+	}
+
+	/**
+	 * Devuelve el camino de Ls y Rs hasta el elemento en la forma equilibrada
+	 * de esta copia (no en la del arbol original).
+	 *
+	 * @throws NoSuchElementException si el elemento no esta
+	 * @throws IllegalArgumentException si elem es null
+	 */
+	public String getPath(T elem) {
+		int i = slotOf(elem);
+		if (i == 0)
+			throw new NoSuchElementException();
+
+		StringBuffer rx = new StringBuffer();
+		for (int bit = 30 - Integer.numberOfLeadingZeros(i); bit >= 0; bit--) {
+			rx.append(((i >>> bit) & 1) == 0 ? 'L' : 'R');
+		}
+		return rx.toString();
+	}
+
+	/**
+	 * Numero de elementos diferentes menores que elem (elem no tiene por que
+	 * estar).
+	 *
+	 * @throws IllegalArgumentException si elem es null
+	 */
+	public int rank(T elem) {
+		if (elem == null)
+			throw new IllegalArgumentException();
+
+		int i = lowerBoundSlot(elem);
+		return i == 0 ? n : ranks[i];
+	}
+
+	/**
+	 * Numero de instancias de elementos menores que elem.
+	 *
+	 * @throws IllegalArgumentException si elem es null
+	 */
+	public long instancesRank(T elem) {
+		return prefix[rank(elem)];
+	}
+
+	/**
+	 * Devuelve el elemento con el rango dado (el r-esimo menor, desde 0).
+	 *
+	 * @throws IndexOutOfBoundsException si r no esta en [0, size())
+	 */
+	public T select(int r) {
+		if (r < 0 || r >= n)
+			throw new IndexOutOfBoundsException();
+
+		// Desciende comparando rangos, que tambien estan en orden de Eytzinger
+		int i = 1;
+		while (ranks[i] != r) {
+			i = 2 * i + (ranks[i] < r ? 1 : 0);
+		}
+		return key(i);
+	}
+
+	/**
+	 * Devuelve los bytes que ocupa la copia: los arrays de elementos, counts,
+	 * posiciones y sumas, sin nodos ni centinelas.
+	 *
+	 * @see MemoryFootprint
+	 */
+	public MemoryFootprint memoryFootprint() {
+		long bytes = MemoryFootprint.shallowSize(FrozenSearchTree.class) + MemoryFootprint.referenceArrayBytes(keys.length)
+				+ MemoryFootprint.arrayBytes(counts.length, 4) + MemoryFootprint.arrayBytes(ranks.length, 4)
+				+ MemoryFootprint.arrayBytes(prefix.length, 8);
+		if (primitiveKeys != null) {
+			bytes += MemoryFootprint.arrayBytes(primitiveKeys.length, 8);
+		}
+		return new MemoryFootprint(n, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, bytes);
+	}
+
+	/**
+	 * Numero de elementos diferentes.
+	 */
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Numero total de instancias.
+	 */
+	public long instancesCount() {
+		return prefix[n];
+	}
+
+	/**
+	 * Recorre los elementos en orden ascendente, sin tener en cuenta el
+	 * numero de instancias.
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		// recorre las posiciones en inorden, O(1) amortizado por elemento
+		return new Iterator<T>() {
+			private int i = firstSlot(n);
+
+			@Override
+			public boolean hasNext() {
+				return i != 0;
+			}
+
+			@Override
+			public T next() {
+				if (i == 0)
+					throw new NoSuchElementException();
+				T rx = key(i);
+				i = nextSlot(i, n);
+				return rx;
+			}
+		};
+	}
+}
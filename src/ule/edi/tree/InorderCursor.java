@@ -0,0 +1,98 @@
+package ule.edi.tree;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Cursor que se desplaza en inorden, en ambos sentidos, por los nodos de un
+ * {@link BinarySearchTreeImpl}.
+ *
+ * No guarda pila: cada paso usa las referencias father de los nodos, asi que
+ * avanzar k posiciones cuesta O(k) amortizado y el cursor ocupa lo mismo
+ * sea cual sea la altura del arbol.
+ *
+ * El cursor queda "no valido" cuando se sale por cualquiera de los extremos.
+ * Si el arbol se modifica mientras se usa el cursor, su comportamiento
+ * no esta definido.
+ *
+ * @param <T> tipo de la informacion en cada nodo, comparable.
+ */
+public class InorderCursor<T extends Comparable<? super T>> {
+
+	private BinarySearchTreeImpl<T> nodo; // nodo actual, null si no es valido
+
+	InorderCursor(BinarySearchTreeImpl<T> nodo) {
+		this.nodo = nodo;
+	}
+
+	/**
+	 * Indica si el cursor esta situado sobre algun nodo.
+	 */
+	public boolean isValid() {
+		return nodo != null;
+	}
+
+	/**
+	 * Devuelve el elemento del nodo actual.
+	 *
+	 * @throws NoSuchElementException si el cursor no es valido
+	 */
+	public T get() {
+		return getNode().getContent();
+	}
+
+	/**
+	 * Devuelve el numero de instancias del elemento del nodo actual.
+	 *
+	 * @throws NoSuchElementException si el cursor no es valido
+	 */
+	public int getCount() {
+		return getNode().count;
+	}
+
+	/**
+	 * Devuelve el nodo actual.
+	 *
+	 * @throws NoSuchElementException si el cursor no es valido
+	 */
+	public BinarySearchTreeImpl<T> getNode() {
+		if (nodo == null)
+			throw new NoSuchElementException();
+		return nodo;
+	}
+
+	/**
+	 * Indica si existe un elemento siguiente al actual.
+	 */
+	public boolean hasNext() {
+		return nodo != null && nodo.successor() != null;
+	}
+
+	/**
+	 * Indica si existe un elemento anterior al actual.
+	 */
+	public boolean hasPrevious() {
+		return nodo != null && nodo.predecessor() != null;
+	}
+
+	/**
+	 * Avanza al siguiente elemento en inorden.
+	 *
+	 * @return true si el cursor sigue siendo valido tras avanzar
+	 * @throws NoSuchElementException si el cursor no es valido
+	 */
+	public boolean moveNext() {
+		nodo = getNode().successor();
+		return nodo != null;
+	}
+
+	/**
+	 * Retrocede al elemento anterior en inorden.
+	 *
+	 * @return true si el cursor sigue siendo valido tras retroceder
+	 * @throws NoSuchElementException si el cursor no es valido
+	 */
+	public boolean movePrevious() {
+		nodo = getNode().predecessor();
+		return nodo != null;
+	}
+}
@@ -0,0 +1,28 @@
+package ule.edi.tree;
+
+/**
+ * Clave de etiqueta con valor int, guardado sin convertir a Integer.
+ *
+ * @see AbstractTreeADT#setTag(IntTagKey, int)
+ * @see AbstractTreeADT#getTag(IntTagKey, int)
+ */
+public final class IntTagKey extends TagKey<Integer> {
+
+	IntTagKey(String name, int slot) {
+		super(name, Integer.class, slot);
+	}
+
+	/**
+	 * Devuelve la clave int registrada con ese nombre, creandola si no existe.
+	 *
+	 * @throws IllegalArgumentException si name es null o el nombre ya esta
+	 *         registrado con otro tipo
+	 * @throws IllegalStateException si ya hay {@link TagKey#MAX_SLOTS} claves
+	 *         con valor primitivo
+	 */
+	public static IntTagKey of(String name) {
+		if (name == null)
+			throw new IllegalArgumentException();
+		return (IntTagKey) register(name, Integer.class, true);
+	}
+}
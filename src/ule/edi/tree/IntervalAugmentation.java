@@ -0,0 +1,56 @@
+package ule.edi.tree;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * Agregado para usar un {@link BinarySearchTreeImpl} como arbol de
+ * intervalos: cada elemento representa el intervalo cerrado
+ * [start(x), end(x)] y cada nodo guarda el mayor end de su sub-arbol.
+ *
+ * Los elementos deben estar ordenados (compareTo) por start creciente, con
+ * cualquier criterio para deshacer empates. Con eso,
+ * {@link BinarySearchTreeImpl#overlapping(IntervalAugmentation, long, long)}
+ * descarta cada sub-arbol cuyo mayor end queda antes de la consulta y cada
+ * sub-arbol derecho cuyo start queda despues, y encuentra los m intervalos
+ * que se solapan en O(m log n) en un arbol equilibrado.
+ *
+ * @param <T> tipo de la informacion en cada nodo, comparable.
+ */
+public final class IntervalAugmentation<T extends Comparable<? super T>> implements TreeAugmentation<T, Long> {
+
+	private final ToLongFunction<? super T> start;
+	private final ToLongFunction<? super T> end;
+
+	/**
+	 * @throws IllegalArgumentException si start o end son null
+	 */
+	public IntervalAugmentation(ToLongFunction<? super T> start, ToLongFunction<? super T> end) {
+		if (start == null || end == null)
+			throw new IllegalArgumentException();
+		this.start = start;
+		this.end = end;
+	}
+
+	long start(T element) {
+		return start.applyAsLong(element);
+	}
+
+	long end(T element) {
+		return end.applyAsLong(element);
+	}
+
+	@Override
+	public Long identity() {
+		return Long.MIN_VALUE;
+	}
+
+	@Override
+	public Long lift(T element, int count) {
+		return end.applyAsLong(element);
+	}
+
+	@Override
+	public Long combine(Long left, Long right) {
+		return left >= right ? left : right;
+	}
+}
@@ -0,0 +1,63 @@
+package ule.edi.tree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Codificacion binaria de los elementos de un arbol, usada por
+ * {@link TreeSnapshot} y {@link DurableTree}.
+ *
+ * @param <T> tipo de los elementos.
+ */
+public interface KeyCodec<T> {
+
+	void write(T elem, DataOutput out) throws IOException;
+
+	T read(DataInput in) throws IOException;
+
+	/**
+	 * Enteros en 4 bytes.
+	 */
+	KeyCodec<Integer> INTEGER = new KeyCodec<Integer>() {
+		@Override
+		public void write(Integer elem, DataOutput out) throws IOException {
+			out.writeInt(elem);
+		}
+
+		@Override
+		public Integer read(DataInput in) throws IOException {
+			return in.readInt();
+		}
+	};
+
+	/**
+	 * Enteros largos en 8 bytes.
+	 */
+	KeyCodec<Long> LONG = new KeyCodec<Long>() {
+		@Override
+		public void write(Long elem, DataOutput out) throws IOException {
+			out.writeLong(elem);
+		}
+
+		@Override
+		public Long read(DataInput in) throws IOException {
+			return in.readLong();
+		}
+	};
+
+	/**
+	 * Cadenas en UTF-8 modificado, de hasta 65535 bytes.
+	 */
+	KeyCodec<String> STRING = new KeyCodec<String>() {
+		@Override
+		public void write(String elem, DataOutput out) throws IOException {
+			out.writeUTF(elem);
+		}
+
+		@Override
+		public String read(DataInput in) throws IOException {
+			return in.readUTF();
+		}
+	};
+}
@@ -0,0 +1,341 @@
+package ule.edi.tree;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Arbol binario de busqueda de elementos long cuyos nodos viven en un
+ * {@link LongNodeStore} en lugar de ser objetos del heap.
+ *
+ * Ofrece las mismas operaciones que {@link BinarySearchTreeImpl} (con
+ * contador de instancias y el mismo criterio de borrado: un nodo con dos hijos
+ * toma el elemento del menor de sus mayores), pero sin etiquetas. Con el
+ * almacen por defecto, {@link OffHeapNodeStore}, los nodos estan en memoria
+ * directa y el arbol son unos pocos objetos para el recolector de basura, sea
+ * cual sea su tamaño. Los elementos int se guardan como long.
+ *
+ * El arbol es dueño de su almacen: {@link #close()} lo cierra y despues
+ * cualquier operacion dispara IllegalStateException. No es seguro usarlo
+ * desde varios hilos a la vez.
+ */
+public class LongBinarySearchTree implements AutoCloseable, Iterable<Long> {
+
+	private static final int NIL = LongNodeStore.NIL;
+
+	private LongNodeStore store;
+
+	/**
+	 * Crea un arbol vacio en memoria fuera del heap.
+	 */
+	public LongBinarySearchTree() {
+		this(new OffHeapNodeStore());
+	}
+
+	/**
+	 * Crea un arbol sobre el almacen dado, que puede contener ya un arbol.
+	 *
+	 * @throws IllegalArgumentException si store es null
+	 */
+	public LongBinarySearchTree(LongNodeStore store) {
+		if (store == null)
+			throw new IllegalArgumentException();
+		this.store = store;
+	}
+
+	private LongNodeStore store() {
+		if (store == null)
+			throw new IllegalStateException("tree is closed");
+		return store;
+	}
+
+	/**
+	 * Nodo con el elemento, o NIL si no esta.
+	 */
+	private int findNode(long element) {
+		LongNodeStore s = store();
+		int nodo = s.getRoot();
+		while (nodo != NIL) {
+			long key = s.getKey(nodo);
+			if (key == element) {
+				return nodo;
+			}
+			nodo = key > element ? s.getLeft(nodo) : s.getRight(nodo);
+		}
+		return NIL;
+	}
+
+	/**
+	 * Inserta una instancia del elemento.
+	 *
+	 * @return true si se inserto en un nuevo nodo, false si ya estaba y solo
+	 *         se incremento su contador
+	 */
+	public boolean insert(long element) {
+		LongNodeStore s = store();
+		int father = NIL;
+		int nodo = s.getRoot();
+		boolean left = false;
+		while (nodo != NIL) {
+			long key = s.getKey(nodo);
+			if (key == element) {
+				s.setCount(nodo, s.getCount(nodo) + 1);
+				return false;
+			}
+			father = nodo;
+			left = key > element;
+			nodo = left ? s.getLeft(nodo) : s.getRight(nodo);
+		}
+
+		nodo = s.allocate();
+		s.setKey(nodo, element);
+		s.setCount(nodo, 1);
+		s.setFather(nodo, father);
+		if (father == NIL) {
+			s.setRoot(nodo);
+		} else if (left) {
+			s.setLeft(father, nodo);
+		} else {
+			s.setRight(father, nodo);
+		}
+		return true;
+	}
+
+	/**
+	 * Inserta una instancia de cada elemento.
+	 *
+	 * @return numero de elementos insertados
+	 */
+	public int insert(long... elements) {
+		for (long e : elements) {
+			insert(e);
+		}
+		return elements.length;
+	}
+
+	/**
+	 * Busca el elemento en el arbol.
+	 */
+	public boolean contains(long element) {
+		return findNode(element) != NIL;
+	}
+
+	/**
+	 * Devuelve el numero de instancias del elemento, 0 si no esta.
+	 */
+	public int getCount(long element) {
+		int nodo = findNode(element);
+		return nodo == NIL ? 0 : store.getCount(nodo);
+	}
+
+	/**
+	 * Elimina una instancia del elemento.
+	 *
+	 * @throws NoSuchElementException si el elemento no esta en el arbol
+	 */
+	public void remove(long element) {
+		remove(element, 1);
+	}
+
+	/**
+	 * Decrementa el numero de instancias del elemento en num unidades; si
+	 * queda en cero o negativo, se elimina el elemento del arbol.
+	 *
+	 * @throws NoSuchElementException si el elemento no esta en el arbol
+	 */
+	public void remove(long element, int num) {
+		int nodo = findNode(element);
+		if (nodo == NIL)
+			throw new NoSuchElementException();
+
+		int count = store.getCount(nodo) - num;
+		if (count <= 0) {
+			removeNode(nodo);
+		} else {
+			store.setCount(nodo, count);
+		}
+	}
+
+	/**
+	 * Elimina todas las instancias del elemento.
+	 *
+	 * @return numero de instancias eliminadas
+	 * @throws NoSuchElementException si el elemento no esta en el arbol
+	 */
+	public int removeAll(long element) {
+		int nodo = findNode(element);
+		if (nodo == NIL)
+			throw new NoSuchElementException();
+
+		int count = store.getCount(nodo);
+		removeNode(nodo);
+		return count;
+	}
+
+	/**
+	 * Quita el nodo del arbol y libera el que deja de usarse.
+	 */
+	private void removeNode(int nodo) {
+		LongNodeStore s = store;
+		if (s.getLeft(nodo) != NIL && s.getRight(nodo) != NIL) {
+			int sucesor = s.getRight(nodo);
+			while (s.getLeft(sucesor) != NIL) {
+				sucesor = s.getLeft(sucesor);
+			}
+			s.setKey(nodo, s.getKey(sucesor));
+			s.setCount(nodo, s.getCount(sucesor));
+			nodo = sucesor;
+		}
+
+		int hijo = s.getLeft(nodo) != NIL ? s.getLeft(nodo) : s.getRight(nodo);
+		int father = s.getFather(nodo);
+		if (hijo != NIL) {
+			s.setFather(hijo, father);
+		}
+		if (father == NIL) {
+			s.setRoot(hijo);
+		} else if (s.getLeft(father) == nodo) {
+			s.setLeft(father, hijo);
+		} else {
+			s.setRight(father, hijo);
+		}
+		s.free(nodo);
+	}
+
+	private int firstNode(int nodo) {
+		while (store.getLeft(nodo) != NIL) {
+			nodo = store.getLeft(nodo);
+		}
+		return nodo;
+	}
+
+	private int successor(int nodo) {
+		LongNodeStore s = store();
+		if (s.getRight(nodo) != NIL) {
+			return firstNode(s.getRight(nodo));
+		}
+		int father = s.getFather(nodo);
+		while (father != NIL && s.getRight(father) == nodo) {
+			nodo = father;
+			father = s.getFather(nodo);
+		}
+		return father;
+	}
+
+	/**
+	 * Numero de elementos diferentes del arbol.
+	 */
+	public int size() {
+		int rx = 0;
+		for (int nodo = first(); nodo != NIL; nodo = successor(nodo)) {
+			rx++;
+		}
+		return rx;
+	}
+
+	/**
+	 * Numero total de instancias de elementos del arbol.
+	 */
+	public long instancesCount() {
+		long rx = 0;
+		for (int nodo = first(); nodo != NIL; nodo = successor(nodo)) {
+			rx += store.getCount(nodo);
+		}
+		return rx;
+	}
+
+	private int first() {
+		int root = store().getRoot();
+		return root == NIL ? NIL : firstNode(root);
+	}
+
+	/**
+	 * Indica si el arbol no tiene elementos.
+	 */
+	public boolean isEmpty() {
+		return store().getRoot() == NIL;
+	}
+
+	/**
+	 * Devuelve el camino de Ls y Rs desde la raiz hasta el elemento.
+	 *
+	 * @throws NoSuchElementException si el elemento no esta en el arbol
+	 */
+	public String getPath(long elem) {
+		LongNodeStore s = store();
+		StringBuffer rx = new StringBuffer();
+		int nodo = s.getRoot();
+		while (nodo != NIL) {
+			long key = s.getKey(nodo);
+			if (key == elem) {
+				return rx.toString();
+			}
+			boolean left = key > elem;
+			rx.append(left ? 'L' : 'R');
+			nodo = left ? s.getLeft(nodo) : s.getRight(nodo);
+		}
+		throw new NoSuchElementException();
+	}
+
+	/**
+	 * Recorre los elementos en orden ascendente, sin tener en cuenta el
+	 * numero de instancias. No se puede modificar el arbol mientras se
+	 * recorre.
+	 */
+	@Override
+	public PrimitiveIterator.OfLong iterator() {
+		return new PrimitiveIterator.OfLong() {
+			private int nodo = first();
+
+			@Override
+			public boolean hasNext() {
+				return nodo != NIL;
+			}
+
+			@Override
+			public long nextLong() {
+				if (nodo == NIL)
+					throw new NoSuchElementException();
+				long rx = store().getKey(nodo);
+				nodo = successor(nodo);
+				return rx;
+			}
+		};
+	}
+
+	/**
+	 * Mismo formato que {@link BinarySearchTreeImpl#toString()}, sin etiquetas.
+	 */
+	@Override
+	public String toString() {
+		StringBuffer rx = new StringBuffer();
+		render(store().getRoot(), rx);
+		return rx.toString();
+	}
+
+	private void render(int nodo, StringBuffer rx) {
+		if (nodo == NIL) {
+			rx.append(AbstractTreeADT.EMPTY_TREE_MARK);
+			return;
+		}
+		rx.append('{').append(store.getKey(nodo));
+		if (store.getCount(nodo) > 1) {
+			rx.append('(').append(store.getCount(nodo)).append(')');
+		}
+		rx.append(", ");
+		render(store.getLeft(nodo), rx);
+		rx.append(", ");
+		render(store.getRight(nodo), rx);
+		rx.append('}');
+	}
+
+	/**
+	 * Cierra el almacen de nodos. Se puede llamar varias veces.
+	 */
+	@Override
+	public void close() {
+		if (store != null) {
+			store.close();
+			store = null;
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package ule.edi.tree;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LongBinarySearchTreeTests {
+
+	/*
+	 * {50, {30(2), {10, ∅, ∅}, {40(4), ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}
+	 */
+	private LongBinarySearchTree ejemplo = null;
+
+	@Before
+	public void setupLongTrees() {
+		ejemplo = new LongBinarySearchTree();
+		ejemplo.insert(50, 30, 30, 10, 40, 40, 40, 40, 80, 80, 60);
+		Assert.assertEquals("{50, {30(2), {10, ∅, ∅}, {40(4), ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}", ejemplo.toString());
+	}
+
+	@After
+	public void closeLongTrees() {
+		ejemplo.close();
+	}
+
+	@Test
+	public void testConsultas() {
+		Assert.assertTrue(ejemplo.contains(40));
+		Assert.assertFalse(ejemplo.contains(45));
+		Assert.assertEquals(4, ejemplo.getCount(40));
+		Assert.assertEquals(0, ejemplo.getCount(45));
+		Assert.assertEquals(6, ejemplo.size());
+		Assert.assertEquals(11, ejemplo.instancesCount());
+		Assert.assertEquals("LR", ejemplo.getPath(40));
+		Assert.assertEquals("", ejemplo.getPath(50));
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testGetPathNoExiste() {
+		ejemplo.getPath(100);
+	}
+
+	@Test
+	public void testRemove() {
+		ejemplo.remove(30);
+		Assert.assertEquals(1, ejemplo.getCount(30));
+		ejemplo.remove(30);
+		Assert.assertEquals("{50, {40(4), {10, ∅, ∅}, ∅}, {80(2), {60, ∅, ∅}, ∅}}", ejemplo.toString());
+		Assert.assertEquals(2, ejemplo.removeAll(80));
+		ejemplo.remove(50, 5);
+		Assert.assertEquals("{60, {40(4), {10, ∅, ∅}, ∅}, ∅}", ejemplo.toString());
+		ejemplo.removeAll(60);
+		Assert.assertEquals("{40(4), {10, ∅, ∅}, ∅}", ejemplo.toString());
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testRemoveNoExiste() {
+		ejemplo.remove(45);
+	}
+
+	@Test
+	public void testReutilizaNodos() {
+		OffHeapNodeStore store = new OffHeapNodeStore();
+		LongBinarySearchTree arbol = new LongBinarySearchTree(store);
+		for (long i = 0; i < 100000; i++) {
+			arbol.insert(i * 7919 % 100003);
+		}
+		long reservados = store.reservedBytes();
+		for (long i = 0; i < 100000; i++) {
+			arbol.removeAll(i * 7919 % 100003);
+		}
+		Assert.assertTrue(arbol.isEmpty());
+		// otras claves, en el mismo orden disperso para no degenerar el arbol
+		for (long i = 0; i < 100000; i++) {
+			arbol.insert(-(i * 7919 % 100003));
+		}
+		Assert.assertEquals(reservados, store.reservedBytes());
+		arbol.close();
+		Assert.assertEquals(0, store.reservedBytes());
+	}
+
+	@Test
+	public void testIteradorOrdenado() {
+		PrimitiveIterator.OfLong it = ejemplo.iterator();
+		long[] esperado = {10, 30, 40, 50, 60, 80};
+		for (long e : esperado) {
+			Assert.assertTrue(it.hasNext());
+			Assert.assertEquals(e, it.nextLong());
+		}
+		Assert.assertFalse(it.hasNext());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCerrado() {
+		ejemplo.close();
+		ejemplo.contains(50);
+	}
+}
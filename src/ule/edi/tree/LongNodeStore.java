@@ -0,0 +1,68 @@
+package ule.edi.tree;
+
+import java.io.Closeable;
+
+/**
+ * Almacen de nodos de tamaño fijo para {@link LongBinarySearchTree}.
+ *
+ * Cada nodo se identifica por un entero positivo y guarda un elemento long,
+ * su contador de instancias y los identificadores de su hijo izquierdo, su
+ * hijo derecho y su padre. El identificador {@link #NIL} (0) hace de arbol
+ * vacio y de "sin padre".
+ *
+ * Las implementaciones deciden donde viven los nodos (memoria fuera del heap,
+ * fichero, ...) y que pasa al cerrarlas; tras {@link #close()} ninguna
+ * operacion es valida.
+ */
+public interface LongNodeStore extends Closeable {
+
+	/**
+	 * Identificador que no corresponde a ningun nodo.
+	 */
+	int NIL = 0;
+
+	/**
+	 * Reserva un nodo con todos sus campos a cero.
+	 *
+	 * @return identificador del nuevo nodo, siempre distinto de NIL
+	 */
+	int allocate();
+
+	/**
+	 * Libera un nodo; su identificador puede volver a usarse.
+	 */
+	void free(int id);
+
+	long getKey(int id);
+
+	void setKey(int id, long key);
+
+	int getCount(int id);
+
+	void setCount(int id, int count);
+
+	int getLeft(int id);
+
+	void setLeft(int id, int left);
+
+	int getRight(int id);
+
+	void setRight(int id, int right);
+
+	int getFather(int id);
+
+	void setFather(int id, int father);
+
+	/**
+	 * Identificador del nodo raiz, NIL si el arbol es vacio.
+	 */
+	int getRoot();
+
+	void setRoot(int root);
+
+	/**
+	 * Libera los recursos del almacen.
+	 */
+	@Override
+	void close();
+}
@@ -0,0 +1,29 @@
+package ule.edi.tree;
+
+/**
+ * Clave de etiqueta con valor long, guardado sin convertir a Long.
+ *
+ * @see AbstractTreeADT#setTag(LongTagKey, long)
+ * @see AbstractTreeADT#getTag(LongTagKey, long)
+ */
+public final class LongTagKey extends TagKey<Long> {
+
+	LongTagKey(String name, int slot) {
+		super(name, Long.class, slot);
+	}
+
+	/**
+	 * Devuelve la clave long registrada con ese nombre, creandola si no
+	 * existe.
+	 *
+	 * @throws IllegalArgumentException si name es null o el nombre ya esta
+	 *         registrado con otro tipo
+	 * @throws IllegalStateException si ya hay {@link TagKey#MAX_SLOTS} claves
+	 *         con valor primitivo
+	 */
+	public static LongTagKey of(String name) {
+		if (name == null)
+			throw new IllegalArgumentException();
+		return (LongTagKey) register(name, Long.class, true);
+	}
+}
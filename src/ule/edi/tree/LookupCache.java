@@ -0,0 +1,317 @@
+package ule.edi.tree;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cache de busquedas de un {@link BinarySearchTreeImpl}: guarda, para los
+ * elementos mas consultados, el nodo que los contiene, de modo que contains y
+ * getElem no tienen que bajar desde la raiz.
+ *
+ * La expulsion es LFU en O(1): las entradas se agrupan en cubos por numero de
+ * accesos, los cubos forman una lista ordenada por ese numero y cada acceso
+ * mueve la entrada al cubo siguiente. Cuando la cache esta llena se expulsa,
+ * del cubo con menos accesos, la entrada que lleva mas tiempo en el.
+ *
+ * Los contadores envejecen: cada {@link #AGING_PERIOD} * capacidad accesos se
+ * dividen todos entre 2 (sin bajar de 1), juntando los cubos que quedan con
+ * el mismo numero. Asi un elemento que fue muy consultado y ya no lo es
+ * acaba saliendo, en lugar de ocupar su sitio para siempre mientras los
+ * nuevos elementos populares se expulsan unos a otros en el cubo de 1. El
+ * reparto cuesta O(entradas) y se amortiza en O(1) por acceso.
+ *
+ * Las entradas se localizan con equals/hashCode del elemento, pero el arbol
+ * comprueba en cada acierto que el nodo sigue en el arbol y que su contenido
+ * es igual (compareTo) al buscado; si no, la entrada se descarta y se busca
+ * normalmente. Ademas el arbol invalida las entradas de los elementos que
+ * elimina o cambia de nodo al borrar.
+ *
+ * Se activa con {@link BinarySearchTreeImpl#enableLookupCache(int)}.
+ *
+ * @param <T> tipo de la informacion en cada nodo, comparable.
+ */
+public final class LookupCache<T extends Comparable<? super T>> {
+
+	/**
+	 * Accesos entre dos envejecimientos, por cada entrada de capacidad.
+	 */
+	public static final int AGING_PERIOD = 10;
+
+	private static final class Entry<T extends Comparable<? super T>> {
+		final T key;
+		BinarySearchTreeImpl<T> node;
+		Bucket<T> bucket;
+		Entry<T> prev;
+		Entry<T> next;
+
+		Entry(T key, BinarySearchTreeImpl<T> node) {
+			this.key = key;
+			this.node = node;
+		}
+	}
+
+	/**
+	 * Entradas con el mismo numero de accesos, de la mas reciente (head) a la
+	 * mas antigua (tail).
+	 */
+	private static final class Bucket<T extends Comparable<? super T>> {
+		long freq;
+		Bucket<T> prev;
+		Bucket<T> next;
+		Entry<T> head;
+		Entry<T> tail;
+
+		Bucket(long freq) {
+			this.freq = freq;
+		}
+
+		void addFirst(Entry<T> e) {
+			e.bucket = this;
+			e.prev = null;
+			e.next = head;
+			if (head != null) {
+				head.prev = e;
+			} else {
+				tail = e;
+			}
+			head = e;
+		}
+
+		void unlink(Entry<T> e) {
+			if (e.prev != null) {
+				e.prev.next = e.next;
+			} else {
+				head = e.next;
+			}
+			if (e.next != null) {
+				e.next.prev = e.prev;
+			} else {
+				tail = e.prev;
+			}
+			e.prev = null;
+			e.next = null;
+		}
+	}
+
+	private final int capacity;
+	private final Map<T, Entry<T>> entries;
+	private Bucket<T> lowest; // cubo con menos accesos
+	private final long agingPeriod;
+	private long accesses; // desde el ultimo envejecimiento
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	LookupCache(int capacity) {
+		this.capacity = capacity;
+		this.agingPeriod = (long) AGING_PERIOD * capacity;
+		this.entries = new HashMap<T, Entry<T>>(initialCapacity(capacity));
+	}
+
+	/**
+	 * Nodo guardado para key, sin comprobar, o null si no esta. Anota el
+	 * acceso si lo encuentra.
+	 */
+	private static int initialCapacity(int capacity) {
+		return Math.min(capacity, 1 << 16) * 2;
+	}
+
+	BinarySearchTreeImpl<T> get(T key) {
+		Entry<T> e = entries.get(key);
+		if (e == null) {
+			return null;
+		}
+		touch(e);
+		return e.node;
+	}
+
+	void recordHit() {
+		hits++;
+	}
+
+	void recordMiss() {
+		misses++;
+	}
+
+	/**
+	 * Guarda el nodo de key, expulsando una entrada si hace falta.
+	 */
+	void put(T key, BinarySearchTreeImpl<T> node) {
+		Entry<T> e = entries.get(key);
+		if (e != null) {
+			e.node = node;
+			return;
+		}
+		countAccess();
+		if (entries.size() >= capacity) {
+			Entry<T> victima = lowest.tail;
+			remove(victima);
+			evictions++;
+		}
+		e = new Entry<T>(key, node);
+		entries.put(key, e);
+		if (lowest == null || lowest.freq != 1) {
+			Bucket<T> b = new Bucket<T>(1);
+			b.next = lowest;
+			if (lowest != null) {
+				lowest.prev = b;
+			}
+			lowest = b;
+		}
+		lowest.addFirst(e);
+	}
+
+	/**
+	 * Quita la entrada de key, si la hay.
+	 */
+	void invalidate(T key) {
+		Entry<T> e = entries.get(key);
+		if (e != null) {
+			remove(e);
+		}
+	}
+
+	void clear() {
+		entries.clear();
+		lowest = null;
+	}
+
+	private void touch(Entry<T> e) {
+		countAccess();
+		Bucket<T> actual = e.bucket;
+		Bucket<T> siguiente = actual.next;
+		if (siguiente == null || siguiente.freq != actual.freq + 1) {
+			siguiente = new Bucket<T>(actual.freq + 1);
+			siguiente.prev = actual;
+			siguiente.next = actual.next;
+			if (actual.next != null) {
+				actual.next.prev = siguiente;
+			}
+			actual.next = siguiente;
+		}
+		actual.unlink(e);
+		siguiente.addFirst(e);
+		if (actual.head == null) {
+			unlinkBucket(actual);
+		}
+	}
+
+	private void countAccess() {
+		if (++accesses >= agingPeriod) {
+			accesses = 0;
+			age();
+		}
+	}
+
+	/**
+	 * Divide entre 2 el numero de accesos de cada cubo. Los cubos siguen en
+	 * orden; los que coinciden se juntan, con las entradas del que tenia mas
+	 * accesos delante (mas lejos de ser expulsadas).
+	 */
+	private void age() {
+		Bucket<T> anterior = null;
+		for (Bucket<T> b = lowest; b != null;) {
+			Bucket<T> siguiente = b.next;
+			b.freq = Math.max(1, b.freq / 2);
+			if (anterior != null && anterior.freq == b.freq) {
+				for (Entry<T> e = b.head; e != null; e = e.next) {
+					e.bucket = anterior;
+				}
+				b.tail.next = anterior.head;
+				anterior.head.prev = b.tail;
+				anterior.head = b.head;
+				anterior.next = siguiente;
+				if (siguiente != null) {
+					siguiente.prev = anterior;
+				}
+			} else {
+				anterior = b;
+			}
+			b = siguiente;
+		}
+	}
+
+	private void remove(Entry<T> e) {
+		entries.remove(e.key);
+		Bucket<T> b = e.bucket;
+		b.unlink(e);
+		if (b.head == null) {
+			unlinkBucket(b);
+		}
+	}
+
+	private void unlinkBucket(Bucket<T> b) {
+		if (b.prev != null) {
+			b.prev.next = b.next;
+		} else {
+			lowest = b.next;
+		}
+		if (b.next != null) {
+			b.next.prev = b.prev;
+		}
+	}
+
+	/**
+	 * Numero maximo de entradas.
+	 */
+	/**
+	 * Bytes de la cache: el mapa, una entrada por elemento guardado y los
+	 * cubos de frecuencias, sin los elementos ni los nodos.
+	 */
+	long memoryBytes() {
+		long rx = MemoryFootprint.shallowSize(LookupCache.class)
+				+ MemoryFootprint.hashMapBytes(entries, initialCapacity(capacity))
+				+ entries.size() * MemoryFootprint.shallowSize(Entry.class);
+		for (Bucket<T> b = lowest; b != null; b = b.next) {
+			rx += MemoryFootprint.shallowSize(Bucket.class);
+		}
+		return rx;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Numero actual de entradas.
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Busquedas resueltas por la cache.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Busquedas que han tenido que bajar por el arbol.
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Entradas expulsadas por falta de sitio.
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Proporcion de aciertos, 0 si no ha habido busquedas.
+	 */
+	public double getHitRate() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	public void resetStats() {
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+}
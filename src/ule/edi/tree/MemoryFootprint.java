@@ -0,0 +1,363 @@
+package ule.edi.tree;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bytes de memoria que ocupa un arbol, por partes, estimados con un modelo
+ * de la disposicion de los objetos en la maquina virtual.
+ *
+ * Cada objeto ocupa una cabecera mas sus campos de instancia (los de sus
+ * superclases incluidos), redondeado a multiplo de 8; los arrays, su
+ * cabecera mas longitud por el tamaño de cada casilla. Los campos se leen
+ * por reflexion, asi que el modelo sigue al codigo cuando los nodos ganan o
+ * pierden campos. En una maquina de 64 bits con menos de 32 GB de heap se
+ * suponen referencias comprimidas (4 bytes y cabecera de 12); si no, de 8
+ * bytes y cabecera de 16. No se tiene en cuenta el relleno entre campos que
+ * pueda añadir la maquina virtual, solo el final.
+ *
+ * No se cuentan los elementos, que pertenecen a quien los inserta, ni las
+ * claves de etiqueta compartidas con otros arboles mas que una vez por
+ * arbol. Del contexto de la raiz se cuentan, aparte, las estructuras que
+ * crea el propio arbol (indice de counts, cache, metricas, dedos y lista de
+ * oyentes), pero no los oyentes ni los agregados que registra quien lo usa.
+ *
+ * Se obtiene con {@link BinarySearchTreeImpl#memoryFootprint()} y
+ * {@link FrozenSearchTree#memoryFootprint()}.
+ */
+public final class MemoryFootprint {
+
+	static final int REFERENCE_BYTES;
+	static final int HEADER_BYTES;
+	static final int ARRAY_HEADER_BYTES;
+
+	static {
+		boolean bits64 = !"32".equals(System.getProperty("sun.arch.data.model"));
+		boolean comprimidas = !bits64 || Runtime.getRuntime().maxMemory() < (32L << 30);
+		REFERENCE_BYTES = comprimidas ? 4 : 8;
+		HEADER_BYTES = !bits64 ? 8 : comprimidas ? 12 : 16;
+		ARRAY_HEADER_BYTES = (int) align(HEADER_BYTES + 4);
+	}
+
+	private static final Map<Class<?>, Long> SHALLOW = new ConcurrentHashMap<Class<?>, Long>();
+
+	private final long nodes;
+	private final long nodeBytes;
+	private final long sentinels;
+	private final long sentinelBytes;
+	private final long tagMaps;
+	private final long tagMapBytes;
+	private final long tagKeys;
+	private final long tagKeyBytes;
+	private final long slotArrays;
+	private final long slotBytes;
+	private final long contextBytes;
+	private final long otherBytes;
+
+	MemoryFootprint(long nodes, long nodeBytes, long sentinels, long sentinelBytes, long tagMaps, long tagMapBytes,
+			long tagKeys, long tagKeyBytes, long slotArrays, long slotBytes, long contextBytes, long otherBytes) {
+		this.nodes = nodes;
+		this.nodeBytes = nodeBytes;
+		this.sentinels = sentinels;
+		this.sentinelBytes = sentinelBytes;
+		this.tagMaps = tagMaps;
+		this.tagMapBytes = tagMapBytes;
+		this.tagKeys = tagKeys;
+		this.tagKeyBytes = tagKeyBytes;
+		this.slotArrays = slotArrays;
+		this.slotBytes = slotBytes;
+		this.contextBytes = contextBytes;
+		this.otherBytes = otherBytes;
+	}
+
+	/**
+	 * Numero de nodos con elemento (elementos distintos).
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Bytes de los nodos con elemento, sin sus etiquetas.
+	 */
+	public long getNodeBytes() {
+		return nodeBytes;
+	}
+
+	/**
+	 * Numero de nodos vacios que hacen de arbol vacio.
+	 */
+	public long getSentinels() {
+		return sentinels;
+	}
+
+	public long getSentinelBytes() {
+		return sentinelBytes;
+	}
+
+	/**
+	 * Numero de nodos con mapa de etiquetas.
+	 */
+	public long getTagMaps() {
+		return tagMaps;
+	}
+
+	/**
+	 * Bytes de los mapas de etiquetas: el mapa, su tabla, sus entradas y los
+	 * valores Integer y Long que no estan en la cache de la maquina virtual.
+	 */
+	public long getTagMapBytes() {
+		return tagMapBytes;
+	}
+
+	/**
+	 * Numero de claves de etiqueta distintas (por identidad) en los mapas.
+	 */
+	public long getTagKeys() {
+		return tagKeys;
+	}
+
+	public long getTagKeyBytes() {
+		return tagKeyBytes;
+	}
+
+	/**
+	 * Numero de nodos con etiquetas de valor primitivo.
+	 */
+	public long getSlotArrays() {
+		return slotArrays;
+	}
+
+	public long getSlotBytes() {
+		return slotBytes;
+	}
+
+	/**
+	 * Bytes del contexto de la raiz y de las estructuras que cuelgan de el:
+	 * indice de counts, cache de busquedas, metricas, dedos y lista de
+	 * oyentes.
+	 */
+	public long getContextBytes() {
+		return contextBytes;
+	}
+
+	/**
+	 * Bytes del resto de estructuras: los agregados de cada nodo, o los
+	 * arrays de un arbol congelado.
+	 */
+	public long getOtherBytes() {
+		return otherBytes;
+	}
+
+	public long getTotalBytes() {
+		return nodeBytes + sentinelBytes + tagMapBytes + tagKeyBytes + slotBytes + contextBytes + otherBytes;
+	}
+
+	/**
+	 * Bytes totales por elemento distinto, 0 si no hay ninguno.
+	 */
+	public double getBytesPerElement() {
+		return nodes == 0 ? 0 : (double) getTotalBytes() / nodes;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder rx = new StringBuilder();
+		line(rx, "nodos", nodes, nodeBytes);
+		line(rx, "centinelas", sentinels, sentinelBytes);
+		line(rx, "mapas de etiquetas", tagMaps, tagMapBytes);
+		line(rx, "claves de etiquetas", tagKeys, tagKeyBytes);
+		line(rx, "etiquetas primitivas", slotArrays, slotBytes);
+		line(rx, "contexto", -1, contextBytes);
+		line(rx, "otros", -1, otherBytes);
+		rx.append(String.format("%-21s %10s %12d  (%.1f por elemento)", "total", "", getTotalBytes(),
+				getBytesPerElement()));
+		return rx.toString();
+	}
+
+	private static void line(StringBuilder rx, String parte, long objetos, long bytes) {
+		rx.append(String.format("%-21s %10s %12d%n", parte, objetos < 0 ? "" : Long.toString(objetos), bytes));
+	}
+
+	static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	/**
+	 * Bytes de un objeto de la clase sin contar los objetos a los que
+	 * apunta.
+	 */
+	static long shallowSize(Class<?> clase) {
+		Long rx = SHALLOW.get(clase);
+		if (rx == null) {
+			long campos = 0;
+			for (Class<?> c = clase; c != null; c = c.getSuperclass()) {
+				for (Field f : c.getDeclaredFields()) {
+					if (!Modifier.isStatic(f.getModifiers())) {
+						campos += fieldSize(f.getType());
+					}
+				}
+			}
+			rx = align(HEADER_BYTES + campos);
+			SHALLOW.put(clase, rx);
+		}
+		return rx;
+	}
+
+	private static int fieldSize(Class<?> tipo) {
+		if (!tipo.isPrimitive()) {
+			return REFERENCE_BYTES;
+		}
+		if (tipo == long.class || tipo == double.class) {
+			return 8;
+		}
+		if (tipo == int.class || tipo == float.class) {
+			return 4;
+		}
+		if (tipo == short.class || tipo == char.class) {
+			return 2;
+		}
+		return 1;
+	}
+
+	/**
+	 * Bytes de un array de length casillas de elementBytes bytes.
+	 */
+	static long arrayBytes(int length, int elementBytes) {
+		return align(ARRAY_HEADER_BYTES + (long) length * elementBytes);
+	}
+
+	static long referenceArrayBytes(int length) {
+		return arrayBytes(length, REFERENCE_BYTES);
+	}
+
+	/**
+	 * Bytes de un valor de etiqueta o agregado: los Integer y Long fuera de
+	 * la cache de valores pequeños y la cabecera y campos de cualquier otro
+	 * objeto, sin seguir sus referencias.
+	 */
+	static long valueBytes(Object valor) {
+		if (valor == null || valor instanceof Boolean) {
+			return 0;
+		}
+		if (valor instanceof Integer || valor instanceof Long) {
+			long v = ((Number) valor).longValue();
+			return v >= -128 && v <= 127 ? 0 : shallowSize(valor.getClass());
+		}
+		if (valor instanceof String) {
+			return stringBytes((String) valor);
+		}
+		return shallowSize(valor.getClass());
+	}
+
+	/**
+	 * Bytes de una cadena con un byte por caracter (Latin-1).
+	 */
+	static long stringBytes(String s) {
+		return shallowSize(String.class) + arrayBytes(s.length(), 1);
+	}
+
+	/**
+	 * Bytes de un HashMap con size entradas creado vacio: la tabla empieza en
+	 * 16 casillas al añadir la primera y dobla al pasar de 3/4 de llena.
+	 */
+	static long hashMapBytes(Map<?, ?> mapa) {
+		return hashMapBytes(mapa, 16);
+	}
+
+	/**
+	 * Bytes de un HashMap creado con la capacidad inicial dada: la tabla
+	 * empieza en la potencia de 2 que la cubre.
+	 */
+	static long hashMapBytes(Map<?, ?> mapa, int initialCapacity) {
+		int size = mapa.size();
+		long rx = shallowSize(mapa.getClass());
+		if (size > 0) {
+			int tabla = 1;
+			while (tabla < initialCapacity) {
+				tabla *= 2;
+			}
+			while (size > tabla * 3 / 4) {
+				tabla *= 2;
+			}
+			// cada entrada: hash, clave, valor y siguiente
+			long entrada = align(HEADER_BYTES + 4 + 3 * REFERENCE_BYTES);
+			rx += referenceArrayBytes(tabla) + size * entrada;
+		}
+		return rx;
+	}
+
+	/**
+	 * Bytes de un TreeSet: el conjunto, su TreeMap y una entrada del mapa
+	 * (clave, valor, tres enlaces y color) por elemento.
+	 */
+	static long treeSetBytes(TreeSet<?> conjunto) {
+		long entrada = align(HEADER_BYTES + 5 * REFERENCE_BYTES + 1);
+		return shallowSize(TreeSet.class) + shallowSize(TreeMap.class) + conjunto.size() * entrada;
+	}
+
+	/**
+	 * Acumula las partes de un arbol de nodos visitados uno a uno.
+	 */
+	static final class Builder {
+		private long nodes;
+		private long nodeBytes;
+		private long sentinels;
+		private long sentinelBytes;
+		private long tagMaps;
+		private long tagMapBytes;
+		private long slotArrays;
+		private long slotBytes;
+		private long contextBytes;
+		private long otherBytes;
+		private final IdentityHashMap<String, Boolean> keys = new IdentityHashMap<String, Boolean>();
+
+		void node(AbstractTreeADT<?> nodo, boolean vacio) {
+			long bytes = shallowSize(nodo.getClass());
+			if (vacio) {
+				sentinels++;
+				sentinelBytes += bytes;
+			} else {
+				nodes++;
+				nodeBytes += bytes;
+			}
+			if (nodo.tags != null) {
+				tagMaps++;
+				tagMapBytes += hashMapBytes(nodo.tags);
+				for (Map.Entry<String, Object> e : nodo.tags.entrySet()) {
+					// setTag admite la clave null, que no ocupa nada
+					if (e.getKey() != null) {
+						keys.put(e.getKey(), Boolean.TRUE);
+					}
+					tagMapBytes += valueBytes(e.getValue());
+				}
+			}
+			if (nodo.slots != null) {
+				slotArrays++;
+				slotBytes += arrayBytes(nodo.slots.length, 8);
+			}
+		}
+
+		void context(long bytes) {
+			contextBytes += bytes;
+		}
+
+		void other(long bytes) {
+			otherBytes += bytes;
+		}
+
+		MemoryFootprint build() {
+			long keyBytes = 0;
+			for (String k : keys.keySet()) {
+				keyBytes += stringBytes(k);
+			}
+			return new MemoryFootprint(nodes, nodeBytes, sentinels, sentinelBytes, tagMaps, tagMapBytes, keys.size(),
+					keyBytes, slotArrays, slotBytes, contextBytes, otherBytes);
+		}
+	}
+}
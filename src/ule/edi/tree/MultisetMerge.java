@@ -0,0 +1,222 @@
+package ule.edi.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Mezcla ordenada de dos arboles para las operaciones de
+ * {@link MultisetOperation}.
+ *
+ * Se vuelca cada arbol en inorden a una secuencia de pares (elemento, count),
+ * se mezclan ambas secuencias en O(m + n) y con el resultado se construye un
+ * arbol equilibrado. Para entradas grandes, la mezcla y la construccion se
+ * pueden repartir con fork/join: se parte la secuencia mayor por su mediana,
+ * la otra por la posicion de esa mediana, y cada mitad se procesa por
+ * separado.
+ *
+ * @param <T> tipo de la informacion en cada nodo, comparable.
+ */
+final class MultisetMerge<T extends Comparable<? super T>> {
+
+	/**
+	 * Por debajo de este numero de elementos no compensa repartir el trabajo.
+	 */
+	static final int PARALLEL_THRESHOLD = 1 << 13;
+
+	final List<T> keys;
+	int[] counts;
+
+	MultisetMerge(int capacidad) {
+		this.keys = new ArrayList<T>(capacidad);
+		this.counts = new int[Math.max(capacidad, 4)];
+	}
+
+	int size() {
+		return keys.size();
+	}
+
+	void add(T key, int count) {
+		if (keys.size() == counts.length) {
+			counts = Arrays.copyOf(counts, counts.length * 2);
+		}
+		counts[keys.size()] = count;
+		keys.add(key);
+	}
+
+	/**
+	 * Vuelca el arbol en inorden siguiendo sucesores, sin recursividad.
+	 */
+	static <T extends Comparable<? super T>> MultisetMerge<T> fromTree(BinarySearchTreeImpl<T> tree) {
+		MultisetMerge<T> runs = new MultisetMerge<T>(16);
+		for (BinarySearchTreeImpl<T> nodo = tree.firstNode(); nodo != null; nodo = nodo.successor()) {
+			runs.add(nodo.content, nodo.count);
+		}
+		return runs;
+	}
+
+	/**
+	 * Mezcla los tramos [alo, ahi) de a y [blo, bhi) de b en out.
+	 */
+	static <T extends Comparable<? super T>> void merge(MultisetMerge<T> a, int alo, int ahi,
+			MultisetMerge<T> b, int blo, int bhi, MultisetOperation op, MultisetMerge<T> out) {
+		int i = alo;
+		int j = blo;
+		while (i < ahi || j < bhi) {
+			int cmp;
+			if (i == ahi) {
+				cmp = 1;
+			} else if (j == bhi) {
+				cmp = -1;
+			} else {
+				cmp = a.keys.get(i).compareTo(b.keys.get(j));
+			}
+
+			T key;
+			int count;
+			if (cmp < 0) {
+				key = a.keys.get(i);
+				count = op.apply(a.counts[i++], 0);
+			} else if (cmp > 0) {
+				key = b.keys.get(j);
+				count = op.apply(0, b.counts[j++]);
+			} else {
+				key = a.keys.get(i);
+				count = op.apply(a.counts[i++], b.counts[j++]);
+			}
+			if (count > 0) {
+				out.add(key, count);
+			}
+		}
+	}
+
+	/**
+	 * Calcula a op b y construye con el resultado un arbol equilibrado.
+	 */
+	static <T extends Comparable<? super T>> BinarySearchTreeImpl<T> combine(BinarySearchTreeImpl<T> a,
+			BinarySearchTreeImpl<T> b, MultisetOperation op, boolean parallel) {
+		MultisetMerge<T> ra = fromTree(a);
+		MultisetMerge<T> rb = fromTree(b);
+		BinarySearchTreeImpl<T> result = new BinarySearchTreeImpl<T>();
+
+		if (!parallel || ra.size() + rb.size() < PARALLEL_THRESHOLD) {
+			MultisetMerge<T> out = new MultisetMerge<T>(ra.size() + rb.size());
+			merge(ra, 0, ra.size(), rb, 0, rb.size(), op, out);
+			result.buildBalanced(out.keys, out.counts, 0, out.size());
+		} else {
+			ForkJoinPool pool = ForkJoinPool.commonPool();
+			List<MultisetMerge<T>> partes = pool.invoke(new MergeTask<T>(ra, 0, ra.size(), rb, 0, rb.size(), op));
+			MultisetMerge<T> out = new MultisetMerge<T>(ra.size() + rb.size());
+			for (MultisetMerge<T> parte : partes) {
+				for (int i = 0; i < parte.size(); i++) {
+					out.add(parte.keys.get(i), parte.counts[i]);
+				}
+			}
+			pool.invoke(new BuildTask<T>(result, out, 0, out.size()));
+		}
+		return result;
+	}
+
+	/**
+	 * Mezcla en paralelo: devuelve los trozos del resultado en orden.
+	 */
+	private static class MergeTask<T extends Comparable<? super T>> extends RecursiveTask<List<MultisetMerge<T>>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final MultisetMerge<T> a;
+		private final int alo, ahi;
+		private final MultisetMerge<T> b;
+		private final int blo, bhi;
+		private final MultisetOperation op;
+
+		MergeTask(MultisetMerge<T> a, int alo, int ahi, MultisetMerge<T> b, int blo, int bhi, MultisetOperation op) {
+			this.a = a;
+			this.alo = alo;
+			this.ahi = ahi;
+			this.b = b;
+			this.blo = blo;
+			this.bhi = bhi;
+			this.op = op;
+		}
+
+		@Override
+		protected List<MultisetMerge<T>> compute() {
+			int total = (ahi - alo) + (bhi - blo);
+			if (total < PARALLEL_THRESHOLD) {
+				MultisetMerge<T> out = new MultisetMerge<T>(total);
+				merge(a, alo, ahi, b, blo, bhi, op, out);
+				List<MultisetMerge<T>> rx = new ArrayList<MultisetMerge<T>>();
+				rx.add(out);
+				return rx;
+			}
+
+			// Se parte por la mediana de la secuencia mas larga
+			MergeTask<T> izq;
+			MergeTask<T> der;
+			if (ahi - alo >= bhi - blo) {
+				int mid = (alo + ahi) >>> 1;
+				int pos = lowerBound(b, blo, bhi, a.keys.get(mid));
+				izq = new MergeTask<T>(a, alo, mid, b, blo, pos, op);
+				der = new MergeTask<T>(a, mid, ahi, b, pos, bhi, op);
+			} else {
+				int mid = (blo + bhi) >>> 1;
+				int pos = lowerBound(a, alo, ahi, b.keys.get(mid));
+				izq = new MergeTask<T>(a, alo, pos, b, blo, mid, op);
+				der = new MergeTask<T>(a, pos, ahi, b, mid, bhi, op);
+			}
+			izq.fork();
+			List<MultisetMerge<T>> rx = der.compute();
+			List<MultisetMerge<T>> lx = izq.join();
+			lx.addAll(rx);
+			return lx;
+		}
+	}
+
+	/**
+	 * Construccion en paralelo: los dos sub-arboles de cada nodo son
+	 * independientes.
+	 */
+	private static class BuildTask<T extends Comparable<? super T>> extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final BinarySearchTreeImpl<T> nodo;
+		private final MultisetMerge<T> runs;
+		private final int lo, hi;
+
+		BuildTask(BinarySearchTreeImpl<T> nodo, MultisetMerge<T> runs, int lo, int hi) {
+			this.nodo = nodo;
+			this.runs = runs;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo < PARALLEL_THRESHOLD) {
+				nodo.buildBalanced(runs.keys, runs.counts, lo, hi);
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			nodo.buildBalanced(runs.keys, runs.counts, mid, mid + 1);
+			invokeAll(new BuildTask<T>(nodo.getLeftBST(), runs, lo, mid),
+					new BuildTask<T>(nodo.getRightBST(), runs, mid + 1, hi));
+		}
+	}
+
+	private static <T extends Comparable<? super T>> int lowerBound(MultisetMerge<T> runs, int lo, int hi, T elem) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (runs.keys.get(mid).compareTo(elem) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
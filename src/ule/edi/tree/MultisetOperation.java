@@ -0,0 +1,49 @@
+package ule.edi.tree;
+
+/**
+ * Operaciones de conjuntos entre dos arboles vistos como multiconjuntos,
+ * donde el atributo count de cada nodo es la multiplicidad del elemento.
+ *
+ * Cada operacion calcula la multiplicidad del resultado a partir de las
+ * multiplicidades en ambos arboles (0 si el elemento no esta).
+ */
+public enum MultisetOperation {
+
+	/** Union: la mayor de las dos multiplicidades. */
+	UNION {
+		@Override
+		int apply(int a, int b) {
+			return Math.max(a, b);
+		}
+	},
+
+	/** Interseccion: la menor de las dos multiplicidades. */
+	INTERSECTION {
+		@Override
+		int apply(int a, int b) {
+			return Math.min(a, b);
+		}
+	},
+
+	/** Diferencia: las instancias del primero que no se cancelan con el segundo. */
+	DIFFERENCE {
+		@Override
+		int apply(int a, int b) {
+			return a - b;
+		}
+	},
+
+	/** Mezcla: la suma de las dos multiplicidades. */
+	MERGE {
+		@Override
+		int apply(int a, int b) {
+			return a + b;
+		}
+	};
+
+	/**
+	 * Multiplicidad del resultado; si es cero o negativa el elemento
+	 * no aparece.
+	 */
+	abstract int apply(int a, int b);
+}
@@ -0,0 +1,155 @@
+package ule.edi.tree;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link LongNodeStore} en memoria directa, fuera del heap de Java.
+ *
+ * Los nodos son registros de {@link #RECORD_BYTES} bytes (elemento, count,
+ * izquierdo, derecho y padre) guardados en bloques de ByteBuffer directos de
+ * {@link #NODES_PER_CHUNK} nodos. Para el recolector de basura el almacen
+ * completo son unos pocos objetos, tenga los nodos que tenga, y crecer solo
+ * añade bloques: nunca copia los existentes.
+ *
+ * Los nodos liberados se encadenan en una lista de libres (usando su campo
+ * izquierdo) y se reutilizan antes de crecer.
+ *
+ * En esta version de Java no hay forma publica de devolver la memoria de un
+ * buffer directo en el momento: {@link #close()} suelta los bloques, que el
+ * sistema libera cuando el recolector los reclama, y deja el almacen
+ * inutilizable.
+ */
+public class OffHeapNodeStore implements LongNodeStore {
+
+	static final int RECORD_BYTES = 24;
+	static final int NODES_PER_CHUNK = 1 << 16;
+
+	static final int KEY = 0;
+	static final int COUNT = 8;
+	static final int LEFT = 12;
+	static final int RIGHT = 16;
+	static final int FATHER = 20;
+
+	private List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+	private int next = 1; // primer identificador nunca usado (el 0 es NIL)
+	private int freeList = NIL;
+	private int root = NIL;
+
+	private void checkOpen() {
+		if (chunks == null)
+			throw new IllegalStateException("store is closed");
+	}
+
+	private ByteBuffer chunk(int id) {
+		checkOpen();
+		return chunks.get(id >>> 16);
+	}
+
+	private static int offset(int id) {
+		return (id & (NODES_PER_CHUNK - 1)) * RECORD_BYTES;
+	}
+
+	@Override
+	public int allocate() {
+		checkOpen();
+		int id;
+		if (freeList != NIL) {
+			id = freeList;
+			freeList = getLeft(id);
+		} else {
+			id = next++;
+			if ((id >>> 16) == chunks.size()) {
+				chunks.add(ByteBuffer.allocateDirect(NODES_PER_CHUNK * RECORD_BYTES).order(ByteOrder.nativeOrder()));
+			}
+		}
+		ByteBuffer b = chunk(id);
+		int o = offset(id);
+		b.putLong(o + KEY, 0L);
+		b.putInt(o + COUNT, 0);
+		b.putInt(o + LEFT, NIL);
+		b.putInt(o + RIGHT, NIL);
+		b.putInt(o + FATHER, NIL);
+		return id;
+	}
+
+	@Override
+	public void free(int id) {
+		setLeft(id, freeList);
+		freeList = id;
+	}
+
+	@Override
+	public long getKey(int id) {
+		return chunk(id).getLong(offset(id) + KEY);
+	}
+
+	@Override
+	public void setKey(int id, long key) {
+		chunk(id).putLong(offset(id) + KEY, key);
+	}
+
+	@Override
+	public int getCount(int id) {
+		return chunk(id).getInt(offset(id) + COUNT);
+	}
+
+	@Override
+	public void setCount(int id, int count) {
+		chunk(id).putInt(offset(id) + COUNT, count);
+	}
+
+	@Override
+	public int getLeft(int id) {
+		return chunk(id).getInt(offset(id) + LEFT);
+	}
+
+	@Override
+	public void setLeft(int id, int left) {
+		chunk(id).putInt(offset(id) + LEFT, left);
+	}
+
+	@Override
+	public int getRight(int id) {
+		return chunk(id).getInt(offset(id) + RIGHT);
+	}
+
+	@Override
+	public void setRight(int id, int right) {
+		chunk(id).putInt(offset(id) + RIGHT, right);
+	}
+
+	@Override
+	public int getFather(int id) {
+		return chunk(id).getInt(offset(id) + FATHER);
+	}
+
+	@Override
+	public void setFather(int id, int father) {
+		chunk(id).putInt(offset(id) + FATHER, father);
+	}
+
+	@Override
+	public int getRoot() {
+		return root;
+	}
+
+	@Override
+	public void setRoot(int root) {
+		this.root = root;
+	}
+
+	/**
+	 * Bytes de memoria directa reservados por el almacen.
+	 */
+	public long reservedBytes() {
+		return chunks == null ? 0 : (long) chunks.size() * NODES_PER_CHUNK * RECORD_BYTES;
+	}
+
+	@Override
+	public void close() {
+		chunks = null;
+	}
+}
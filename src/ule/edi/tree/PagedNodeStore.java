@@ -0,0 +1,386 @@
+package ule.edi.tree;
+
+import static ule.edi.tree.OffHeapNodeStore.COUNT;
+import static ule.edi.tree.OffHeapNodeStore.FATHER;
+import static ule.edi.tree.OffHeapNodeStore.KEY;
+import static ule.edi.tree.OffHeapNodeStore.LEFT;
+import static ule.edi.tree.OffHeapNodeStore.RECORD_BYTES;
+import static ule.edi.tree.OffHeapNodeStore.RIGHT;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link LongNodeStore} en un fichero, para arboles que no caben en memoria.
+ *
+ * El fichero se divide en paginas de tamaño fijo. La pagina 0 es la cabecera
+ * (tamaño de pagina, raiz, siguiente identificador y lista de libres) y las
+ * demas guardan nodos con el mismo formato de registro que
+ * {@link OffHeapNodeStore}; el nodo id esta en la pagina
+ * 1 + id / nodosPorPagina.
+ *
+ * Las paginas se leen a traves de una cache de tamaño configurable con
+ * reemplazo CLOCK: cada marco tiene un bit de referencia que se activa al
+ * usarlo, y al hacer falta un marco la manecilla avanza limpiando bits hasta
+ * encontrar uno sin referencia. Las paginas modificadas se escriben al
+ * expulsarlas, en {@link #flush()} y al cerrar. Los aciertos y fallos de la
+ * cache se cuentan para poder dimensionarla.
+ *
+ * Un LongBinarySearchTree creado sobre un almacen reabierto recupera el arbol
+ * que se cerro. El almacen no protege frente a caidas: para eso esta
+ * {@link DurableTree}. Los errores de E/S se propagan como
+ * UncheckedIOException.
+ */
+public class PagedNodeStore implements LongNodeStore {
+
+	public static final int DEFAULT_PAGE_SIZE = 4096;
+
+	private static final int MAGIC = 0x4253544e; // "BSTN"
+	private static final int HEADER_BYTES = 24; // magic, pageSize, root, next, freeList, reservado
+
+	private FileChannel channel;
+	private final int pageSize;
+	private final int nodesPerPage;
+
+	// Marcos de la cache
+	private final ByteBuffer[] frames;
+	private final long[] framePage; // pagina de cada marco, -1 si esta libre
+	private final boolean[] dirty;
+	private final boolean[] referenced;
+	private final Map<Long, Integer> pageTable = new HashMap<Long, Integer>();
+	private int hand = 0;
+
+	// Ultima pagina usada: los accesos seguidos suelen ser al mismo nodo
+	private long lastPage = -1;
+	private int lastFrame = -1;
+
+	private int root;
+	private int next;
+	private int freeList;
+
+	private long hits;
+	private long misses;
+	private long writes;
+
+	private PagedNodeStore(FileChannel channel, int pageSize, int cachePages) {
+		this.channel = channel;
+		this.pageSize = pageSize;
+		this.nodesPerPage = pageSize / RECORD_BYTES;
+		this.frames = new ByteBuffer[cachePages];
+		this.framePage = new long[cachePages];
+		this.dirty = new boolean[cachePages];
+		this.referenced = new boolean[cachePages];
+		for (int i = 0; i < cachePages; i++) {
+			frames[i] = ByteBuffer.allocateDirect(pageSize);
+			framePage[i] = -1;
+		}
+	}
+
+	/**
+	 * Abre el fichero de nodos, o lo crea vacio si no existe.
+	 *
+	 * @param pageSize tamaño de pagina para un fichero nuevo; uno existente
+	 *                 conserva el suyo
+	 * @param cachePages numero de paginas en memoria
+	 * @throws IllegalArgumentException si file es null, pageSize no permite al
+	 *         menos un nodo por pagina o cachePages es menor que 1
+	 * @throws IOException si el fichero no se puede abrir o no es un almacen
+	 */
+	public static PagedNodeStore open(Path file, int pageSize, int cachePages) throws IOException {
+		if (file == null || pageSize < Math.max(HEADER_BYTES, RECORD_BYTES) || cachePages < 1)
+			throw new IllegalArgumentException();
+
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			if (channel.size() == 0) {
+				PagedNodeStore rx = new PagedNodeStore(channel, pageSize, cachePages);
+				rx.next = 1;
+				rx.writeHeader();
+				return rx;
+			}
+			while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+			}
+			header.flip();
+			if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC)
+				throw new IOException("not a node store");
+			// la cabecera se comprueba como los parametros: un fichero corrupto
+			// no debe llegar a fallar en el primer acceso
+			int paginaFichero = header.getInt();
+			int root = header.getInt();
+			int next = header.getInt();
+			int freeList = header.getInt();
+			if (paginaFichero < Math.max(HEADER_BYTES, RECORD_BYTES) || next < 1 || root < 0 || root >= next
+					|| freeList < 0 || freeList >= next)
+				throw new IOException("not a node store");
+			PagedNodeStore rx = new PagedNodeStore(channel, paginaFichero, cachePages);
+			rx.root = root;
+			rx.next = next;
+			rx.freeList = freeList;
+			return rx;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private void writeHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(MAGIC).putInt(pageSize).putInt(root).putInt(next).putInt(freeList).putInt(0).flip();
+		while (header.hasRemaining()) {
+			channel.write(header, header.position());
+		}
+	}
+
+	/**
+	 * Marco con la pagina del nodo, leyendola si no esta en la cache.
+	 */
+	private ByteBuffer page(int id, boolean write) {
+		if (channel == null)
+			throw new IllegalStateException("store is closed");
+
+		long page = 1 + id / nodesPerPage;
+		int frame;
+		if (page == lastPage) {
+			frame = lastFrame;
+			hits++;
+		} else {
+			Integer cached = pageTable.get(page);
+			if (cached != null) {
+				frame = cached;
+				hits++;
+			} else {
+				misses++;
+				frame = load(page);
+			}
+			lastPage = page;
+			lastFrame = frame;
+		}
+		referenced[frame] = true;
+		if (write) {
+			dirty[frame] = true;
+		}
+		return frames[frame];
+	}
+
+	private static int offset(int id, int nodesPerPage) {
+		return (id % nodesPerPage) * RECORD_BYTES;
+	}
+
+	/**
+	 * Elige un marco con CLOCK y lee en el la pagina.
+	 */
+	private int load(long page) {
+		while (referenced[hand]) {
+			referenced[hand] = false;
+			hand = (hand + 1) % frames.length;
+		}
+		int frame = hand;
+		hand = (hand + 1) % frames.length;
+		try {
+			if (framePage[frame] >= 0) {
+				writeBack(frame);
+				pageTable.remove(framePage[frame]);
+			}
+			ByteBuffer buf = frames[frame];
+			buf.clear();
+			long pos = page * pageSize;
+			while (buf.hasRemaining()) {
+				int leidos = channel.read(buf, pos + buf.position());
+				if (leidos < 0) {
+					// Pagina aun no escrita: el resto son ceros
+					while (buf.hasRemaining()) {
+						buf.put((byte) 0);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		framePage[frame] = page;
+		pageTable.put(page, frame);
+		return frame;
+	}
+
+	private void writeBack(int frame) throws IOException {
+		if (!dirty[frame]) {
+			return;
+		}
+		ByteBuffer buf = frames[frame].duplicate();
+		buf.clear();
+		long pos = framePage[frame] * pageSize;
+		while (buf.hasRemaining()) {
+			channel.write(buf, pos + buf.position());
+		}
+		dirty[frame] = false;
+		writes++;
+	}
+
+	@Override
+	public int allocate() {
+		int id;
+		if (freeList != NIL) {
+			id = freeList;
+			freeList = getLeft(id);
+		} else {
+			if (next == Integer.MAX_VALUE)
+				throw new IllegalStateException("node store is full");
+			id = next++;
+		}
+		ByteBuffer b = page(id, true);
+		int o = offset(id, nodesPerPage);
+		b.putLong(o + KEY, 0L);
+		b.putInt(o + COUNT, 0);
+		b.putInt(o + LEFT, NIL);
+		b.putInt(o + RIGHT, NIL);
+		b.putInt(o + FATHER, NIL);
+		return id;
+	}
+
+	@Override
+	public void free(int id) {
+		setLeft(id, freeList);
+		freeList = id;
+	}
+
+	@Override
+	public long getKey(int id) {
+		return page(id, false).getLong(offset(id, nodesPerPage) + KEY);
+	}
+
+	@Override
+	public void setKey(int id, long key) {
+		page(id, true).putLong(offset(id, nodesPerPage) + KEY, key);
+	}
+
+	@Override
+	public int getCount(int id) {
+		return page(id, false).getInt(offset(id, nodesPerPage) + COUNT);
+	}
+
+	@Override
+	public void setCount(int id, int count) {
+		page(id, true).putInt(offset(id, nodesPerPage) + COUNT, count);
+	}
+
+	@Override
+	public int getLeft(int id) {
+		return page(id, false).getInt(offset(id, nodesPerPage) + LEFT);
+	}
+
+	@Override
+	public void setLeft(int id, int left) {
+		page(id, true).putInt(offset(id, nodesPerPage) + LEFT, left);
+	}
+
+	@Override
+	public int getRight(int id) {
+		return page(id, false).getInt(offset(id, nodesPerPage) + RIGHT);
+	}
+
+	@Override
+	public void setRight(int id, int right) {
+		page(id, true).putInt(offset(id, nodesPerPage) + RIGHT, right);
+	}
+
+	@Override
+	public int getFather(int id) {
+		return page(id, false).getInt(offset(id, nodesPerPage) + FATHER);
+	}
+
+	@Override
+	public void setFather(int id, int father) {
+		page(id, true).putInt(offset(id, nodesPerPage) + FATHER, father);
+	}
+
+	@Override
+	public int getRoot() {
+		if (channel == null)
+			throw new IllegalStateException("store is closed");
+		return root;
+	}
+
+	@Override
+	public void setRoot(int root) {
+		this.root = root;
+	}
+
+	/**
+	 * Accesos a nodos resueltos sin leer del fichero.
+	 */
+	public long getPageHits() {
+		return hits;
+	}
+
+	/**
+	 * Accesos a nodos que han tenido que leer una pagina.
+	 */
+	public long getPageMisses() {
+		return misses;
+	}
+
+	/**
+	 * Paginas modificadas escritas en el fichero.
+	 */
+	public long getPageWrites() {
+		return writes;
+	}
+
+	/**
+	 * Proporcion de aciertos, 0 si no ha habido accesos.
+	 */
+	public double getHitRatio() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	public void resetStats() {
+		hits = 0;
+		misses = 0;
+		writes = 0;
+	}
+
+	/**
+	 * Escribe las paginas modificadas y la cabecera, y hace fsync.
+	 */
+	public void flush() {
+		if (channel == null)
+			throw new IllegalStateException("store is closed");
+		try {
+			for (int i = 0; i < frames.length; i++) {
+				if (framePage[i] >= 0) {
+					writeBack(i);
+				}
+			}
+			writeHeader();
+			channel.force(false);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Hace {@link #flush()} y cierra el fichero. Se puede llamar varias veces.
+	 */
+	@Override
+	public void close() {
+		if (channel == null) {
+			return;
+		}
+		try {
+			flush();
+			channel.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			channel = null;
+		}
+	}
+}
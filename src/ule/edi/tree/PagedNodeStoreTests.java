@@ -0,0 +1,88 @@
+package ule.edi.tree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.PrimitiveIterator;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PagedNodeStoreTests {
+
+	private Path file = null;
+
+	@Before
+	public void setupFile() throws IOException {
+		file = Files.createTempFile("paged-tree", ".nodes");
+		Files.delete(file);
+	}
+
+	@After
+	public void deleteFile() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void testOperacionesConCachePequena() throws IOException {
+		// 4 nodos por pagina y 1 pagina en memoria
+		PagedNodeStore store = PagedNodeStore.open(file, 96, 1);
+		LongBinarySearchTree arbol = new LongBinarySearchTree(store);
+		arbol.insert(50, 30, 30, 10, 40, 40, 40, 40, 80, 80, 60);
+		Assert.assertEquals("{50, {30(2), {10, ∅, ∅}, {40(4), ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}", arbol.toString());
+		arbol.remove(50);
+		Assert.assertEquals("{60, {30(2), {10, ∅, ∅}, {40(4), ∅, ∅}}, {80(2), ∅, ∅}}", arbol.toString());
+		Assert.assertTrue(store.getPageMisses() > 0);
+		Assert.assertTrue(store.getPageWrites() > 0);
+		Assert.assertTrue(store.getHitRatio() > 0);
+		arbol.close();
+	}
+
+	@Test
+	public void testReabrir() throws IOException {
+		LongBinarySearchTree arbol = new LongBinarySearchTree(PagedNodeStore.open(file, 4096, 4));
+		for (long i = 0; i < 10000; i++) {
+			arbol.insert(i * 7919 % 10007);
+		}
+		arbol.removeAll(0);
+		arbol.close();
+
+		PagedNodeStore store = PagedNodeStore.open(file, 512, 4);
+		LongBinarySearchTree reabierto = new LongBinarySearchTree(store);
+		Assert.assertEquals(9999, reabierto.size());
+		Assert.assertFalse(reabierto.contains(0));
+		PrimitiveIterator.OfLong it = reabierto.iterator();
+		long anterior = it.nextLong();
+		while (it.hasNext()) {
+			long actual = it.nextLong();
+			Assert.assertTrue(anterior < actual);
+			anterior = actual;
+		}
+		reabierto.close();
+	}
+
+	@Test(expected = IOException.class)
+	public void testFicheroAjeno() throws IOException {
+		Files.write(file, new byte[64]);
+		PagedNodeStore.open(file, 4096, 4);
+	}
+
+	@Test
+	public void testCabeceraCorrupta() throws IOException {
+		// magic correcto con paginas demasiado pequeñas o negativas
+		for (int pagina : new int[] { 8, -4096 }) {
+			ByteBuffer cabecera = ByteBuffer.allocate(64);
+			cabecera.putInt(0x4253544e).putInt(pagina).putInt(0).putInt(1).putInt(0);
+			Files.write(file, cabecera.array());
+			try {
+				PagedNodeStore.open(file, 4096, 4);
+				Assert.fail("pageSize " + pagina);
+			} catch (IOException e) {
+				Assert.assertEquals("not a node store", e.getMessage());
+			}
+		}
+	}
+}
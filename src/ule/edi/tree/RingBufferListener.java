@@ -0,0 +1,129 @@
+package ule.edi.tree;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Oyente que guarda los eventos en un buffer circular acotado para que otro
+ * hilo los consuma por lotes, sin bloquear nunca al que modifica el arbol.
+ *
+ * Es una cola de un productor (el hilo que modifica el arbol) y un
+ * consumidor: cada posicion se publica con una escritura ordenada del
+ * indice de escritura, sin cerrojos. Si el buffer esta lleno el evento se
+ * descarta y se cuenta en {@link #getDropped()}; el consumidor lo detecta
+ * tambien por el hueco en {@link TreeEvent#getSequence()} y debe volver a
+ * copiar el arbol entero.
+ *
+ * @param <T> tipo de la informacion en cada nodo, comparable.
+ */
+public final class RingBufferListener<T extends Comparable<? super T>> implements TreeListener<T> {
+
+	private final Object[] buffer;
+	private final int mask;
+	private final AtomicLong head = new AtomicLong(); // siguiente a leer, solo lo avanza el consumidor
+	private final AtomicLong tail = new AtomicLong(); // siguiente a escribir, solo lo avanza el productor
+	private long headSeen; // ultimo head leido por el productor
+	private volatile long dropped;
+
+	/**
+	 * Crea un buffer con capacidad para al menos capacity eventos (se
+	 * redondea a potencia de 2).
+	 *
+	 * @throws IllegalArgumentException si capacity es menor que 1 o mayor que 2^30
+	 */
+	public RingBufferListener(int capacity) {
+		if (capacity < 1 || capacity > 1 << 30)
+			throw new IllegalArgumentException();
+
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.buffer = new Object[size];
+		this.mask = size - 1;
+	}
+
+	@Override
+	public void treeChanged(TreeEvent<T> event) {
+		long t = tail.get();
+		if (t - headSeen == buffer.length) {
+			headSeen = head.get();
+			if (t - headSeen == buffer.length) {
+				dropped++;
+				return;
+			}
+		}
+		buffer[(int) t & mask] = event;
+		tail.lazySet(t + 1);
+	}
+
+	/**
+	 * Saca el evento mas antiguo, o null si no hay ninguno.
+	 */
+	public TreeEvent<T> poll() {
+		long h = head.get();
+		if (h == tail.get()) {
+			return null;
+		}
+		TreeEvent<T> rx = take(h);
+		head.lazySet(h + 1);
+		return rx;
+	}
+
+	/**
+	 * Saca hasta max eventos, del mas antiguo al mas reciente, y los añade a
+	 * out.
+	 *
+	 * Cada evento se saca del buffer solo despues de añadirlo; si out.add
+	 * lanza una excepcion, ese evento y los siguientes siguen pendientes.
+	 *
+	 * @return numero de eventos añadidos
+	 * @throws IllegalArgumentException si max es negativo
+	 */
+	public int drainTo(Collection<? super TreeEvent<T>> out, int max) {
+		if (max < 0)
+			throw new IllegalArgumentException();
+
+		long h = head.get();
+		int n = (int) Math.min(tail.get() - h, max);
+		int i = 0;
+		try {
+			for (; i < n; i++) {
+				out.add(peek(h + i));
+				buffer[(int) (h + i) & mask] = null;
+			}
+		} finally {
+			head.lazySet(h + i);
+		}
+		return n;
+	}
+
+	@SuppressWarnings("unchecked")
+	private TreeEvent<T> peek(long pos) {
+		return (TreeEvent<T>) buffer[(int) pos & mask];
+	}
+
+	private TreeEvent<T> take(long pos) {
+		TreeEvent<T> rx = peek(pos);
+		buffer[(int) pos & mask] = null;
+		return rx;
+	}
+
+	/**
+	 * Numero de eventos pendientes de consumir.
+	 */
+	public int size() {
+		return (int) (tail.get() - head.get());
+	}
+
+	public int getCapacity() {
+		return buffer.length;
+	}
+
+	/**
+	 * Numero de eventos descartados por encontrar el buffer lleno.
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+}
@@ -0,0 +1,112 @@
+package ule.edi.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RingBufferListenerTests {
+
+	private static TreeEvent<Integer> evento(long sequence) {
+		return new TreeEvent<Integer>(sequence, TreeEvent.Type.INSERT, (int) sequence, 0, 1, "");
+	}
+
+	@Test
+	public void testCapacidadYDescartes() {
+		RingBufferListener<Integer> cola = new RingBufferListener<Integer>(3);
+		Assert.assertEquals(4, cola.getCapacity());
+		for (int i = 1; i <= 6; i++) {
+			cola.treeChanged(evento(i));
+		}
+		Assert.assertEquals(4, cola.size());
+		Assert.assertEquals(2, cola.getDropped());
+		Assert.assertEquals(1, cola.poll().getSequence());
+
+		List<TreeEvent<Integer>> lote = new ArrayList<TreeEvent<Integer>>();
+		Assert.assertEquals(2, cola.drainTo(lote, 2));
+		Assert.assertEquals(2, lote.get(0).getSequence());
+		Assert.assertEquals(3, lote.get(1).getSequence());
+
+		// tras consumir hay sitio otra vez
+		cola.treeChanged(evento(7));
+		Assert.assertEquals(2, cola.drainTo(lote, 10));
+		Assert.assertEquals(7, lote.get(3).getSequence());
+		Assert.assertNull(cola.poll());
+	}
+
+	@Test
+	public void testDrainToConFallo() {
+		RingBufferListener<Integer> cola = new RingBufferListener<Integer>(4);
+		for (int i = 1; i <= 3; i++) {
+			cola.treeChanged(evento(i));
+		}
+		List<TreeEvent<Integer>> lote = new ArrayList<TreeEvent<Integer>>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public boolean add(TreeEvent<Integer> e) {
+				if (e.getSequence() == 2)
+					throw new IllegalStateException();
+				return super.add(e);
+			}
+		};
+		try {
+			cola.drainTo(lote, 3);
+			Assert.fail("out.add deberia haber fallado");
+		} catch (IllegalStateException e) {
+			// el evento que no se pudo añadir sigue en el buffer
+		}
+		Assert.assertEquals(1, lote.size());
+		Assert.assertEquals(2, cola.size());
+		Assert.assertEquals(2, cola.poll().getSequence());
+		Assert.assertEquals(3, cola.poll().getSequence());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDrainToMaximoNegativo() {
+		new RingBufferListener<Integer>(4).drainTo(new ArrayList<TreeEvent<Integer>>(), -1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCapacidadNoValida() {
+		new RingBufferListener<Integer>(0);
+	}
+
+	@Test
+	public void testProductorYConsumidor() throws InterruptedException {
+		final RingBufferListener<Integer> cola = new RingBufferListener<Integer>(64);
+		final int total = 200000;
+		final long[] leidos = new long[1];
+		final boolean[] ordenados = { true };
+		Thread consumidor = new Thread() {
+			@Override
+			public void run() {
+				List<TreeEvent<Integer>> lote = new ArrayList<TreeEvent<Integer>>();
+				long ultimo = 0;
+				while (ultimo < total) {
+					lote.clear();
+					cola.drainTo(lote, 16);
+					for (TreeEvent<Integer> e : lote) {
+						ordenados[0] &= e.getSequence() == ultimo + 1;
+						ultimo = e.getSequence();
+					}
+					leidos[0] += lote.size();
+					Thread.yield();
+				}
+			}
+		};
+		consumidor.start();
+		for (int i = 1; i <= total; i++) {
+			// sin descartes: espera a que haya sitio
+			while (cola.size() == cola.getCapacity()) {
+				Thread.yield();
+			}
+			cola.treeChanged(evento(i));
+		}
+		consumidor.join(10000);
+		Assert.assertEquals(total, leidos[0]);
+		Assert.assertTrue(ordenados[0]);
+		Assert.assertEquals(0, cola.getDropped());
+	}
+}
@@ -0,0 +1,485 @@
+package ule.edi.tree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Arbol de busqueda repartido por rangos de claves entre varios
+ * {@link BinarySearchTreeImpl} independientes ("particiones"), para que
+ * varios hilos puedan modificarlo a la vez.
+ *
+ * Los puntos de corte se eligen de una muestra de claves, en sus cuantiles,
+ * de modo que cada particion recibe una parte parecida. La particion i guarda
+ * las claves mayores o iguales que el corte i - 1 y menores que el corte i.
+ * Cada particion tiene su cerrojo y solo la modifica el hilo que lo tiene;
+ * las operaciones de un elemento solo bloquean su particion.
+ *
+ * Los cortes son un array inmutable que se sustituye al moverlos. Cada
+ * operacion elige la particion con los cortes que lee, la bloquea y
+ * comprueba que los cortes no han cambiado; si han cambiado, vuelve a
+ * elegir. Como {@link #rebalance()} cambia los cortes con las dos
+ * particiones afectadas bloqueadas, ningun elemento se busca en una
+ * particion equivocada.
+ *
+ * size(), instancesCount(), el iterador y range() bloquean en orden las
+ * particiones que necesitan, asi que ven un estado coherente.
+ *
+ * @param <T> tipo de la informacion en cada nodo, comparable.
+ */
+public final class ShardedSearchTree<T extends Comparable<? super T>> implements Iterable<T> {
+
+	private static final class Shard<T extends Comparable<? super T>> {
+		final BinarySearchTreeImpl<T> tree = new BinarySearchTreeImpl<T>();
+		final ReentrantLock lock = new ReentrantLock();
+		int size; // elementos distintos
+		long instances;
+		volatile long load; // operaciones desde el ultimo rebalance()
+	}
+
+	private final Shard<T>[] shards;
+	private volatile Object[] splits; // shards.length - 1 cortes en orden creciente
+
+	/**
+	 * Crea un arbol vacio con hasta shards particiones, con los cortes en los
+	 * cuantiles de sample. Si la muestra tiene menos de shards - 1 claves
+	 * distintas se crean menos particiones.
+	 *
+	 * @throws IllegalArgumentException si shards es menor que 1, o sample es
+	 *         null o contiene null
+	 */
+	public ShardedSearchTree(int shards, Collection<T> sample) {
+		if (shards < 1 || sample == null)
+			throw new IllegalArgumentException();
+
+		List<T> ordenados = new ArrayList<T>(sample.size());
+		for (T e : sample) {
+			if (e == null)
+				throw new IllegalArgumentException();
+			ordenados.add(e);
+		}
+		Collections.sort(ordenados);
+
+		List<T> cortes = new ArrayList<T>(shards - 1);
+		for (int i = 1; i < shards && !ordenados.isEmpty(); i++) {
+			T corte = ordenados.get((int) ((long) i * ordenados.size() / shards));
+			if (cortes.isEmpty() || cortes.get(cortes.size() - 1).compareTo(corte) < 0) {
+				cortes.add(corte);
+			}
+		}
+
+		this.splits = cortes.toArray();
+		this.shards = newShards(cortes.size() + 1);
+		for (int i = 0; i < this.shards.length; i++) {
+			this.shards[i] = new Shard<T>();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends Comparable<? super T>> Shard<T>[] newShards(int n) {
+		return (Shard<T>[]) new Shard<?>[n];
+	}
+
+	/**
+	 * Particion de x segun los cortes dados: el numero de cortes menores o
+	 * iguales que x.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T extends Comparable<? super T>> int route(Object[] cortes, T x) {
+		int lo = 0;
+		int hi = cortes.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (((T) cortes[mid]).compareTo(x) <= 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Bloquea y devuelve la particion de x.
+	 */
+	private Shard<T> lockShard(T x) {
+		if (x == null)
+			throw new IllegalArgumentException();
+
+		while (true) {
+			Object[] cortes = splits;
+			Shard<T> rx = shards[route(cortes, x)];
+			rx.lock.lock();
+			if (cortes == splits) {
+				rx.load++;
+				return rx;
+			}
+			rx.lock.unlock();
+		}
+	}
+
+	/**
+	 * Como {@link BinarySearchTreeImpl#insert(Comparable)}.
+	 *
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public boolean insert(T element) {
+		Shard<T> shard = lockShard(element);
+		try {
+			boolean rx = shard.tree.insert(element);
+			if (rx) {
+				shard.size++;
+			}
+			shard.instances++;
+			return rx;
+		} finally {
+			shard.lock.unlock();
+		}
+	}
+
+	/**
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public boolean contains(T element) {
+		Shard<T> shard = lockShard(element);
+		try {
+			return shard.tree.contains(element);
+		} finally {
+			shard.lock.unlock();
+		}
+	}
+
+	/**
+	 * Numero de instancias del elemento, 0 si no esta.
+	 *
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public int getCount(T element) {
+		Shard<T> shard = lockShard(element);
+		try {
+			BinarySearchTreeImpl<T> nodo = shard.tree.getElem(element);
+			return nodo == null ? 0 : nodo.count;
+		} finally {
+			shard.lock.unlock();
+		}
+	}
+
+	/**
+	 * Como {@link BinarySearchTreeImpl#remove(Comparable)}.
+	 *
+	 * @throws NoSuchElementException si el elemento no esta en el arbol
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public void remove(T element) {
+		Shard<T> shard = lockShard(element);
+		try {
+			if (shard.tree.removeCounted(element, 1) == 1) {
+				shard.size--;
+			}
+			shard.instances--;
+		} finally {
+			shard.lock.unlock();
+		}
+	}
+
+	/**
+	 * Como {@link BinarySearchTreeImpl#removeAll(Comparable)}.
+	 *
+	 * @throws NoSuchElementException si el elemento no esta en el arbol
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public int removeAll(T element) {
+		Shard<T> shard = lockShard(element);
+		try {
+			int rx = shard.tree.removeAll(element);
+			shard.size--;
+			shard.instances -= rx;
+			return rx;
+		} finally {
+			shard.lock.unlock();
+		}
+	}
+
+	private void lockAll() {
+		for (Shard<T> shard : shards) {
+			shard.lock.lock();
+		}
+	}
+
+	private void unlockAll() {
+		for (int i = shards.length - 1; i >= 0; i--) {
+			shards[i].lock.unlock();
+		}
+	}
+
+	/**
+	 * Numero de elementos distintos de todas las particiones.
+	 */
+	public int size() {
+		lockAll();
+		try {
+			int rx = 0;
+			for (Shard<T> shard : shards) {
+				rx += shard.size;
+			}
+			return rx;
+		} finally {
+			unlockAll();
+		}
+	}
+
+	/**
+	 * Numero de instancias de todas las particiones.
+	 */
+	public long instancesCount() {
+		lockAll();
+		try {
+			long rx = 0;
+			for (Shard<T> shard : shards) {
+				rx += shard.instances;
+			}
+			return rx;
+		} finally {
+			unlockAll();
+		}
+	}
+
+	/**
+	 * Devuelve un iterador, en orden creciente, sobre una copia de los
+	 * elementos distintos de todas las particiones.
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		lockAll();
+		try {
+			List<T> rx = new ArrayList<T>();
+			for (Shard<T> shard : shards) {
+				addRange(shard.tree, null, null, rx);
+			}
+			return Collections.unmodifiableList(rx).iterator();
+		} finally {
+			unlockAll();
+		}
+	}
+
+	/**
+	 * Devuelve en orden creciente los elementos distintos x con
+	 * lo &lt;= x &lt; hi. Solo bloquea las particiones que cubren el rango.
+	 *
+	 * @throws IllegalArgumentException si lo o hi son null
+	 */
+	public List<T> range(T lo, T hi) {
+		if (lo == null || hi == null)
+			throw new IllegalArgumentException();
+
+		List<T> rx = new ArrayList<T>();
+		if (lo.compareTo(hi) >= 0) {
+			return rx;
+		}
+		while (true) {
+			Object[] cortes = splits;
+			int desde = route(cortes, lo);
+			int hasta = route(cortes, hi);
+			for (int i = desde; i <= hasta; i++) {
+				shards[i].lock.lock();
+			}
+			try {
+				if (cortes == splits) {
+					for (int i = desde; i <= hasta; i++) {
+						addRange(shards[i].tree, lo, hi, rx);
+					}
+					return rx;
+				}
+			} finally {
+				for (int i = hasta; i >= desde; i--) {
+					shards[i].lock.unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Añade a out los elementos del arbol desde lo (o desde el primero si es
+	 * null) hasta antes de hi (o hasta el ultimo si es null).
+	 */
+	private static <T extends Comparable<? super T>> void addRange(BinarySearchTreeImpl<T> tree, T lo, T hi,
+			List<T> out) {
+		if (tree.isEmpty()) {
+			return;
+		}
+		InorderCursor<T> cursor = lo == null ? tree.cursor() : tree.cursor(lo);
+		while (cursor.isValid() && (hi == null || cursor.get().compareTo(hi) < 0)) {
+			out.add(cursor.get());
+			cursor.moveNext();
+		}
+	}
+
+	/**
+	 * Mueve el corte entre la particion con mas operaciones desde la ultima
+	 * llamada y la vecina con menos, pasando a la vecina los elementos del
+	 * extremo de la primera. Supone la carga repartida por igual entre los
+	 * elementos de la particion cargada y mueve los necesarios para igualar
+	 * las dos. Despues pone a cero la carga de todas las particiones, cada una
+	 * con su cerrojo para no perder los incrementos de otros hilos.
+	 *
+	 * Pensado para llamarse periodicamente; mientras mueve los elementos
+	 * solo bloquea las dos particiones afectadas. Las llamadas a la vez desde
+	 * varios hilos se hacen una tras otra.
+	 *
+	 * @return true si ha movido algun corte
+	 */
+	public synchronized boolean rebalance() {
+		int caliente = 0;
+		for (int i = 1; i < shards.length; i++) {
+			if (shards[i].load > shards[caliente].load) {
+				caliente = i;
+			}
+		}
+		int vecina = -1;
+		if (caliente > 0) {
+			vecina = caliente - 1;
+		}
+		if (caliente + 1 < shards.length && (vecina < 0 || shards[caliente + 1].load < shards[vecina].load)) {
+			vecina = caliente + 1;
+		}
+
+		boolean rx = false;
+		if (vecina >= 0) {
+			Shard<T> primera = shards[Math.min(caliente, vecina)];
+			Shard<T> segunda = shards[Math.max(caliente, vecina)];
+			primera.lock.lock();
+			segunda.lock.lock();
+			try {
+				rx = moveBoundary(caliente, vecina);
+			} finally {
+				segunda.lock.unlock();
+				primera.lock.unlock();
+			}
+		}
+		for (Shard<T> shard : shards) {
+			shard.lock.lock();
+			try {
+				shard.load = 0;
+			} finally {
+				shard.lock.unlock();
+			}
+		}
+		return rx;
+	}
+
+	/**
+	 * Con las dos particiones bloqueadas, pasa elementos de la caliente a la
+	 * vecina y publica los nuevos cortes.
+	 */
+	private boolean moveBoundary(int caliente, int vecina) {
+		Shard<T> origen = shards[caliente];
+		Shard<T> destino = shards[vecina];
+		long cargaOrigen = origen.load;
+		long cargaDestino = destino.load;
+		if (cargaOrigen <= cargaDestino) {
+			return false;
+		}
+		long m = origen.size * (cargaOrigen - cargaDestino) / (2 * cargaOrigen);
+		m = Math.min(m, origen.size - 1); // la particion no se queda vacia
+		if (m <= 0) {
+			return false;
+		}
+
+		// elementos del extremo de la caliente que toca la vecina, en orden
+		List<T> mover = new ArrayList<T>((int) m);
+		InorderCursor<T> cursor = vecina < caliente ? origen.tree.cursor() : origen.tree.cursor(lastOf(origen.tree));
+		while (mover.size() < m) {
+			mover.add(cursor.get());
+			if (vecina < caliente) {
+				cursor.moveNext();
+			} else {
+				cursor.movePrevious();
+			}
+		}
+		if (vecina > caliente) {
+			Collections.reverse(mover);
+		}
+		int[] counts = new int[mover.size()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = origen.tree.removeAll(mover.get(i));
+			origen.instances -= counts[i];
+			destino.instances += counts[i];
+		}
+		origen.size -= counts.length;
+		destino.size += counts.length;
+
+		// en bloque para que los elementos no queden en una rama degenerada
+		destino.tree.insertBatch(mover);
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 1) {
+				destino.tree.getElem(mover.get(i)).count = counts[i];
+			}
+		}
+
+		Object[] cortes = splits.clone();
+		if (vecina < caliente) {
+			// el nuevo corte es el menor que queda en la caliente
+			cortes[vecina] = origen.tree.firstNode().getContent();
+		} else {
+			// el nuevo corte es el menor de los movidos
+			cortes[caliente] = mover.get(0);
+		}
+		splits = cortes;
+		return true;
+	}
+
+	private static <T extends Comparable<? super T>> T lastOf(BinarySearchTreeImpl<T> tree) {
+		return tree.lastNode().getContent();
+	}
+
+	/**
+	 * Numero de particiones.
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * Cortes actuales, en orden creciente.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> getSplitPoints() {
+		Object[] cortes = splits;
+		List<T> rx = new ArrayList<T>(cortes.length);
+		for (Object c : cortes) {
+			rx.add((T) c);
+		}
+		return rx;
+	}
+
+	/**
+	 * Elementos distintos de cada particion.
+	 */
+	public int[] getShardSizes() {
+		lockAll();
+		try {
+			int[] rx = new int[shards.length];
+			for (int i = 0; i < shards.length; i++) {
+				rx[i] = shards[i].size;
+			}
+			return rx;
+		} finally {
+			unlockAll();
+		}
+	}
+
+	/**
+	 * Operaciones de cada particion desde el ultimo {@link #rebalance()}.
+	 */
+	public long[] getShardLoads() {
+		long[] rx = new long[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			rx[i] = shards[i].load;
+		}
+		return rx;
+	}
+}
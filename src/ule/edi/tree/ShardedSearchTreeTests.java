@@ -0,0 +1,148 @@
+package ule.edi.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardedSearchTreeTests {
+
+	private ShardedSearchTree<Integer> arbol = null;
+
+	@Before
+	public void setupTree() {
+		List<Integer> muestra = new ArrayList<Integer>();
+		for (int i = 0; i < 100; i++) {
+			muestra.add(i);
+		}
+		arbol = new ShardedSearchTree<Integer>(4, muestra);
+	}
+
+	@Test
+	public void testCortes() {
+		Assert.assertEquals(4, arbol.getShardCount());
+		Assert.assertEquals(Arrays.asList(25, 50, 75), arbol.getSplitPoints());
+		// con pocas claves distintas hay menos particiones
+		ShardedSearchTree<Integer> pocas = new ShardedSearchTree<Integer>(4, Arrays.asList(7, 7, 7, 9));
+		Assert.assertEquals(Arrays.asList(7, 9), pocas.getSplitPoints());
+		Assert.assertEquals(1, new ShardedSearchTree<Integer>(8, new ArrayList<Integer>()).getShardCount());
+	}
+
+	@Test
+	public void testOperaciones() {
+		for (int i = 99; i >= 0; i -= 3) {
+			arbol.insert(i);
+		}
+		arbol.insert(30);
+		Assert.assertTrue(arbol.insert(200));
+		Assert.assertFalse(arbol.insert(30));
+		Assert.assertEquals(35, arbol.size());
+		Assert.assertEquals(37, arbol.instancesCount());
+		Assert.assertEquals(3, arbol.getCount(30));
+		Assert.assertTrue(arbol.contains(75));
+		Assert.assertFalse(arbol.contains(76));
+		Assert.assertArrayEquals(new int[] { 9, 8, 8, 10 }, arbol.getShardSizes());
+
+		arbol.remove(30);
+		Assert.assertEquals(2, arbol.getCount(30));
+		Assert.assertEquals(2, arbol.removeAll(30));
+		Assert.assertFalse(arbol.contains(30));
+		Assert.assertEquals(34, arbol.size());
+		Assert.assertEquals(34, arbol.instancesCount());
+
+		Assert.assertEquals(Arrays.asList(21, 24, 27, 33, 36, 39, 42, 45, 48, 51, 54), arbol.range(20, 57));
+		Assert.assertTrue(arbol.range(57, 20).isEmpty());
+
+		int anterior = -1;
+		int n = 0;
+		for (int x : arbol) {
+			Assert.assertTrue(x > anterior);
+			anterior = x;
+			n++;
+		}
+		Assert.assertEquals(34, n);
+		Assert.assertEquals(200, anterior);
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testRemoveNoEsta() {
+		arbol.remove(10);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNull() {
+		arbol.insert(null);
+	}
+
+	@Test
+	public void testRebalance() {
+		for (int i = 0; i < 100; i++) {
+			arbol.insert(i);
+		}
+		arbol.insert(60);
+		// la particion [50, 75) recibe casi todas las consultas
+		for (int k = 0; k < 1000; k++) {
+			arbol.contains(50 + k % 25);
+		}
+		arbol.contains(10);
+		Assert.assertTrue(arbol.rebalance());
+		Assert.assertArrayEquals(new long[] { 0, 0, 0, 0 }, arbol.getShardLoads());
+		List<Integer> cortes = arbol.getSplitPoints();
+		// sin carga no se mueve nada
+		Assert.assertFalse(arbol.rebalance());
+		Assert.assertEquals(cortes, arbol.getSplitPoints());
+
+		// la vecina con menos carga es [25, 50): recibe los menores de la caliente
+		Assert.assertEquals(25, (int) cortes.get(0));
+		Assert.assertEquals(75, (int) cortes.get(2));
+		Assert.assertTrue(cortes.get(1) > 50 && cortes.get(1) < 75);
+		int[] tam = arbol.getShardSizes();
+		Assert.assertEquals(25 + cortes.get(1) - 50, tam[1]);
+		Assert.assertEquals(75 - cortes.get(1), tam[2]);
+
+		// no se pierde ni se duplica nada
+		Assert.assertEquals(100, arbol.size());
+		Assert.assertEquals(101, arbol.instancesCount());
+		Assert.assertEquals(2, arbol.getCount(60));
+		Iterator<Integer> it = arbol.iterator();
+		for (int i = 0; i < 100; i++) {
+			Assert.assertEquals(i, (int) it.next());
+		}
+		Assert.assertFalse(it.hasNext());
+		Assert.assertEquals(Arrays.asList(48, 49, 50, 51), arbol.range(48, 52));
+	}
+
+	@Test
+	public void testVariosHilos() throws InterruptedException {
+		List<Thread> hilos = new ArrayList<Thread>();
+		for (int h = 0; h < 4; h++) {
+			final int base = h;
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 2000; i++) {
+						arbol.insert((i * 4 + base) % 100);
+						if (i % 500 == 0) {
+							arbol.rebalance();
+						}
+					}
+				}
+			};
+			hilos.add(t);
+			t.start();
+		}
+		for (Thread t : hilos) {
+			t.join();
+		}
+		Assert.assertEquals(100, arbol.size());
+		Assert.assertEquals(8000, arbol.instancesCount());
+		for (int i = 0; i < 100; i++) {
+			Assert.assertEquals(80, arbol.getCount(i));
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package ule.edi.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compara el arbol normal con el modo autoajustable
+ * ({@link BinarySearchTreeImpl#enableSplaying()}) buscando elementos con
+ * distribucion uniforme y con distribucion de Zipf.
+ *
+ * Uso: java ule.edi.tree.SplayBenchmark [elementos] [busquedas] [exponente]
+ *
+ * Los elementos se insertan en orden aleatorio y los mas populares de la
+ * distribucion de Zipf se eligen al azar, sin relacion con ese orden. Para
+ * cada arbol y distribucion se muestran los nanosegundos por busqueda y, en
+ * una pasada aparte con las metricas activas, las comparaciones por
+ * busqueda.
+ */
+public class SplayBenchmark {
+
+	/**
+	 * Genera indices en [0, n) con probabilidad proporcional a 1 / (i + 1)^s.
+	 */
+	static final class Zipf {
+		private final double[] cdf;
+		private final Random random;
+
+		Zipf(int n, double s, Random random) {
+			this.cdf = new double[n];
+			this.random = random;
+			double total = 0;
+			for (int i = 0; i < n; i++) {
+				total += 1.0 / Math.pow(i + 1, s);
+				cdf[i] = total;
+			}
+			for (int i = 0; i < n; i++) {
+				cdf[i] /= total;
+			}
+		}
+
+		int next() {
+			double u = random.nextDouble();
+			int lo = 0;
+			int hi = cdf.length - 1;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (cdf[mid] < u) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+	}
+
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+		double s = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+		Random random = new Random(42);
+
+		List<Integer> elementos = new ArrayList<Integer>(n);
+		for (int i = 0; i < n; i++) {
+			elementos.add(i);
+		}
+		Collections.shuffle(elementos, random);
+		// popularidad independiente del orden de insercion
+		List<Integer> populares = new ArrayList<Integer>(elementos);
+		Collections.shuffle(populares, random);
+
+		int[] uniforme = new int[lookups];
+		int[] zipf = new int[lookups];
+		Zipf z = new Zipf(n, s, random);
+		for (int i = 0; i < lookups; i++) {
+			uniforme[i] = random.nextInt(n);
+			zipf[i] = populares.get(z.next());
+		}
+
+		System.out.printf("%d elementos, %d busquedas, exponente de Zipf %.2f%n", n, lookups, s);
+		System.out.printf("%-8s %-9s %12s %12s%n", "arbol", "accesos", "ns/busqueda", "comparac.");
+		for (boolean splay : new boolean[] { false, true }) {
+			run(elementos, splay, "uniforme", uniforme);
+			run(elementos, splay, "zipf", zipf);
+		}
+	}
+
+	private static void run(List<Integer> elementos, boolean splay, String nombre, int[] claves) {
+		BinarySearchTreeImpl<Integer> arbol = build(elementos, splay);
+		// calentamiento y medida de tiempo
+		lookup(arbol, claves);
+		arbol = build(elementos, splay);
+		long inicio = System.nanoTime();
+		int encontrados = lookup(arbol, claves);
+		long ns = System.nanoTime() - inicio;
+		if (encontrados != claves.length) {
+			throw new IllegalStateException();
+		}
+
+		arbol = build(elementos, splay);
+		TreeMetrics metricas = arbol.enableMetrics();
+		lookup(arbol, claves);
+		System.out.printf("%-8s %-9s %12.1f %12.2f%n", splay ? "splay" : "normal", nombre,
+				(double) ns / claves.length, metricas.getComparisonsPerOperation());
+	}
+
+	private static BinarySearchTreeImpl<Integer> build(List<Integer> elementos, boolean splay) {
+		BinarySearchTreeImpl<Integer> arbol = new BinarySearchTreeImpl<Integer>();
+		for (Integer e : elementos) {
+			arbol.insert(e);
+		}
+		if (splay) {
+			arbol.enableSplaying();
+		}
+		return arbol;
+	}
+
+	private static int lookup(BinarySearchTreeImpl<Integer> arbol, int[] claves) {
+		int rx = 0;
+		for (int c : claves) {
+			if (arbol.contains(c)) {
+				rx++;
+			}
+		}
+		return rx;
+	}
+}
@@ -0,0 +1,142 @@
+package ule.edi.tree;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Clave de etiqueta con tipo, registrada una sola vez por nombre.
+ *
+ * Las claves se obtienen con {@link #of(String, Class)}, {@link IntTagKey#of}
+ * o {@link LongTagKey#of}; pedir dos veces el mismo nombre devuelve la misma
+ * clave, y pedirlo con otro tipo es un error. Una etiqueta puesta con una
+ * clave se ve tambien con su nombre en {@link TreeADT#getTag(String)},
+ * {@link TreeADT#getTags()} y toString().
+ *
+ * Las claves de {@link IntTagKey} y {@link LongTagKey} tienen ademas una
+ * posicion fija (hasta {@link #MAX_SLOTS}) en el array de valores primitivos
+ * de cada nodo, de modo que leerlas y escribirlas no crea objetos ni calcula
+ * el hash del nombre. Las demas se guardan en el mapa de etiquetas del nodo.
+ *
+ * @param <V> tipo de los valores.
+ */
+public class TagKey<V> {
+
+	/**
+	 * Numero maximo de claves con valor primitivo.
+	 */
+	public static final int MAX_SLOTS = 64;
+
+	private static final Map<String, TagKey<?>> REGISTRY = new ConcurrentHashMap<String, TagKey<?>>();
+	private static final TagKey<?>[] BY_SLOT = new TagKey<?>[MAX_SLOTS];
+	private static int slots = 0;
+
+	private final String name;
+	private final Class<V> type;
+	final int slot; // posicion en los valores primitivos del nodo, -1 si no tiene
+
+	TagKey(String name, Class<V> type, int slot) {
+		this.name = name;
+		this.type = type;
+		this.slot = slot;
+	}
+
+	/**
+	 * Devuelve la clave registrada con ese nombre, creandola si no existe.
+	 *
+	 * @throws IllegalArgumentException si name o type son null, o si el nombre
+	 *         ya esta registrado con otro tipo
+	 */
+	public static <V> TagKey<V> of(String name, Class<V> type) {
+		if (name == null || type == null)
+			throw new IllegalArgumentException();
+		return register(name, type, false);
+	}
+
+	static <V> TagKey<V> register(String name, Class<V> type, boolean primitive) {
+		TagKey<?> rx = REGISTRY.get(name);
+		return rx != null ? checked(rx, type, primitive) : create(name, type, primitive);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <V> TagKey<V> checked(TagKey<?> key, Class<V> type, boolean primitive) {
+		if (key.type != type || (key.slot >= 0) != primitive)
+			throw new IllegalArgumentException("tag key " + key.name + " is registered with another type");
+		return (TagKey<V>) key;
+	}
+
+	/**
+	 * Crea la clave con el registro bloqueado, para no dar dos posiciones al
+	 * mismo nombre. Las consultas no bloquean: la clave y su posicion se
+	 * publican al añadirla al mapa.
+	 */
+	@SuppressWarnings("unchecked")
+	private static synchronized <V> TagKey<V> create(String name, Class<V> type, boolean primitive) {
+		TagKey<?> rx = REGISTRY.get(name);
+		if (rx != null) {
+			return checked(rx, type, primitive);
+		}
+
+		if (primitive) {
+			if (slots == MAX_SLOTS)
+				throw new IllegalStateException("too many primitive tag keys");
+			if (type == Integer.class) {
+				rx = new IntTagKey(name, slots);
+			} else {
+				rx = new LongTagKey(name, slots);
+			}
+			BY_SLOT[slots++] = rx;
+		} else {
+			rx = new TagKey<V>(name, type, -1);
+		}
+		REGISTRY.put(name, rx);
+		return (TagKey<V>) rx;
+	}
+
+	/**
+	 * Clave registrada con ese nombre, o null (tambien para el nombre null,
+	 * que el mapa de etiquetas de un nodo admite).
+	 */
+	static TagKey<?> lookup(String name) {
+		return name == null ? null : REGISTRY.get(name);
+	}
+
+	/**
+	 * Clave con valor primitivo en esa posicion.
+	 */
+	static TagKey<?> bySlot(int slot) {
+		return BY_SLOT[slot];
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Class<V> getType() {
+		return type;
+	}
+
+	/**
+	 * Convierte un valor de la clave a su representacion en el array de
+	 * valores primitivos. Solo para claves con posicion, que son de Integer o
+	 * de Long.
+	 */
+	final long toBits(Object value) {
+		return ((Number) value).longValue();
+	}
+
+	/**
+	 * Convierte la representacion primitiva a un valor de la clave. Solo para
+	 * claves con posicion.
+	 */
+	final V fromBits(long bits) {
+		if (type == Integer.class) {
+			return type.cast((int) bits);
+		}
+		return type.cast(bits);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,103 @@
+package ule.edi.tree;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * Dato agregado que un {@link BinarySearchTreeImpl} mantiene en cada nodo
+ * para todo su sub-arbol: el resultado de combinar, en inorden, el valor de
+ * cada elemento.
+ *
+ * combine debe ser asociativa y tener a identity() como elemento neutro (un
+ * monoide); no hace falta que sea conmutativa. El arbol la aplica en cada
+ * nodo del camino afectado al insertar, borrar, rotar o reconstruir, asi que
+ * un agregado de un rango de elementos se calcula en O(h) sin recorrerlos.
+ *
+ * Se activa con
+ * {@link BinarySearchTreeImpl#enableAugmentation(TreeAugmentation)}.
+ *
+ * @param <T> tipo de la informacion en cada nodo, comparable.
+ * @param <A> tipo del agregado.
+ */
+public interface TreeAugmentation<T extends Comparable<? super T>, A> {
+
+	/**
+	 * Agregado de un sub-arbol vacio.
+	 */
+	A identity();
+
+	/**
+	 * Agregado de un unico elemento con count instancias.
+	 */
+	A lift(T element, int count);
+
+	/**
+	 * Agregado de los elementos de left seguidos de los de right.
+	 */
+	A combine(A left, A right);
+
+	/**
+	 * Suma de value(x) para todas las instancias de los elementos.
+	 */
+	static <T extends Comparable<? super T>> TreeAugmentation<T, Long> sum(final ToLongFunction<? super T> value) {
+		return new TreeAugmentation<T, Long>() {
+			@Override
+			public Long identity() {
+				return 0L;
+			}
+
+			@Override
+			public Long lift(T element, int count) {
+				return value.applyAsLong(element) * count;
+			}
+
+			@Override
+			public Long combine(Long left, Long right) {
+				return left + right;
+			}
+		};
+	}
+
+	/**
+	 * Menor value(x) de los elementos, Long.MAX_VALUE si no hay ninguno.
+	 */
+	static <T extends Comparable<? super T>> TreeAugmentation<T, Long> min(final ToLongFunction<? super T> value) {
+		return new TreeAugmentation<T, Long>() {
+			@Override
+			public Long identity() {
+				return Long.MAX_VALUE;
+			}
+
+			@Override
+			public Long lift(T element, int count) {
+				return value.applyAsLong(element);
+			}
+
+			@Override
+			public Long combine(Long left, Long right) {
+				return left <= right ? left : right;
+			}
+		};
+	}
+
+	/**
+	 * Mayor value(x) de los elementos, Long.MIN_VALUE si no hay ninguno.
+	 */
+	static <T extends Comparable<? super T>> TreeAugmentation<T, Long> max(final ToLongFunction<? super T> value) {
+		return new TreeAugmentation<T, Long>() {
+			@Override
+			public Long identity() {
+				return Long.MIN_VALUE;
+			}
+
+			@Override
+			public Long lift(T element, int count) {
+				return value.applyAsLong(element);
+			}
+
+			@Override
+			public Long combine(Long left, Long right) {
+				return left >= right ? left : right;
+			}
+		};
+	}
+}
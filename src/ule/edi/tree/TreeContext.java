@@ -0,0 +1,55 @@
+package ule.edi.tree;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opciones y estructuras auxiliares de un {@link BinarySearchTreeImpl} que
+ * son del arbol completo y no de cada nodo.
+ *
+ * Solo la raiz guarda un contexto, y solo cuando se activa alguna opcion; el
+ * resto de nodos lo tienen a null. Asi cada nodo paga una unica referencia
+ * por todas ellas y las operaciones sin opciones activas solo comprueban
+ * que el contexto es null.
+ *
+ * @param <T> tipo de la informacion en cada nodo, comparable.
+ */
+final class TreeContext<T extends Comparable<? super T>> {
+
+	TreeMetrics metrics; // metricas de uso, null si no estan activas
+	
+	double maxHeightRatio; // altura maxima / log2(size + 1), 0 si no se vigila la forma
+	int size; // numero de nodos con elemento, solo se mantiene si se vigila la forma
+	int maxSize; // mayor valor de size desde la ultima reconstruccion completa
+	
+	boolean splay; // si cada acceso sube el elemento a la raiz
+	
+	LookupCache<T> cache; // nodos de los elementos mas buscados, null si no hay
+	
+	boolean fingerSearch; // si las busquedas empiezan en el ultimo nodo visitado
+	Finger<T> finger; // dedo compartido por todos los hilos
+	ThreadLocal<Finger<T>> threadFingers; // un dedo por hilo, null si se comparte
+	AtomicInteger threadFingerCount; // dedos creados por threadFingers, null si se comparte
+	int fingerEpoch; // cambia al borrar o reconstruir, invalidando los dedos
+	
+	CountIndex<T> countIndex; // elementos por numero de instancias, null si no hay
+	
+	List<TreeListener<T>> listeners; // oyentes de las modificaciones, null si no hay
+	long eventSequence; // numero del ultimo evento notificado
+	
+	TreeAugmentation<T, ?> augmentation; // agregado de cada sub-arbol, null si no hay
+	
+	long tagsMaintained; // bit 1 << slot de cada etiqueta que se mantiene al modificar
+	long tagsDirty; // etiquetas mantenidas pendientes de recalcular en todo el arbol
+	T internalDirtyFrom; // menor elemento desde el que renumerar "internal", null si no hace falta
+	T descendDirtyTo; // mayor elemento hasta el que renumerar "descend", null si no hace falta
+	
+	/**
+	 * Ultimo nodo visitado por una busqueda y su profundidad.
+	 */
+	static final class Finger<T extends Comparable<? super T>> {
+		BinarySearchTreeImpl<T> node;
+		int depth;
+		int epoch;
+	}
+}
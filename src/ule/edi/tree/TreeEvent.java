@@ -0,0 +1,106 @@
+package ule.edi.tree;
+
+/**
+ * Modificacion de un {@link BinarySearchTreeImpl}, notificada a los
+ * {@link TreeListener} del arbol una vez hecha.
+ *
+ * El camino es el de {@link BinarySearchTreeImpl#getPath(Comparable)} desde
+ * el nodo en que se registro el oyente, en el momento de la modificacion: para
+ * REMOVE, el del nodo que tenia el elemento antes de quitarlo. Cada arbol
+ * numera sus eventos de forma consecutiva desde 1, asi que un hueco en la
+ * secuencia indica que se han perdido eventos.
+ *
+ * @param <T> tipo de la informacion en cada nodo, comparable.
+ */
+public final class TreeEvent<T extends Comparable<? super T>> {
+
+	public enum Type {
+		/** Elemento nuevo en el arbol, con oldCount 0. */
+		INSERT,
+		/** Cambia el count de un elemento que sigue en el arbol. */
+		COUNT,
+		/** Elemento quitado del arbol, con newCount 0. */
+		REMOVE,
+		/**
+		 * Sub-arbol reconstruido: sus elementos no cambian, pero si sus
+		 * caminos. El camino es el de la raiz del sub-arbol y no hay
+		 * elemento.
+		 */
+		RESHAPE
+	}
+
+	private final long sequence;
+	private final Type type;
+	private final T element;
+	private final int oldCount;
+	private final int newCount;
+	// caminos de hasta 64 pasos: bit i a 1 si el paso i contando desde el
+	// final es "R"; la cadena se construye al pedirla
+	private final long pathBits;
+	private final int pathLength;
+	private String path;
+
+	TreeEvent(long sequence, Type type, T element, int oldCount, int newCount, String path) {
+		this(sequence, type, element, oldCount, newCount, 0, path.length());
+		this.path = path;
+	}
+
+	TreeEvent(long sequence, Type type, T element, int oldCount, int newCount, long pathBits, int pathLength) {
+		this.sequence = sequence;
+		this.type = type;
+		this.element = element;
+		this.oldCount = oldCount;
+		this.newCount = newCount;
+		this.pathBits = pathBits;
+		this.pathLength = pathLength;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Elemento modificado, o null en RESHAPE.
+	 */
+	public T getElement() {
+		return element;
+	}
+
+	public int getOldCount() {
+		return oldCount;
+	}
+
+	public int getNewCount() {
+		return newCount;
+	}
+
+	public String getPath() {
+		if (path == null) {
+			char[] rx = new char[pathLength];
+			for (int i = 0; i < pathLength; i++) {
+				rx[i] = (pathBits >>> (pathLength - 1 - i) & 1) != 0 ? 'R' : 'L';
+			}
+			path = new String(rx);
+		}
+		return path;
+	}
+
+	/**
+	 * Numero de pasos del camino.
+	 */
+	public int getDepth() {
+		return pathLength;
+	}
+
+	@Override
+	public String toString() {
+		if (type == Type.RESHAPE) {
+			return sequence + " " + type + " \"" + getPath() + "\"";
+		}
+		return sequence + " " + type + " " + element + " " + oldCount + "->" + newCount + " \"" + getPath() + "\"";
+	}
+}
@@ -0,0 +1,132 @@
+package ule.edi.tree;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Lineas de {@link AbstractTreeADT#render()} generadas una a una.
+ *
+ * Recorre el arbol en preorden con una pila explicita de nodos pendientes,
+ * asi que no depende de la recursividad ni de la altura del arbol, y solo
+ * construye la linea que se pide. El sangrado se copia de un array que crece
+ * con la profundidad en lugar de añadir "|  " por cada nivel.
+ *
+ * Los nodos a mas de maxDepth niveles de la raiz no se muestran: un nodo no
+ * hoja en el nivel maxDepth muestra en su lugar una linea {@link #ELISION}. Al
+ * llegar a maxNodes nodos no vacios se muestra otra linea {@link #ELISION} en
+ * el sitio del siguiente y se termina.
+ *
+ * @param <T> tipo de la informacion en cada nodo.
+ */
+final class TreeLines<T> implements Iterator<String> {
+
+	static final String ELISION = "...";
+
+	private static final String INDENT = "|  ";
+
+	private static final class Pending<T> {
+		final TreeADT<T> node; // null para una linea de elision
+		final int depth;
+
+		Pending(TreeADT<T> node, int depth) {
+			this.node = node;
+			this.depth = depth;
+		}
+	}
+
+	private final int maxDepth;
+	private final int maxNodes;
+	private final LinkedList<Pending<T>> pending = new LinkedList<Pending<T>>();
+	private int nodes = 0;
+	private char[] indent = new char[0];
+
+	TreeLines(TreeADT<T> tree, int maxDepth, int maxNodes) {
+		if (maxDepth < 0 || maxNodes < 0)
+			throw new IllegalArgumentException();
+
+		this.maxDepth = maxDepth;
+		this.maxNodes = maxNodes;
+		if (tree instanceof AbstractTreeADT) {
+			((AbstractTreeADT<T>) tree).beforeTagDisplay();
+		}
+		pending.push(new Pending<T>(tree, 0));
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !pending.isEmpty();
+	}
+
+	@Override
+	public String next() {
+		StringBuilder rx = new StringBuilder();
+		appendNext(rx);
+		return rx.toString();
+	}
+
+	/**
+	 * Añade la siguiente linea a out, sin salto de linea.
+	 */
+	void appendNext(StringBuilder out) {
+		if (pending.isEmpty())
+			throw new NoSuchElementException();
+
+		Pending<T> p = pending.pop();
+		appendIndent(out, p.depth);
+		TreeADT<T> t = p.node;
+		if (t == null) {
+			out.append(ELISION);
+		} else if (t.isEmpty()) {
+			out.append(AbstractTreeADT.EMPTY_TREE_MARK);
+		} else if (nodes == maxNodes) {
+			out.append(ELISION);
+			pending.clear();
+		} else {
+			nodes++;
+			out.append(t.getContent());
+			// sin crear el mapa en los nodos que no tienen etiquetas
+			appendTags(t instanceof AbstractTreeADT ? ((AbstractTreeADT<T>) t).displayTags() : t.getTags(), out);
+			if (p.depth < maxDepth) {
+				for (int i = t.getMaxDegree() - 1; i >= 0; i--) {
+					pending.push(new Pending<T>(t.getSubtree(i), p.depth + 1));
+				}
+			} else if (!t.isLeaf()) {
+				pending.push(new Pending<T>(null, p.depth + 1));
+			}
+		}
+	}
+
+	private void appendIndent(StringBuilder out, int depth) {
+		int len = depth * INDENT.length();
+		if (indent.length < len) {
+			char[] mayor = new char[Math.max(len, 2 * indent.length)];
+			for (int i = 0; i < mayor.length; i++) {
+				mayor[i] = INDENT.charAt(i % INDENT.length());
+			}
+			indent = mayor;
+		}
+		out.append(indent, 0, len);
+	}
+
+	/**
+	 * Añade " [(k1, v1), (k2, v2)]" con las claves ordenadas, o nada si no hay
+	 * etiquetas.
+	 */
+	static void appendTags(Map<String, Object> tags, StringBuilder out) {
+		if (tags == null || tags.isEmpty()) {
+			return;
+		}
+		out.append(" [");
+		List<String> sk = new LinkedList<String>(tags.keySet());
+		Collections.sort(sk);
+		for (String k : sk) {
+			out.append('(').append(k).append(", ").append(tags.get(k)).append("), ");
+		}
+		out.setLength(out.length() - 2);
+		out.append(']');
+	}
+}
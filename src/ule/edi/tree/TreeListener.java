@@ -0,0 +1,16 @@
+package ule.edi.tree;
+
+/**
+ * Oyente de las modificaciones de un {@link BinarySearchTreeImpl}.
+ *
+ * Se llama en el hilo que modifica el arbol, justo despues de cada cambio,
+ * asi que debe volver enseguida; {@link RingBufferListener} deja los eventos
+ * en una cola para consumirlos desde otro hilo.
+ *
+ * @param <T> tipo de la informacion en cada nodo, comparable.
+ * @see BinarySearchTreeImpl#addTreeListener(TreeListener)
+ */
+public interface TreeListener<T extends Comparable<? super T>> {
+
+	void treeChanged(TreeEvent<T> event);
+}
@@ -0,0 +1,269 @@
+package ule.edi.tree;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metricas de uso de un {@link BinarySearchTreeImpl}.
+ *
+ * Se activan con {@link BinarySearchTreeImpl#enableMetrics()} sobre la raiz.
+ * Mientras no se activan, el arbol solo paga una comprobacion de null por
+ * operacion.
+ *
+ * Para cada operacion se cuentan las llamadas, las comparaciones con
+ * compareTo y la profundidad a la que termina el descenso (histograma con
+ * {@link #DEPTH_BUCKETS} casillas; las profundidades mayores se acumulan en
+ * la ultima). Tambien se cuentan los nodos y centinelas creados al insertar.
+ *
+ * Se pueden consultar con {@link #snapshot()} o publicar por JMX con
+ * {@link #registerMBean(String)}.
+ */
+public class TreeMetrics implements TreeMetricsMXBean {
+
+	/**
+	 * Operaciones instrumentadas.
+	 */
+	public enum Operation {
+		INSERT, CONTAINS, GET_ELEM, REMOVE
+	}
+
+	/**
+	 * Numero de casillas del histograma de profundidades.
+	 */
+	public static final int DEPTH_BUCKETS = 64;
+
+	private static final int OPS = Operation.values().length;
+
+	private final BinarySearchTreeImpl<?> tree;
+
+	private final AtomicLongArray operations = new AtomicLongArray(OPS);
+	private final AtomicLongArray comparisons = new AtomicLongArray(OPS);
+	private final AtomicLongArray depths = new AtomicLongArray(OPS * DEPTH_BUCKETS);
+	private final AtomicLong nodesCreated = new AtomicLong();
+	private final AtomicLong sentinelsAllocated = new AtomicLong();
+	private final AtomicLong rebuilds = new AtomicLong();
+	private final AtomicLong rebuiltNodes = new AtomicLong();
+
+	private ObjectName mbeanName;
+
+	TreeMetrics(BinarySearchTreeImpl<?> tree) {
+		this.tree = tree;
+	}
+
+	/**
+	 * Registra una operacion que ha bajado hasta la profundidad depth
+	 * haciendo cmp comparaciones.
+	 */
+	void recordDescent(Operation op, int depth, int cmp) {
+		int i = op.ordinal();
+		operations.incrementAndGet(i);
+		comparisons.addAndGet(i, cmp);
+		depths.incrementAndGet(i * DEPTH_BUCKETS + Math.min(depth, DEPTH_BUCKETS - 1));
+	}
+
+	void recordAllocation(int nodes, int sentinels) {
+		nodesCreated.addAndGet(nodes);
+		sentinelsAllocated.addAndGet(sentinels);
+	}
+
+	void recordRebuild(int nodes) {
+		rebuilds.incrementAndGet();
+		rebuiltNodes.addAndGet(nodes);
+	}
+
+	public long getCount(Operation op) {
+		return operations.get(op.ordinal());
+	}
+
+	public long getComparisons(Operation op) {
+		return comparisons.get(op.ordinal());
+	}
+
+	/**
+	 * Devuelve una copia del histograma de profundidades de la operacion:
+	 * la posicion d cuenta los descensos que terminaron a profundidad d.
+	 */
+	public long[] getDepthHistogram(Operation op) {
+		long[] rx = new long[DEPTH_BUCKETS];
+		for (int d = 0; d < DEPTH_BUCKETS; d++) {
+			rx[d] = depths.get(op.ordinal() * DEPTH_BUCKETS + d);
+		}
+		return rx;
+	}
+
+	@Override
+	public long getInsertCount() {
+		return getCount(Operation.INSERT);
+	}
+
+	@Override
+	public long getContainsCount() {
+		return getCount(Operation.CONTAINS);
+	}
+
+	@Override
+	public long getGetElemCount() {
+		return getCount(Operation.GET_ELEM);
+	}
+
+	@Override
+	public long getRemoveCount() {
+		return getCount(Operation.REMOVE);
+	}
+
+	@Override
+	public long getComparisons() {
+		long rx = 0;
+		for (int i = 0; i < OPS; i++) {
+			rx += comparisons.get(i);
+		}
+		return rx;
+	}
+
+	@Override
+	public double getComparisonsPerOperation() {
+		long ops = 0;
+		for (int i = 0; i < OPS; i++) {
+			ops += operations.get(i);
+		}
+		return ops == 0 ? 0.0 : (double) getComparisons() / ops;
+	}
+
+	@Override
+	public long getNodesCreated() {
+		return nodesCreated.get();
+	}
+
+	@Override
+	public long getSentinelsAllocated() {
+		return sentinelsAllocated.get();
+	}
+
+	@Override
+	public long getRebuilds() {
+		return rebuilds.get();
+	}
+
+	@Override
+	public long getRebuiltNodes() {
+		return rebuiltNodes.get();
+	}
+
+	@Override
+	public int getHeight() {
+		return tree.height();
+	}
+
+	@Override
+	public int getBalanceFactor() {
+		if (tree.isEmpty()) {
+			return 0;
+		}
+		return tree.getLeftBST().height() - tree.getRightBST().height();
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < OPS; i++) {
+			operations.set(i, 0);
+			comparisons.set(i, 0);
+		}
+		for (int i = 0; i < depths.length(); i++) {
+			depths.set(i, 0);
+		}
+		nodesCreated.set(0);
+		sentinelsAllocated.set(0);
+		rebuilds.set(0);
+		rebuiltNodes.set(0);
+	}
+
+	/**
+	 * Bytes de las metricas: los contadores y sus arrays, sin el registro
+	 * JMX.
+	 */
+	long memoryBytes() {
+		return MemoryFootprint.shallowSize(TreeMetrics.class)
+				+ 3 * MemoryFootprint.shallowSize(AtomicLongArray.class)
+				+ 2 * MemoryFootprint.arrayBytes(OPS, 8) + MemoryFootprint.arrayBytes(depths.length(), 8)
+				+ 4 * MemoryFootprint.shallowSize(AtomicLong.class);
+	}
+
+	/**
+	 * Devuelve una copia de todas las metricas con nombres estables, por
+	 * ejemplo "insert.count", "insert.comparisons", "insert.depth.p50",
+	 * "nodes.created" o "height".
+	 *
+	 * La altura y el factor de equilibrio se calculan en el momento,
+	 * recorriendo el arbol.
+	 */
+	public Map<String, Number> snapshot() {
+		Map<String, Number> rx = new LinkedHashMap<String, Number>();
+		for (Operation op : Operation.values()) {
+			String k = op.name().toLowerCase();
+			rx.put(k + ".count", getCount(op));
+			rx.put(k + ".comparisons", getComparisons(op));
+			long[] h = getDepthHistogram(op);
+			rx.put(k + ".depth.p50", percentile(h, 0.50));
+			rx.put(k + ".depth.p99", percentile(h, 0.99));
+			rx.put(k + ".depth.max", percentile(h, 1.0));
+		}
+		rx.put("nodes.created", getNodesCreated());
+		rx.put("sentinels.allocated", getSentinelsAllocated());
+		rx.put("rebuilds", getRebuilds());
+		rx.put("rebuilt.nodes", getRebuiltNodes());
+		rx.put("height", getHeight());
+		rx.put("balance", getBalanceFactor());
+		return rx;
+	}
+
+	private static int percentile(long[] histogram, double p) {
+		long total = 0;
+		for (long h : histogram) {
+			total += h;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long objetivo = (long) Math.ceil(p * total);
+		long acumulado = 0;
+		for (int d = 0; d < histogram.length; d++) {
+			acumulado += histogram[d];
+			if (acumulado >= objetivo && histogram[d] > 0) {
+				return d;
+			}
+		}
+		return histogram.length - 1;
+	}
+
+	/**
+	 * Publica estas metricas en el MBeanServer de la plataforma con el nombre
+	 * "ule.edi.tree:type=TreeMetrics,name=" + name.
+	 *
+	 * @throws JMException si no se puede registrar (por ejemplo, nombre repetido)
+	 */
+	public void registerMBean(String name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName on = new ObjectName("ule.edi.tree:type=TreeMetrics,name=" + ObjectName.quote(name));
+		server.registerMBean(this, on);
+		this.mbeanName = on;
+	}
+
+	/**
+	 * Retira el MBean registrado con {@link #registerMBean(String)}, si lo hay.
+	 *
+	 * @throws JMException si el MBeanServer no lo puede retirar
+	 */
+	public void unregisterMBean() throws JMException {
+		if (mbeanName != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+			mbeanName = null;
+		}
+	}
+}
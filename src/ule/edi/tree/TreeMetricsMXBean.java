@@ -0,0 +1,61 @@
+package ule.edi.tree;
+
+/**
+ * Vista JMX de {@link TreeMetrics}.
+ *
+ * Todos los contadores son acumulados desde que se activaron las metricas
+ * o desde el ultimo {@link #reset()}.
+ */
+public interface TreeMetricsMXBean {
+
+	long getInsertCount();
+
+	long getContainsCount();
+
+	long getGetElemCount();
+
+	long getRemoveCount();
+
+	/**
+	 * Numero total de llamadas a compareTo hechas en los descensos.
+	 */
+	long getComparisons();
+
+	/**
+	 * Media de comparaciones por operacion.
+	 */
+	double getComparisonsPerOperation();
+
+	/**
+	 * Nodos vacios que han pasado a contener un elemento.
+	 */
+	long getNodesCreated();
+
+	/**
+	 * Nodos vacios (centinelas) reservados en memoria.
+	 */
+	long getSentinelsAllocated();
+
+	/**
+	 * Sub-arboles reconstruidos al vigilar la forma del arbol.
+	 */
+	long getRebuilds();
+
+	/**
+	 * Total de nodos movidos en esas reconstrucciones.
+	 */
+	long getRebuiltNodes();
+
+	/**
+	 * Altura actual del arbol (0 si es vacio). Recorre el arbol completo.
+	 */
+	int getHeight();
+
+	/**
+	 * Altura del sub-arbol izquierdo de la raiz menos la del derecho.
+	 * Recorre el arbol completo.
+	 */
+	int getBalanceFactor();
+
+	void reset();
+}
@@ -0,0 +1,102 @@
+package ule.edi.tree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.LinkedList;
+
+/**
+ * Copia binaria de un {@link BinarySearchTreeImpl} que conserva su forma.
+ *
+ * Los nodos se escriben en preorden: un byte con los hijos que tiene (bit 0
+ * el izquierdo, bit 1 el derecho), el elemento con su {@link KeyCodec} y el
+ * count. Al leerla se reconstruye el mismo arbol en O(n) y sin comparar
+ * elementos, por lo que los caminos (getPath) no cambian. Las etiquetas no
+ * se guardan.
+ */
+public final class TreeSnapshot {
+
+	static final int MAGIC = 0x42535453; // "BSTS"
+
+	private static final int LEFT = 1;
+	private static final int RIGHT = 2;
+
+	private TreeSnapshot() {
+	}
+
+	/**
+	 * Escribe el arbol en out.
+	 *
+	 * @throws IllegalArgumentException si tree o codec son null
+	 */
+	public static <T extends Comparable<? super T>> void write(BinarySearchTreeImpl<T> tree, KeyCodec<T> codec,
+			DataOutput out) throws IOException {
+		if (tree == null || codec == null)
+			throw new IllegalArgumentException();
+
+		out.writeInt(MAGIC);
+		out.writeInt(tree.size());
+		LinkedList<BinarySearchTreeImpl<T>> pendientes = new LinkedList<BinarySearchTreeImpl<T>>();
+		if (!tree.isEmpty()) {
+			pendientes.push(tree);
+		}
+		while (!pendientes.isEmpty()) {
+			BinarySearchTreeImpl<T> nodo = pendientes.pop();
+			BinarySearchTreeImpl<T> izq = nodo.getLeftBST();
+			BinarySearchTreeImpl<T> der = nodo.getRightBST();
+			out.writeByte((izq.isEmpty() ? 0 : LEFT) | (der.isEmpty() ? 0 : RIGHT));
+			codec.write(nodo.content, out);
+			out.writeInt(nodo.count);
+			if (!der.isEmpty()) {
+				pendientes.push(der);
+			}
+			if (!izq.isEmpty()) {
+				pendientes.push(izq);
+			}
+		}
+	}
+
+	/**
+	 * Lee un arbol escrito con {@link #write}.
+	 *
+	 * @throws IOException si los datos no son una copia valida
+	 * @throws IllegalArgumentException si codec es null
+	 */
+	public static <T extends Comparable<? super T>> BinarySearchTreeImpl<T> read(KeyCodec<T> codec, DataInput in)
+			throws IOException {
+		if (codec == null)
+			throw new IllegalArgumentException();
+		if (in.readInt() != MAGIC)
+			throw new IOException("not a tree snapshot");
+
+		int n = in.readInt();
+		BinarySearchTreeImpl<T> tree = new BinarySearchTreeImpl<T>();
+		LinkedList<BinarySearchTreeImpl<T>> pendientes = new LinkedList<BinarySearchTreeImpl<T>>();
+		if (n > 0) {
+			pendientes.push(tree);
+		}
+		int leidos = 0;
+		while (!pendientes.isEmpty()) {
+			BinarySearchTreeImpl<T> nodo = pendientes.pop();
+			int hijos = in.readUnsignedByte();
+			T elem = codec.read(in);
+			int count = in.readInt();
+			if (elem == null || count < 1 || ++leidos > n)
+				throw new IOException("corrupt tree snapshot");
+
+			nodo.setContent(elem);
+			nodo.count = count;
+			nodo.leftSubtree = new BinarySearchTreeImpl<T>(nodo);
+			nodo.rightSubtree = new BinarySearchTreeImpl<T>(nodo);
+			if ((hijos & RIGHT) != 0) {
+				pendientes.push(nodo.getRightBST());
+			}
+			if ((hijos & LEFT) != 0) {
+				pendientes.push(nodo.getLeftBST());
+			}
+		}
+		if (leidos != n)
+			throw new IOException("corrupt tree snapshot");
+		return tree;
+	}
+}